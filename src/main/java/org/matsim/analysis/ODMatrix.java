@@ -0,0 +1,214 @@
+package org.matsim.analysis;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.csv.CSVFormat;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Origin-destination matrix with an additional purpose dimension. Zones are fixed and referenced by their index,
+ * purposes are interned when they are first seen. Values are stored sparse with primitive keys, so that no objects are
+ * created per entry.
+ * <p>
+ * Instances are not thread-safe. Parallel workers should each fill their own matrix and {@link #merge(ODMatrix)} them afterward.
+ */
+public final class ODMatrix {
+
+	private static final int MAGIC = 0x4F444D58; // ODMX
+	private static final int VERSION = 1;
+
+	private static final int BITS = 21;
+	private static final long MASK = (1L << BITS) - 1;
+
+	private final List<String> zones;
+	private final List<String> purposes = new ArrayList<>();
+	private final Object2IntMap<String> purposeIndex = new Object2IntOpenHashMap<>();
+	private final Long2DoubleOpenHashMap values = new Long2DoubleOpenHashMap();
+
+	/**
+	 * Create an empty matrix.
+	 *
+	 * @param zones zone keys by their index, e.g. from {@link ZoneLocator#getKeys()}
+	 */
+	public ODMatrix(List<String> zones) {
+		if (zones.size() > MASK)
+			throw new IllegalArgumentException("Too many zones: " + zones.size());
+
+		this.zones = zones;
+		this.purposeIndex.defaultReturnValue(-1);
+	}
+
+	public List<String> getZones() {
+		return zones;
+	}
+
+	public List<String> getPurposes() {
+		return Collections.unmodifiableList(purposes);
+	}
+
+	/**
+	 * Number of non-zero entries.
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * Return the index of a purpose, which is created if not yet present.
+	 */
+	public int purpose(String purpose) {
+		int idx = purposeIndex.getInt(purpose);
+		if (idx < 0) {
+			idx = purposes.size();
+			if (idx > MASK)
+				throw new IllegalStateException("Too many purposes.");
+
+			purposes.add(purpose);
+			purposeIndex.put(purpose, idx);
+		}
+		return idx;
+	}
+
+	public void add(int from, int to, int purpose, double value) {
+		values.addTo(key(from, to, purpose), value);
+	}
+
+	public void add(int from, int to, String purpose, double value) {
+		add(from, to, purpose(purpose), value);
+	}
+
+	public double get(int from, int to, String purpose) {
+		int p = purposeIndex.getInt(purpose);
+		return p < 0 ? 0 : values.get(key(from, to, p));
+	}
+
+	/**
+	 * Add all values of another matrix with the same zones to this one.
+	 */
+	public void merge(ODMatrix other) {
+
+		if (!zones.equals(other.zones))
+			throw new IllegalArgumentException("Matrices with different zones can not be merged.");
+
+		int[] mapping = new int[other.purposes.size()];
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = purpose(other.purposes.get(i));
+		}
+
+		for (Long2DoubleMap.Entry e : other.values.long2DoubleEntrySet()) {
+			long k = e.getLongKey();
+			add(keyFrom(k), keyTo(k), mapping[keyPurpose(k)], e.getDoubleValue());
+		}
+	}
+
+	/**
+	 * Write all non-zero entries as csv, ordered by origin, destination and purpose.
+	 */
+	public void writeCsv(Path path) throws IOException {
+
+		long[] keys = sortedKeys();
+		try (var writer = Files.newBufferedWriter(path); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader("start", "end", "purpose", "count").print(writer)) {
+			for (long k : keys) {
+				printer.printRecord(zones.get(keyFrom(k)), zones.get(keyTo(k)), purposes.get(keyPurpose(k)), values.get(k));
+			}
+		}
+	}
+
+	/**
+	 * Write the matrix in a compact binary format. Zones and purposes are stored once in the header, followed by
+	 * the sorted non-zero entries.
+	 */
+	public void writeBinary(Path path) throws IOException {
+
+		long[] keys = sortedKeys();
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			writeStrings(out, zones);
+			writeStrings(out, purposes);
+
+			out.writeInt(keys.length);
+			for (long k : keys) {
+				out.writeInt(keyFrom(k));
+				out.writeInt(keyTo(k));
+				out.writeInt(keyPurpose(k));
+				out.writeDouble(values.get(k));
+			}
+		}
+	}
+
+	/**
+	 * Read a matrix written by {@link #writeBinary(Path)}.
+	 */
+	public static ODMatrix readBinary(Path path) throws IOException {
+
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a binary od matrix: " + path);
+
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version " + version + " of " + path);
+
+			ODMatrix matrix = new ODMatrix(readStrings(in));
+			for (String purpose : readStrings(in)) {
+				matrix.purpose(purpose);
+			}
+
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				matrix.add(in.readInt(), in.readInt(), in.readInt(), in.readDouble());
+			}
+
+			return matrix;
+		}
+	}
+
+	private long[] sortedKeys() {
+		long[] keys = values.keySet().toLongArray();
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		List<String> result = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			result.add(in.readUTF());
+		}
+		return result;
+	}
+
+	private static long key(int from, int to, int purpose) {
+		return ((long) from << (2 * BITS)) | ((long) to << BITS) | purpose;
+	}
+
+	private static int keyFrom(long key) {
+		return (int) (key >>> (2 * BITS));
+	}
+
+	private static int keyTo(long key) {
+		return (int) ((key >>> BITS) & MASK);
+	}
+
+	private static int keyPurpose(long key) {
+		return (int) (key & MASK);
+	}
+}
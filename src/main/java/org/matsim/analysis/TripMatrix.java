@@ -1,29 +1,14 @@
 package org.matsim.analysis;
 
-import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.matsim.application.ApplicationUtils;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.ShpOptions;
 import picocli.CommandLine;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
+import java.util.List;
 
 @SuppressWarnings("unused")
 @CommandLine.Command(name = "trip-matrix")
@@ -40,6 +25,15 @@ public class TripMatrix implements MATSimAppCommand {
 	@CommandLine.Option(names = "--attr-name", defaultValue = "id")
 	private String attrName;
 
+	@CommandLine.Option(names = "--threads", description = "Number of threads used for zone assignment")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@CommandLine.Option(names = "--cell-size", defaultValue = "100", description = "Size of grid cells in meter for caching zone lookups. Use 0 to disable.")
+	private double cellSize;
+
+	@CommandLine.Option(names = "--binary", description = "Additionally write the matrix in binary format", defaultValue = "false")
+	private boolean binary;
+
 	@SuppressWarnings("FieldMayBeFinal")
 	@CommandLine.Mixin
 	private ShpOptions shp = new ShpOptions();
@@ -54,68 +48,47 @@ public class TripMatrix implements MATSimAppCommand {
 		// first check if shapefile was provided
 		if (!shp.isDefined()) throw new RuntimeException("Shapefile must be defined!");
 
-		var preparedFactory = new PreparedGeometryFactory();
-		Map<String, PreparedGeometry> preparedFeatures = shp.readFeatures().stream()
-				.collect(Collectors.toMap(f -> (String) f.getAttribute(attrName), f -> preparedFactory.create((Geometry) f.getDefaultGeometry())));
+		ZoneLocator locator = ZoneLocator.fromFeatures(shp.readFeatures(), attrName, cellSize);
 
 		var tripsFile = ApplicationUtils.globFile(runDirectory, runId + "*trips*");
-		var factory = new GeometryFactory();
-		Object2DoubleMap<MatrixEntry> result = new Object2DoubleOpenHashMap<>();
-
-		log.info("Start parsing trips csv file at: " + tripsFile);
-		int counter = 0;
-		try (var reader = createReader(tripsFile); var parser = CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader().parse(reader)) {
-
-			for (CSVRecord record : parser) {
-				var startX = Double.parseDouble(record.get("start_x"));
-				var startY = Double.parseDouble(record.get("start_y"));
-				var endX = Double.parseDouble(record.get("end_x"));
-				var endY = Double.parseDouble(record.get("end_y"));
-				var endActivity = record.get("end_activity_type");
-
-				var startKey = findKey(startX, startY, preparedFeatures, factory);
-				var endKey = findKey(endX, endY, preparedFeatures, factory);
-				var entry = new MatrixEntry(startKey, endKey, endActivity);
-				result.mergeDouble(entry, 1, Double::sum);
-
-				if (counter % 100000 == 0) {
-					log.info("Parsed " + counter + " trips");
-				}
-				counter++;
+
+		log.info("Start parsing trips csv file at: {} using {} threads", tripsFile, threads);
+
+		TripsReader reader = new TripsReader(tripsFile)
+				.doubleColumns("start_x", "start_y", "end_x", "end_y")
+				.stringColumns("end_activity_type")
+				.threads(threads);
+
+		List<ODMatrix> partials = reader.read(() -> new ODMatrix(locator.getKeys()), (partial, batch) -> {
+			double[] startX = batch.doubles(0);
+			double[] startY = batch.doubles(1);
+			double[] endX = batch.doubles(2);
+			double[] endY = batch.doubles(3);
+
+			for (int i = 0; i < batch.size(); i++) {
+				int startKey = locator.locateIndex(startX[i], startY[i]);
+				int endKey = locator.locateIndex(endX[i], endY[i]);
+				partial.add(startKey, endKey, batch.getString(0, i), 1);
 			}
+		});
+
+		ODMatrix result = new ODMatrix(locator.getKeys());
+		for (ODMatrix partial : partials) {
+			result.merge(partial);
 		}
 
+		log.info("Assigned trips to {} zones, {} grid cells cached", locator.size(), locator.cachedCells());
+
 		var outputPath = runDirectory.resolve(runId + ".trip_matrix.csv");
 		log.info("Writing output file to: " + outputPath);
-		try (var writer = Files.newBufferedWriter(outputPath); var printer = CSVFormat.DEFAULT.withDelimiter(';').withHeader("start", "end", "purpose", "count").print(writer)) {
+		result.writeCsv(outputPath);
 
-			for (var entry : result.object2DoubleEntrySet()) {
-				var matrixEntry = entry.getKey();
-				var count = entry.getDoubleValue();
-				printer.printRecord(matrixEntry.fromKey(), matrixEntry.toKey(), matrixEntry.endActivity(), count);
-			}
+		if (binary) {
+			var binaryPath = runDirectory.resolve(runId + ".trip_matrix.bin");
+			log.info("Writing binary output file to: " + binaryPath);
+			result.writeBinary(binaryPath);
 		}
 
 		return 0;
 	}
-
-	private static String findKey(double x, double y, Map<String, PreparedGeometry> features, GeometryFactory factory) {
-
-		var point = factory.createPoint(new Coordinate(x, y));
-
-		return features.entrySet().parallelStream()
-				.filter(entry -> entry.getValue().covers(point))
-				.map(Map.Entry::getKey)
-				.findAny()
-				.orElse("OUTSIDE_SHAPE");
-	}
-
-	private static Reader createReader(Path path) throws IOException {
-		var fileStream = Files.newInputStream(path);
-		var gzipStream = new GZIPInputStream(fileStream);
-		return new InputStreamReader(gzipStream);
-	}
-
-	record MatrixEntry(String fromKey, String toKey, String endActivity) {
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,457 @@
+package org.matsim.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming reader for (compressed) trips.csv files and similar delimited outputs.
+ * <p>
+ * The file is decompressed in a background thread and split into chunks of complete lines. Worker threads tokenize
+ * these chunks, extracting only the requested columns into primitive arrays, and hand the resulting {@link Batch}
+ * to the consumers. Memory usage is bounded by the number of chunks in flight, independent of the file size.
+ * <p>
+ * Quoted fields, including doubled quotes within them, are supported, but line breaks within quotes are not. Fields
+ * missing at the end of a line are returned as {@link Double#NaN} or null.
+ */
+public final class TripsReader {
+
+	private static final Logger log = LogManager.getLogger(TripsReader.class);
+
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final Chunk END = new Chunk(null, 0, 0);
+
+	private final Path path;
+	private final List<String> doubleColumns = new ArrayList<>();
+	private final List<String> stringColumns = new ArrayList<>();
+	private char delimiter = ';';
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public TripsReader(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Add columns which will be parsed as double. Empty values are returned as {@link Double#NaN}.
+	 * Index in {@link Batch#getDouble(int, int)} is the order in which they are added.
+	 */
+	public TripsReader doubleColumns(String... columns) {
+		doubleColumns.addAll(Arrays.asList(columns));
+		return this;
+	}
+
+	/**
+	 * Add columns which will be returned as strings. Index in {@link Batch#getString(int, int)} is the order in which they are added.
+	 */
+	public TripsReader stringColumns(String... columns) {
+		stringColumns.addAll(Arrays.asList(columns));
+		return this;
+	}
+
+	public TripsReader delimiter(char delimiter) {
+		this.delimiter = delimiter;
+		return this;
+	}
+
+	/**
+	 * Number of threads used for tokenizing and consuming batches.
+	 */
+	public TripsReader threads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Number of threads must be at least 1, but was " + threads);
+
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Read the whole file. Each worker thread creates its own state and all batches handled by this worker are passed
+	 * together with its state to the handler, so that no synchronization is needed within the handler.
+	 *
+	 * @return the states of all workers, which usually need to be merged afterward.
+	 */
+	public <T> List<T> read(Supplier<T> state, BiConsumer<T, Batch> handler) throws IOException, InterruptedException {
+
+		BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(threads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+
+		// column layout is determined from the header by the decompression thread, the queue establishes visibility to the workers
+		int[][] layoutRef = new int[1][];
+
+		try {
+			Future<Long> decompressor = executor.submit(() -> decompress(queue, layoutRef));
+
+			List<Future<T>> workers = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				workers.add(executor.submit(() -> consume(queue, layoutRef, state.get(), handler)));
+			}
+
+			List<T> result = new ArrayList<>();
+			for (Future<T> worker : workers) {
+				result.add(worker.get());
+			}
+
+			log.info("Read {} lines from {}", decompressor.get(), path);
+			return result;
+
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException io)
+				throw io;
+			if (e.getCause() instanceof RuntimeException rt)
+				throw rt;
+
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Decompress the input and split it into chunks of complete lines.
+	 *
+	 * @return number of lines read, excluding the header
+	 */
+	private long decompress(BlockingQueue<Chunk> queue, int[][] layoutRef) throws IOException, InterruptedException {
+
+		long lines = 0;
+		try (InputStream in = IOUtils.getInputStream(IOUtils.resolveFileOrResource(path.toString()))) {
+
+			byte[] buf = new byte[CHUNK_SIZE];
+			int len = 0;
+			boolean header = true;
+
+			while (true) {
+				int n = in.readNBytes(buf, len, buf.length - len);
+				len += n;
+
+				boolean eof = len < buf.length;
+				int end = eof ? len : lastIndexOf(buf, len, (byte) '\n') + 1;
+
+				// line is longer than the buffer
+				if (end == 0 && !eof) {
+					buf = Arrays.copyOf(buf, buf.length * 2);
+					continue;
+				}
+
+				int start = 0;
+				if (header) {
+					int nl = indexOf(buf, 0, end, (byte) '\n');
+					if (nl < 0)
+						nl = end;
+
+					layoutRef[0] = createLayout(new String(buf, 0, nl, StandardCharsets.UTF_8));
+					start = Math.min(nl + 1, end);
+					header = false;
+				}
+
+				lines += count(buf, start, end, (byte) '\n');
+				if (eof && end > start && buf[end - 1] != '\n')
+					lines++;
+
+				if (start < end)
+					queue.put(new Chunk(buf, start, end));
+
+				if (eof)
+					break;
+
+				// the rest of a long line may not fit into a chunk of default size
+				len = len - end;
+				byte[] next = new byte[Math.max(CHUNK_SIZE, len)];
+				System.arraycopy(buf, end, next, 0, len);
+				buf = next;
+			}
+		} finally {
+			queue.put(END);
+		}
+
+		return lines;
+	}
+
+	private <T> T consume(BlockingQueue<Chunk> queue, int[][] layoutRef, T state, BiConsumer<T, Batch> handler) throws InterruptedException {
+
+		StringPool pool = new StringPool();
+		while (true) {
+			Chunk chunk = queue.take();
+			if (chunk == END) {
+				// let the other workers finish as well
+				queue.put(END);
+				return state;
+			}
+
+			handler.accept(state, tokenize(chunk, layoutRef[0], pool));
+		}
+	}
+
+	/**
+	 * Maps field indices of the file to requested columns. Positive values {@code i + 1} refer to double column {@code i},
+	 * negative values {@code -(i + 1)} to string column {@code i}.
+	 */
+	private int[] createLayout(String header) {
+
+		List<String> fields = Arrays.stream(header.strip().split(Pattern.quote(String.valueOf(delimiter)), -1))
+				.map(s -> s.replace("\"", ""))
+				.toList();
+
+		int[] layout = new int[fields.size()];
+		for (int i = 0; i < doubleColumns.size(); i++) {
+			layout[indexOfColumn(fields, doubleColumns.get(i))] = i + 1;
+		}
+		for (int i = 0; i < stringColumns.size(); i++) {
+			layout[indexOfColumn(fields, stringColumns.get(i))] = -(i + 1);
+		}
+
+		// fields after the last requested column don't need to be tokenized
+		int length = layout.length;
+		while (length > 0 && layout[length - 1] == 0)
+			length--;
+
+		return Arrays.copyOf(layout, length);
+	}
+
+	private int indexOfColumn(List<String> fields, String column) {
+		int idx = fields.indexOf(column);
+		if (idx < 0)
+			throw new IllegalArgumentException("Column " + column + " not found in " + path + ". Available columns: " + fields);
+
+		return idx;
+	}
+
+	private Batch tokenize(Chunk chunk, int[] layout, StringPool pool) {
+
+		byte[] data = chunk.data();
+		int capacity = count(data, chunk.start(), chunk.end(), (byte) '\n') + 1;
+		Batch batch = new Batch(doubleColumns.size(), stringColumns.size(), capacity);
+
+		byte delim = (byte) delimiter;
+		int pos = chunk.start();
+		int end = chunk.end();
+
+		while (pos < end) {
+
+			int lineEnd = indexOf(data, pos, end, (byte) '\n');
+			if (lineEnd < 0)
+				lineEnd = end;
+
+			int stop = lineEnd;
+			if (stop > pos && data[stop - 1] == '\r')
+				stop--;
+
+			// skip empty lines
+			if (stop > pos) {
+
+				int row = batch.size++;
+				int field = 0;
+				int i = pos;
+
+				while (i <= stop && field < layout.length) {
+
+					int fieldStart = i;
+					int fieldEnd;
+					boolean escaped = false;
+					if (i < stop && data[i] == '"') {
+						int close = i + 1;
+						while (close < stop && (data[close] != '"' || (close + 1 < stop && data[close + 1] == '"'))) {
+							if (data[close] == '"') {
+								escaped = true;
+								close += 2;
+							} else
+								close++;
+						}
+
+						fieldStart = i + 1;
+						fieldEnd = close;
+						i = indexOf(data, Math.min(close + 1, stop), stop, delim);
+					} else {
+						i = indexOf(data, i, stop, delim);
+						fieldEnd = i < 0 ? stop : i;
+					}
+
+					if (i < 0)
+						i = stop;
+
+					int target = layout[field];
+					if (escaped && target != 0) {
+						// doubled quotes within quoted fields are rare, these values are allocated
+						String value = new String(data, fieldStart, fieldEnd - fieldStart, StandardCharsets.UTF_8).replace("\"\"", "\"");
+						if (target > 0)
+							batch.doubles[target - 1][row] = value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+						else
+							batch.strings[-target - 1][row] = value;
+					} else if (target > 0)
+						batch.doubles[target - 1][row] = parseDouble(data, fieldStart, fieldEnd);
+					else if (target < 0)
+						batch.strings[-target - 1][row] = pool.get(data, fieldStart, fieldEnd);
+
+					field++;
+					i++;
+				}
+
+				// missing fields at the end of the line
+				for (; field < layout.length; field++) {
+					int target = layout[field];
+					if (target > 0)
+						batch.doubles[target - 1][row] = Double.NaN;
+					else if (target < 0)
+						batch.strings[-target - 1][row] = null;
+				}
+			}
+
+			pos = lineEnd + 1;
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Parses plain decimal numbers without allocation. Other notations are delegated to {@link Double#parseDouble(String)}.
+	 */
+	static double parseDouble(byte[] data, int start, int end) {
+
+		if (start == end)
+			return Double.NaN;
+
+		int i = start;
+		boolean negative = data[i] == '-';
+		if (negative || data[i] == '+')
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+
+		for (; i < end; i++) {
+			byte c = data[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (decimals >= 0)
+					decimals++;
+			} else if (c == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+
+		// exponent, too many digits to be exact or invalid characters
+		if (i < end || digits == 0 || digits > 15 || decimals > 22)
+			return Double.parseDouble(new String(data, start, end - start, StandardCharsets.US_ASCII));
+
+		double value = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	private static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private static int indexOf(byte[] data, int from, int to, byte b) {
+		for (int i = from; i < to; i++) {
+			if (data[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] data, int to, byte b) {
+		for (int i = to - 1; i >= 0; i--) {
+			if (data[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	private static int count(byte[] data, int from, int to, byte b) {
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			if (data[i] == b)
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Lines of a chunk of the input. Chunks always contain complete lines.
+	 */
+	private record Chunk(byte[] data, int start, int end) {
+	}
+
+	/**
+	 * Parsed values of consecutive lines. Values are stored per column.
+	 */
+	public static final class Batch {
+
+		private final double[][] doubles;
+		private final String[][] strings;
+		private int size;
+
+		private Batch(int doubleColumns, int stringColumns, int capacity) {
+			doubles = new double[doubleColumns][capacity];
+			strings = new String[stringColumns][capacity];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public double getDouble(int column, int row) {
+			return doubles[column][row];
+		}
+
+		public String getString(int column, int row) {
+			return strings[column][row];
+		}
+
+		/**
+		 * Direct access to the values of a double column. Only the first {@link #size()} entries are valid.
+		 */
+		public double[] doubles(int column) {
+			return doubles[column];
+		}
+	}
+
+	/**
+	 * Deduplicates strings of low cardinality columns, without allocating for values which have been seen before.
+	 */
+	private static final class StringPool {
+
+		private static final int SIZE = 1024;
+
+		private final byte[][] keys = new byte[SIZE][];
+		private final String[] values = new String[SIZE];
+
+		String get(byte[] data, int start, int end) {
+
+			int hash = 1;
+			for (int i = start; i < end; i++)
+				hash = 31 * hash + data[i];
+
+			int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+			byte[] key = keys[slot];
+			if (key != null && Arrays.equals(key, 0, key.length, data, start, end))
+				return values[slot];
+
+			String value = new String(data, start, end - start, StandardCharsets.UTF_8);
+			keys[slot] = Arrays.copyOfRange(data, start, end);
+			values[slot] = value;
+			return value;
+		}
+	}
+}
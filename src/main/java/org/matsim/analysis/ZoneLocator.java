@@ -0,0 +1,181 @@
+package org.matsim.analysis;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the zone of a coordinate. Zones are stored in an STR-tree, so that only polygons whose envelope contains a point
+ * are tested. Results are additionally cached per grid cell: a cell which is fully covered by one zone, or which does not
+ * touch any zone, is resolved without any geometry test. With a cell size matching the 100m/300m grid used for the
+ * population, almost all lookups hit the cache.
+ * <p>
+ * Instances are thread-safe and may be shared between workers.
+ */
+public final class ZoneLocator {
+
+	/**
+	 * Key returned for coordinates which are not within any zone.
+	 */
+	public static final String OUTSIDE = "OUTSIDE_SHAPE";
+
+	/**
+	 * Marker for cells which are intersected by zone boundaries and need a lookup per point.
+	 */
+	private static final int AMBIGUOUS = -1;
+
+	private final STRtree index = new STRtree();
+	private final GeometryFactory factory = new GeometryFactory();
+	private final double cellSize;
+	private final Map<Long, Integer> cellCache = new ConcurrentHashMap<>();
+
+	/**
+	 * Zone keys by their index, the last entry is {@link #OUTSIDE}.
+	 */
+	private final List<String> keys;
+
+	/**
+	 * Create a zone locator.
+	 *
+	 * @param zones    zone geometries by their key
+	 * @param cellSize size of the cached grid cells in meter, a value {@code <= 0} disables the cache
+	 */
+	public ZoneLocator(Map<String, ? extends Geometry> zones, double cellSize) {
+		this.cellSize = cellSize;
+
+		List<String> keys = new ArrayList<>();
+		var preparedFactory = new PreparedGeometryFactory();
+		for (var e : zones.entrySet()) {
+			index.insert(e.getValue().getEnvelopeInternal(), new Zone(keys.size(), preparedFactory.create(e.getValue())));
+			keys.add(e.getKey());
+		}
+		keys.add(OUTSIDE);
+		this.keys = Collections.unmodifiableList(keys);
+
+		// build the tree eagerly, afterward it is only read
+		index.build();
+	}
+
+	/**
+	 * Create a zone locator from shape file features, using {@code attrName} as key.
+	 *
+	 * @throws IllegalStateException if multiple features have the same key
+	 */
+	public static ZoneLocator fromFeatures(Collection<SimpleFeature> features, String attrName, double cellSize) {
+		Map<String, Geometry> zones = new LinkedHashMap<>();
+		for (SimpleFeature f : features) {
+			String key = f.getAttribute(attrName).toString();
+			if (zones.put(key, (Geometry) f.getDefaultGeometry()) != null)
+				throw new IllegalStateException("Duplicate zone key " + key + " in attribute " + attrName);
+		}
+		return new ZoneLocator(zones, cellSize);
+	}
+
+	/**
+	 * Number of zones in this locator.
+	 */
+	public int size() {
+		return keys.size() - 1;
+	}
+
+	/**
+	 * All zone keys by their index, including {@link #OUTSIDE} as last entry.
+	 */
+	public List<String> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Index of {@link #OUTSIDE} in {@link #getKeys()}.
+	 */
+	public int outsideIndex() {
+		return keys.size() - 1;
+	}
+
+	/**
+	 * Number of grid cells that have been resolved so far.
+	 */
+	public int cachedCells() {
+		return cellCache.size();
+	}
+
+	/**
+	 * Return the key of the zone covering the coordinate or {@link #OUTSIDE}.
+	 */
+	public String locate(double x, double y) {
+		return keys.get(locateIndex(x, y));
+	}
+
+	/**
+	 * Return the index of the zone covering the coordinate, see {@link #getKeys()}.
+	 */
+	public int locateIndex(double x, double y) {
+
+		if (cellSize <= 0)
+			return query(x, y);
+
+		long cx = (long) Math.floor(x / cellSize);
+		long cy = (long) Math.floor(y / cellSize);
+		long cell = (cx << 32) ^ (cy & 0xffffffffL);
+
+		int idx = cellCache.computeIfAbsent(cell, k -> resolveCell(cx, cy));
+		if (idx != AMBIGUOUS)
+			return idx;
+
+		return query(x, y);
+	}
+
+	/**
+	 * Lookup of a single point without using the cell cache.
+	 */
+	private int query(double x, double y) {
+
+		var point = factory.createPoint(new Coordinate(x, y));
+
+		@SuppressWarnings("unchecked")
+		List<Zone> candidates = index.query(new Envelope(x, x, y, y));
+		for (Zone zone : candidates) {
+			if (zone.geometry().covers(point))
+				return zone.index();
+		}
+
+		return outsideIndex();
+	}
+
+	private int resolveCell(long cx, long cy) {
+
+		var env = new Envelope(cx * cellSize, (cx + 1) * cellSize, cy * cellSize, (cy + 1) * cellSize);
+
+		@SuppressWarnings("unchecked")
+		List<Zone> candidates = index.query(env);
+		if (candidates.isEmpty())
+			return outsideIndex();
+
+		var cellGeom = factory.toGeometry(env);
+		boolean intersects = false;
+		for (Zone zone : candidates) {
+			if (zone.geometry().covers(cellGeom))
+				return zone.index();
+
+			intersects |= zone.geometry().intersects(cellGeom);
+		}
+
+		return intersects ? AMBIGUOUS : outsideIndex();
+	}
+
+	private record Zone(int index, PreparedGeometry geometry) {
+	}
+}
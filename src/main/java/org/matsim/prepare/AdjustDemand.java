@@ -1,5 +1,12 @@
 package org.matsim.prepare;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -9,6 +16,7 @@ import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.index.quadtree.Quadtree;
+import org.matsim.analysis.ZoneLocator;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.*;
@@ -24,7 +32,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 @CommandLine.Command(name = "adjust-demand")
@@ -32,7 +42,11 @@ public class AdjustDemand implements MATSimAppCommand {
 
     private static final Logger log = LogManager.getLogger(MATSimAppCommand.class);
     public static final String PERSON_ID_SUFFIX = "_cloned";
-    private static final Random rand = new Random();
+    private static final long DEFAULT_SEED = 4711;
+    /**
+     * Size of the grid cells in meter, for which the zone locator caches the cell of the adjustments. Matches the 100m grid of the population.
+     */
+    private static final double LOCATOR_CELL_SIZE = 100;
     private static final Adjustments EMPTY_ADJUSTMENTS = new Adjustments(List.of(), List.of());
 
     @CommandLine.Option(names = "--plans", required = true)
@@ -56,6 +70,9 @@ public class AdjustDemand implements MATSimAppCommand {
     @CommandLine.Option(names = "--attr-name", defaultValue = "id")
     private String attrName;
 
+    @CommandLine.Option(names = "--seed", description = "Seed for random draws, results are reproducible for the same seed", defaultValue = "4711")
+    private long seed;
+
     @SuppressWarnings("FieldMayBeFinal")
     @CommandLine.Mixin
     private ShpOptions shp = new ShpOptions();
@@ -102,7 +119,7 @@ public class AdjustDemand implements MATSimAppCommand {
         var population = PopulationUtils.readPopulation(inputFile.toString());
         QuadTree<Id<Person>> spatialIndex = createSpatialIndex(population);
         // now go through all the cells and adjust the population according to the values in adjust table
-        adjust(population, preparedFeatures, spatialIndex, filteredAdjustments);
+        adjust(population, preparedFeatures, spatialIndex, filteredAdjustments, seed);
 
         PopulationUtils.writePopulation(population, outputFile.toString());
 
@@ -115,75 +132,122 @@ public class AdjustDemand implements MATSimAppCommand {
      * Notes from last meeting: Exception if no/too few persons are found for filter criteria
      */
     static void adjust(Population population, Map<String, PreparedGeometry> preparedFeatures, QuadTree<Id<Person>> spatialIndex, Map<String, Adjustments> adjustmentData) {
-        for (var cell : preparedFeatures.entrySet()) {
+        adjust(population, preparedFeatures, spatialIndex, adjustmentData, DEFAULT_SEED);
+    }
 
-            var personsAdded = new AtomicInteger();
-            var personsRemoved = new AtomicInteger();
+    /**
+     * Cells are processed in parallel. Each cell draws from its own random generator, which is seeded from {@code seed} and
+     * the cell key, so that results don't depend on the number of threads or the order in which cells are processed.
+     * Changes to the population are collected per cell and applied afterward.
+     */
+    static void adjust(Population population, Map<String, PreparedGeometry> preparedFeatures, QuadTree<Id<Person>> spatialIndex, Map<String, Adjustments> adjustmentData, long seed) {
+
+        // assign every person to its cell in a single pass over the index
+        var locator = new ZoneLocator(preparedFeatures.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getGeometry())), LOCATOR_CELL_SIZE);
+
+        List<Id<Person>> personIds = new ArrayList<>();
+        Map<String, IntList> bins = new HashMap<>();
+        spatialIndex.forEach((geom, id) -> {
+            var coord = geom.getCoordinate();
+            var cell = locator.locate(coord.x, coord.y);
+            if (!cell.equals(ZoneLocator.OUTSIDE)) {
+                bins.computeIfAbsent(cell, k -> new IntArrayList()).add(personIds.size());
+                personIds.add(id);
+            }
+        });
 
-            // get all the people inside the cell
-            var personsInCell = spatialIndex.coveredBy(cell.getValue());
-            // get the adjustment and filter or empty adjustment, to avoid extra condition
-            var adjustmentsForCell = adjustmentData.getOrDefault(cell.getKey(), EMPTY_ADJUSTMENTS);
+        // persons need to be in a defined order for the random draws to be reproducible
+        for (IntList bin : bins.values()) {
+            bin.sort((int a, int b) -> personIds.get(a).compareTo(personIds.get(b)));
+        }
 
-            for (var adjustmentWithFilter : adjustmentsForCell.adjustments) {
-                // get the adjustment factor
-                var factor = adjustmentWithFilter.value();
+        var deleted = new AtomicLongArray(personIds.size() / 64 + 1);
 
-                if (factor < 0) {
-                    throw new RuntimeException("Adjustment factors are expected to be betweeen [0.0, 2.0]. The value for cell " + cell.getKey() + " was: " + factor);
-                }
-                if (factor > 2) {
-                    log.warn("Growth factor was " + factor + ". We don't know what to do here. Using max growth factor of 2.0");
-                    factor = 2;
-                }
+        // extract all attributes needed by the filters once
+        var filterColumns = adjustmentData.values().stream()
+                .flatMap(a -> a.columns().stream())
+                .distinct()
+                .toList();
+        var attributes = new AttributeTable(filterColumns, personIds.stream().map(population.getPersons()::get).toList());
 
-                var growth = factor - 1;
-                // draw that amount of persons
-                var drawnPersons = personsInCell.stream()
-                        // filter for deleted people. The spatial index is not updated, so if there are a lot of categories
-                        // for a single cell a person id, which is still in the spatial index might in fact be removed from the
-                        // population. Chose to do it like this because it seems easier than updating the spatial index.
-                        .filter(id -> population.getPersons().containsKey(id))
-                        .map(id -> population.getPersons().get(id))
-                        .filter(person -> applyAdjustmentFilter(adjustmentsForCell, adjustmentWithFilter, person))
-                        .filter(id -> rand.nextDouble() <= Math.abs(growth))
-                        .limit((long) (Math.abs(growth) * personsInCell.size()))
-                        .map(Person::getId)
-                        .collect(Collectors.toSet());
-
-                if (growth > 0) {
-                    // the cell grows clone the persons
-                    for (var id : drawnPersons) {
-                        var person = population.getPersons().get(id);
-                        var cloned = clonePerson(person, population.getFactory());
-                        var clonedPlan = clonePlan(person.getSelectedPlan(), population.getFactory());
-                        cloned.addPlan(clonedPlan);
-                        population.addPerson(cloned);
-                        personsAdded.incrementAndGet();
-                    }
-                } else {
-                    // the cell shrinks delete the persons
-                    for (var id : drawnPersons) {
-                        population.removePerson(id);
-                        personsRemoved.incrementAndGet();
-                    }
-                }
-            }
+        List<CellResult> results = preparedFeatures.keySet().parallelStream()
+                .map(cell -> adjustCell(cell, bins.getOrDefault(cell, IntLists.emptyList()), personIds, deleted, attributes, population,
+                        adjustmentData.getOrDefault(cell, EMPTY_ADJUSTMENTS), new Random(seed + cell.hashCode())))
+                .sorted(Comparator.comparing(CellResult::cell))
+                .toList();
 
-            log.info("Finished cell: " + cell.getKey() + ". Added: " + personsAdded.get() + ", Removed: " + personsRemoved.get());
+        for (CellResult result : results) {
+            result.added().forEach(population::addPerson);
+            result.removed().forEach(population::removePerson);
+
+            log.info("Finished cell: " + result.cell() + ". Added: " + result.added().size() + ", Removed: " + result.removed().size());
         }
     }
 
-    private static boolean applyAdjustmentFilter(Adjustments adjustmentsForCell, Adjustment adjustmentWithFilter, Person person) {
+    private static CellResult adjustCell(String cell, IntList personsInCell, List<Id<Person>> personIds, AtomicLongArray deleted,
+                                         AttributeTable attributes, Population population, Adjustments adjustmentsForCell, Random rnd) {
+
+        List<Person> added = new ArrayList<>();
+        List<Id<Person>> removed = new ArrayList<>();
+
+        for (var adjustmentWithFilter : adjustmentsForCell.adjustments) {
+            // get the adjustment factor
+            var factor = adjustmentWithFilter.value();
+
+            if (factor < 0) {
+                throw new RuntimeException("Adjustment factors are expected to be betweeen [0.0, 2.0]. The value for cell " + cell + " was: " + factor);
+            }
+            if (factor > 2) {
+                log.warn("Growth factor was " + factor + ". We don't know what to do here. Using max growth factor of 2.0");
+                factor = 2;
+            }
+
+            var growth = factor - 1;
+            var filter = attributes.compile(adjustmentsForCell, adjustmentWithFilter);
+            var limit = (long) (Math.abs(growth) * personsInCell.size());
+
+            // draw that amount of persons, persons removed by a previous adjustment of this cell are skipped
+            List<Person> drawnPersons = new ArrayList<>();
+            for (int i = 0; i < personsInCell.size() && drawnPersons.size() < limit; i++) {
+                int idx = personsInCell.getInt(i);
+                if (isSet(deleted, idx))
+                    continue;
+
+                if (filter.test(idx) && rnd.nextDouble() <= Math.abs(growth)) {
+                    drawnPersons.add(population.getPersons().get(personIds.get(idx)));
 
-        for (var i = 0; i < adjustmentsForCell.columns.size(); i++) {
-            var key = adjustmentsForCell.columns.get(i);
-            var criteria = adjustmentWithFilter.filters().get(i);
+                    if (growth < 0)
+                        set(deleted, idx);
+                }
+            }
 
-            if (!criteria.test(person.getAttributes().getAttribute(key)))
-                return false;
+            if (growth > 0) {
+                // the cell grows clone the persons
+                for (var person : drawnPersons) {
+                    var cloned = clonePerson(person, population.getFactory());
+                    var clonedPlan = clonePlan(person.getSelectedPlan(), population.getFactory(), rnd);
+                    cloned.addPlan(clonedPlan);
+                    added.add(cloned);
+                }
+            } else {
+                // the cell shrinks delete the persons
+                for (var person : drawnPersons) {
+                    removed.add(person.getId());
+                }
+            }
         }
-        return true;
+
+        return new CellResult(cell, added, removed);
+    }
+
+    private static boolean isSet(AtomicLongArray bits, int idx) {
+        return (bits.get(idx >>> 6) & (1L << idx)) != 0;
+    }
+
+    private static void set(AtomicLongArray bits, int idx) {
+        long mask = 1L << idx;
+        bits.getAndUpdate(idx >>> 6, word -> word | mask);
     }
 
     static Person clonePerson(Person person, PopulationFactory factory) {
@@ -195,7 +259,7 @@ public class AdjustDemand implements MATSimAppCommand {
         return cloned;
     }
 
-    static Plan clonePlan(Plan plan, PopulationFactory factory) {
+    static Plan clonePlan(Plan plan, PopulationFactory factory, Random rnd) {
 
         var result = factory.createPlan();
         Coord clonedHomeCoord = null;
@@ -207,9 +271,9 @@ public class AdjustDemand implements MATSimAppCommand {
 
             if (element instanceof Activity act && !TripStructureUtils.isStageActivityType(act.getType())) {
                 if (clonedHomeCoord == null && act.getType().startsWith("home")) {
-                    clonedHomeCoord = createRandomCoord(act.getCoord());
+                    clonedHomeCoord = createRandomCoord(act.getCoord(), rnd);
                 }
-                var newCoord = act.getType().startsWith("home") ? clonedHomeCoord : createRandomCoord(act.getCoord());
+                var newCoord = act.getType().startsWith("home") ? clonedHomeCoord : createRandomCoord(act.getCoord(), rnd);
                 var clonedAct = cloneActivity(act, newCoord, factory);
                 result.addActivity(clonedAct);
 
@@ -241,10 +305,10 @@ public class AdjustDemand implements MATSimAppCommand {
     }
 
 
-    static Coord createRandomCoord(Coord originalCoord) {
+    static Coord createRandomCoord(Coord originalCoord, Random rnd) {
 
-        var x = rand.nextGaussian(originalCoord.getX(), 100);
-        var y = rand.nextGaussian(originalCoord.getY(), 100);
+        var x = rnd.nextGaussian(originalCoord.getX(), 100);
+        var y = rnd.nextGaussian(originalCoord.getY(), 100);
         return new Coord(x, y);
     }
 
@@ -313,6 +377,17 @@ public class AdjustDemand implements MATSimAppCommand {
             index.insert(geometry.getEnvelopeInternal(), new IndexItem<>(geometry, item));
         }
 
+        /**
+         * Iterate over all items in the index.
+         */
+        public void forEach(BiConsumer<Geometry, T> consumer) {
+            for (Object entry : index.queryAll()) {
+                @SuppressWarnings("unchecked") // suppress warning, since we know that entry is an IndexItem<T>
+                IndexItem<T> indexItem = (IndexItem<T>) entry;
+                consumer.accept(indexItem.geom(), indexItem.item());
+            }
+        }
+
         public Set<T> coveredBy(PreparedGeometry geometry) {
             Set<T> result = new HashSet<>();
             index.query(geometry.getGeometry().getEnvelopeInternal(), entry -> {
@@ -365,6 +440,113 @@ public class AdjustDemand implements MATSimAppCommand {
         }
     }
 
+    private record CellResult(String cell, List<Person> added, List<Id<Person>> removed) {
+    }
+
+    /**
+     * Person attributes used by the filters, stored per column. Strings are stored as int codes and numbers as doubles,
+     * so that filters can be evaluated without map lookups and boxing.
+     */
+    static final class AttributeTable {
+
+        private static final int NO_MATCH = -2;
+
+        private final List<Person> persons;
+        private final Object2IntMap<String> columnIndex = new Object2IntOpenHashMap<>();
+        private final List<Object2IntMap<String>> dictionaries = new ArrayList<>();
+        private final int[][] codes;
+        private final double[][] numbers;
+
+        AttributeTable(List<String> columns, List<Person> persons) {
+            this.persons = persons;
+            this.codes = new int[columns.size()][persons.size()];
+            this.numbers = new double[columns.size()][persons.size()];
+
+            for (int c = 0; c < columns.size(); c++) {
+                columnIndex.put(columns.get(c), c);
+
+                Object2IntMap<String> dictionary = new Object2IntOpenHashMap<>();
+                dictionary.defaultReturnValue(-1);
+                dictionaries.add(dictionary);
+
+                for (int i = 0; i < persons.size(); i++) {
+                    var value = persons.get(i).getAttributes().getAttribute(columns.get(c));
+                    codes[c][i] = value instanceof String str ? encode(dictionary, str) : -1;
+                    numbers[c][i] = value instanceof Number number ? number.doubleValue() : Double.NaN;
+                }
+            }
+        }
+
+        private static int encode(Object2IntMap<String> dictionary, String value) {
+            int code = dictionary.getInt(value);
+            if (code < 0) {
+                code = dictionary.size();
+                dictionary.put(value, code);
+            }
+            return code;
+        }
+
+        /**
+         * Turn the filters of one adjustment into a predicate over person indices of this table.
+         */
+        CompiledFilter compile(Adjustments adjustments, Adjustment adjustment) {
+
+            IntList exactColumns = new IntArrayList();
+            IntList exactCodes = new IntArrayList();
+            IntList rangeColumns = new IntArrayList();
+            DoubleList lowerBounds = new DoubleArrayList();
+            DoubleList upperBounds = new DoubleArrayList();
+            List<IntPredicate> others = new ArrayList<>();
+
+            for (var i = 0; i < adjustments.columns().size(); i++) {
+                var column = adjustments.columns().get(i);
+                var criteria = adjustment.filters().get(i);
+                int c = columnIndex.getInt(column);
+
+                if (criteria instanceof YesFilter) {
+                    continue;
+                } else if (criteria instanceof Exact exact) {
+                    exactColumns.add(c);
+                    exactCodes.add(dictionaries.get(c).getOrDefault(exact.filter(), NO_MATCH));
+                } else if (criteria instanceof Range range) {
+                    rangeColumns.add(c);
+                    lowerBounds.add(range.lowerBound().doubleValue());
+                    upperBounds.add(range.upperBound().doubleValue());
+                } else {
+                    others.add(idx -> criteria.test(persons.get(idx).getAttributes().getAttribute(column)));
+                }
+            }
+
+            return new CompiledFilter(this, exactColumns.toIntArray(), exactCodes.toIntArray(), rangeColumns.toIntArray(),
+                    lowerBounds.toDoubleArray(), upperBounds.toDoubleArray(), others.toArray(new IntPredicate[0]));
+        }
+    }
+
+    /**
+     * Filters of one adjustment, see {@link AttributeTable#compile(Adjustments, Adjustment)}.
+     */
+    record CompiledFilter(AttributeTable table, int[] exactColumns, int[] exactCodes, int[] rangeColumns,
+                                  double[] lowerBounds, double[] upperBounds, IntPredicate[] others) {
+
+        boolean test(int idx) {
+            for (int i = 0; i < exactColumns.length; i++) {
+                if (table.codes[exactColumns[i]][idx] != exactCodes[i])
+                    return false;
+            }
+            for (int i = 0; i < rangeColumns.length; i++) {
+                // NaN for missing values fails both comparisons
+                double value = table.numbers[rangeColumns[i]][idx];
+                if (!(lowerBounds[i] <= value && value < upperBounds[i]))
+                    return false;
+            }
+            for (IntPredicate other : others) {
+                if (!other.test(idx))
+                    return false;
+            }
+            return true;
+        }
+    }
+
     record Adjustments(List<String> columns, List<Adjustment> adjustments) {
     }
 
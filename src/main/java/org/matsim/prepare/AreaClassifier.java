@@ -0,0 +1,147 @@
+package org.matsim.prepare;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.matsim.api.core.v01.Coord;
+
+/**
+ * Fast point and line tests against a (large) area, e.g. the buffered shape of a cut-out.
+ * <p>
+ * Coordinates outside the bounding box are rejected right away. Within the box, a grid of cells is classified lazily as
+ * interior, exterior or boundary of the area. Only coordinates in boundary cells need to be tested against the
+ * prepared geometry. Results are the same as those of {@link Geometry#contains(Geometry)} and
+ * {@link Geometry#intersects(Geometry)}.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class AreaClassifier {
+
+	/**
+	 * Upper bound for the number of grid cells. The cell size is increased if necessary.
+	 */
+	private static final int MAX_CELLS = 1 << 24;
+
+	private static final byte UNKNOWN = 0;
+	private static final byte INTERIOR = 1;
+	private static final byte BOUNDARY = 2;
+	private static final byte EXTERIOR = 3;
+
+	private final GeometryFactory factory = new GeometryFactory();
+	private final PreparedGeometry geometry;
+	private final Envelope envelope;
+
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+
+	/**
+	 * Cell states, written concurrently. Races are benign because each thread computes the same state.
+	 */
+	private final byte[] cells;
+
+	/**
+	 * Create a classifier for an area.
+	 *
+	 * @param area     the area, usually a (multi-)polygon
+	 * @param cellSize size of the grid cells in coordinate units
+	 */
+	public AreaClassifier(Geometry area, double cellSize) {
+
+		this.geometry = PreparedGeometryFactory.prepare(area);
+		this.envelope = area.getEnvelopeInternal();
+
+		double size = cellSize;
+		while ((Math.floor(envelope.getWidth() / size) + 1) * (Math.floor(envelope.getHeight() / size) + 1) > MAX_CELLS)
+			size *= 2;
+
+		this.cellSize = size;
+		this.columns = (int) Math.floor(envelope.getWidth() / size) + 1;
+		this.rows = (int) Math.floor(envelope.getHeight() / size) + 1;
+		this.cells = new byte[envelope.isNull() ? 0 : columns * rows];
+	}
+
+	/**
+	 * Whether the coordinate lies within the area, excluding its boundary.
+	 */
+	public boolean contains(Coord coord) {
+		return contains(coord.getX(), coord.getY());
+	}
+
+	public boolean contains(double x, double y) {
+
+		if (!envelope.contains(x, y))
+			return false;
+
+		return switch (cellState(x, y)) {
+			case INTERIOR -> true;
+			case EXTERIOR -> false;
+			default -> geometry.contains(factory.createPoint(new Coordinate(x, y)));
+		};
+	}
+
+	/**
+	 * Whether the straight line between the two coordinates intersects the area.
+	 */
+	public boolean intersects(Coord from, Coord to) {
+
+		Envelope line = new Envelope(from.getX(), to.getX(), from.getY(), to.getY());
+		if (!envelope.intersects(line))
+			return false;
+
+		if (isInteriorCell(from) || isInteriorCell(to))
+			return true;
+
+		return geometry.intersects(factory.createLineString(new Coordinate[]{
+				new Coordinate(from.getX(), from.getY()),
+				new Coordinate(to.getX(), to.getY())
+		}));
+	}
+
+	/**
+	 * Size of the grid cells, which may be larger than requested for very large areas.
+	 */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	private boolean isInteriorCell(Coord coord) {
+		return envelope.contains(coord.getX(), coord.getY()) && cellState(coord.getX(), coord.getY()) == INTERIOR;
+	}
+
+	/**
+	 * State of the cell containing the coordinate, which must be within the envelope.
+	 */
+	private byte cellState(double x, double y) {
+
+		int col = Math.min(columns - 1, (int) ((x - envelope.getMinX()) / cellSize));
+		int row = Math.min(rows - 1, (int) ((y - envelope.getMinY()) / cellSize));
+		int idx = row * columns + col;
+
+		byte state = cells[idx];
+		if (state == UNKNOWN) {
+			state = classify(col, row);
+			cells[idx] = state;
+		}
+
+		return state;
+	}
+
+	private byte classify(int col, int row) {
+
+		double minX = envelope.getMinX() + col * cellSize;
+		double minY = envelope.getMinY() + row * cellSize;
+		Geometry cell = factory.toGeometry(new Envelope(minX, minX + cellSize, minY, minY + cellSize));
+
+		if (geometry.containsProperly(cell))
+			return INTERIOR;
+
+		if (!geometry.intersects(cell))
+			return EXTERIOR;
+
+		return BOUNDARY;
+	}
+}
@@ -15,101 +15,138 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Merges bike highway networks into an existing network. Long links are broken up into smaller pieces and each node
+ * of a bike network is connected to the nearest node of the existing network.
+ * <p>
+ * The bike networks are copied and not modified, so they can be used or written concurrently while merging.
+ */
 class BikeNetworkMerger {
 
 	private static final double MAX_LINK_LENGTH = 1000.;
 	private static final double searchRadius = 10; // search nodes within this radius
 	private static final String ID_PREFIX = "bike_";
+	private static final String PT_PREFIX = "pt";
 	private static Logger logger = LoggerFactory.getLogger(BikeNetworkMerger.class);
 	private final Network originalNetwork;
-	private final List<Link> brokenUpLinksToAdd = new ArrayList<>();
-	private final List<Link> longLinksToRemove = new ArrayList<>();
 
 	BikeNetworkMerger(Network originalNetwork) {
 		this.originalNetwork = originalNetwork;
 	}
 
 	Network mergeBikeHighways(Network bikeNetwork) {
+		return mergeBikeHighways(List.of(bikeNetwork));
+	}
+
+	/**
+	 * Merge multiple bike networks in the given order. All of them share one spatial index of the nodes, which is
+	 * updated after each network, so that later networks can be connected to the ones merged before.
+	 */
+	Network mergeBikeHighways(List<Network> bikeNetworks) {
+
+		NearestNodeIndex index = createIndex(bikeNetworks);
 
-		// break up links into parts < max link length
-		this.breakLinksIntoSmallerPieces(bikeNetwork);
-		this.copyNodesIntoNetwork(bikeNetwork);
+		for (Network bikeNetwork : bikeNetworks) {
 
-		bikeNetwork.getLinks().values().forEach(link -> {
-			// add link copy to original network
-			originalNetwork.addLink(copyLink(originalNetwork.getFactory(), link));
-		});
-		
-		bikeNetwork.getNodes().values().forEach(node -> {
-			connectNodeToNetwork(originalNetwork, bikeNetwork.getNodes(), node);
-		});
+			// copy nodes and links, long links are broken up into parts < max link length
+			List<Node> added = copyIntoNetwork(bikeNetwork);
+
+			Set<Id<Node>> nodesToAvoid = added.stream().map(Node::getId).collect(Collectors.toSet());
+			added.forEach(node -> connectNodeToNetwork(index, nodesToAvoid, node));
+			added.forEach(index::add);
+		}
 
 		return originalNetwork;
 	}
 
-	private void breakLinksIntoSmallerPieces(Network bikeHighways) {
+	private NearestNodeIndex createIndex(List<Network> bikeNetworks) {
 
-		bikeHighways.getLinks().values().forEach(link -> breakUpLinkIntoSmallerPieces(bikeHighways, link));
-		this.longLinksToRemove.forEach(link -> bikeHighways.removeLink(link.getId()));
-		this.brokenUpLinksToAdd.forEach(bikeHighways::addLink);
+		List<Node> nodes = new ArrayList<>(originalNetwork.getNodes().values());
+		bikeNetworks.forEach(bikeNetwork -> nodes.addAll(bikeNetwork.getNodes().values()));
+
+		// bounds include all bike nodes, the pieces of broken up links are always in between them
+		NearestNodeIndex index = new NearestNodeIndex(nodes, searchRadius, PT_PREFIX);
+		originalNetwork.getNodes().values().forEach(index::add);
+
+		return index;
 	}
 
-	private void breakUpLinkIntoSmallerPieces(Network bikeNetwork, Link link) {
-
-		double length = NetworkUtils.getEuclideanDistance(link.getFromNode().getCoord(), link.getToNode().getCoord());
-
-		if (length > MAX_LINK_LENGTH) {
-
-			longLinksToRemove.add(link);
-			Node fromNode = link.getFromNode();
-			Node toNode = link.getToNode();
-			double numberOfParts = Math.ceil(length / (int) MAX_LINK_LENGTH);
-			double partLength = length / numberOfParts;
-			double lengthFraction = partLength / length;
-			double deltaX = toNode.getCoord().getX() - fromNode.getCoord().getX();
-			double deltaY = toNode.getCoord().getY() - fromNode.getCoord().getY();
-			Node currentNode = fromNode;
-
-			logger.info("link length: " + length);
-			logger.info("splitting link into " + numberOfParts + " parts");
-
-			while (numberOfParts > 1) {
-
-				// calculate new coordinate and add a node to the network
-				Coord newCoord = new Coord(
-						currentNode.getCoord().getX() + deltaX * lengthFraction,
-						currentNode.getCoord().getY() + deltaY * lengthFraction
-				);
-				Node newNode = bikeNetwork.getFactory().createNode(
-						Id.createNodeId(ID_PREFIX + UUID.randomUUID().toString()), newCoord
-				);
-				bikeNetwork.addNode(newNode);
-				logger.info("added node with id: " + newNode.getId().toString());
-
-				// connect current and new node with a link and add it to the network
-				Link newLink = createLinkWithAttributes(bikeNetwork.getFactory(), currentNode, newNode);
-				brokenUpLinksToAdd.add(newLink);
-
-				// wrap up for next iteration
-				currentNode = newNode;
-				numberOfParts--;
+	/**
+	 * Copy nodes and links of the bike network into the original network.
+	 *
+	 * @return all added nodes, including the ones created when breaking up links
+	 */
+	private List<Node> copyIntoNetwork(Network bikeNetwork) {
+
+		NetworkFactory factory = originalNetwork.getFactory();
+		List<Node> added = new ArrayList<>(bikeNetwork.getNodes().size());
+
+		for (Node node : bikeNetwork.getNodes().values()) {
+			Node copy = factory.createNode(node.getId(), node.getCoord());
+			for (String attribute : node.getAttributes().getAsMap().keySet()) {
+				copy.getAttributes().putAttribute(attribute, node.getAttributes().getAttribute(attribute));
 			}
+			originalNetwork.addNode(copy);
+			added.add(copy);
+		}
+
+		for (Link link : bikeNetwork.getLinks().values()) {
+			Node fromNode = originalNetwork.getNodes().get(link.getFromNode().getId());
+			Node toNode = originalNetwork.getNodes().get(link.getToNode().getId());
 
-			// last link to be inserted must be connected to currentNode and toNode
-			Link lastLink = createLinkWithAttributes(bikeNetwork.getFactory(), currentNode, toNode);
-			
-			brokenUpLinksToAdd.add(lastLink);
+			double length = NetworkUtils.getEuclideanDistance(fromNode.getCoord(), toNode.getCoord());
+			if (length > MAX_LINK_LENGTH)
+				breakUpLinkIntoSmallerPieces(fromNode, toNode, length, added);
+			else
+				originalNetwork.addLink(copyLink(factory, link, fromNode, toNode));
 		}
+
+		return added;
 	}
 
-	private void copyNodesIntoNetwork(Network fromNetwork) {
-		fromNetwork.getNodes().values().forEach(originalNetwork::addNode);
+	private void breakUpLinkIntoSmallerPieces(Node fromNode, Node toNode, double length, List<Node> added) {
+
+		NetworkFactory factory = originalNetwork.getFactory();
+		double numberOfParts = Math.ceil(length / (int) MAX_LINK_LENGTH);
+		double partLength = length / numberOfParts;
+		double lengthFraction = partLength / length;
+		double deltaX = toNode.getCoord().getX() - fromNode.getCoord().getX();
+		double deltaY = toNode.getCoord().getY() - fromNode.getCoord().getY();
+		Node currentNode = fromNode;
+
+		logger.info("link length: " + length);
+		logger.info("splitting link into " + numberOfParts + " parts");
+
+		while (numberOfParts > 1) {
+
+			// calculate new coordinate and add a node to the network
+			Coord newCoord = new Coord(
+					currentNode.getCoord().getX() + deltaX * lengthFraction,
+					currentNode.getCoord().getY() + deltaY * lengthFraction
+			);
+			Node newNode = factory.createNode(
+					Id.createNodeId(ID_PREFIX + UUID.randomUUID().toString()), newCoord
+			);
+			originalNetwork.addNode(newNode);
+			added.add(newNode);
+			logger.info("added node with id: " + newNode.getId().toString());
+
+			// connect current and new node with a link and add it to the network
+			originalNetwork.addLink(createLinkWithAttributes(factory, currentNode, newNode));
+
+			// wrap up for next iteration
+			currentNode = newNode;
+			numberOfParts--;
+		}
+
+		// last link to be inserted must be connected to currentNode and toNode
+		originalNetwork.addLink(createLinkWithAttributes(factory, currentNode, toNode));
 	}
 
-	private Link copyLink(NetworkFactory factory, Link link) {
+	private Link copyLink(NetworkFactory factory, Link link, Node fromNode, Node toNode) {
 		Link result = factory.createLink(
 				Id.createLinkId(link.getId()),
-				link.getFromNode(), link.getToNode()
+				fromNode, toNode
 		);
 		result.setAllowedModes(link.getAllowedModes());
 		result.setCapacity(link.getCapacity()); 
@@ -137,26 +174,13 @@ class BikeNetworkMerger {
 		return result;
 	}
 
-	private void connectNodeToNetwork(Network network, Map<Id<Node>, ? extends Node> nodesToAvoid, Node node) {
-
-		// search for possible connections
-		Collection<Node> nodes = getNearestNodes(network, node);
-		nodes.stream()
-				.filter(nearNode -> !nodesToAvoid.containsKey(nearNode.getId()))
-				.sorted((node1, node2) -> {
-					Double dist1 = NetworkUtils.getEuclideanDistance(node1.getCoord(), node.getCoord());
-					Double dist2 = NetworkUtils.getEuclideanDistance(node2.getCoord(), node.getCoord());
-					return dist1.compareTo(dist2);
-				})
-				.limit(1)
-				.forEach(nearNode -> {
-					network.addLink(createLinkWithAttributes(network.getFactory(), node, nearNode));
-					network.addLink(createLinkWithAttributes(network.getFactory(), nearNode, node));
-				});
-	}
+	private void connectNodeToNetwork(NearestNodeIndex index, Set<Id<Node>> nodesToAvoid, Node node) {
 
-	private Collection<Node> getNearestNodes(Network network, Node node) {
-		return NetworkUtils.getNearestNodes(network, node.getCoord(), searchRadius).stream()
-				.filter(n -> !n.getId().toString().startsWith("pt")).collect(Collectors.toList());
+		// connect to the nearest node which is not part of the same bike network
+		Node nearNode = index.nearest(node.getCoord(), searchRadius, n -> !nodesToAvoid.contains(n.getId()));
+		if (nearNode != null) {
+			originalNetwork.addLink(createLinkWithAttributes(originalNetwork.getFactory(), node, nearNode));
+			originalNetwork.addLink(createLinkWithAttributes(originalNetwork.getFactory(), nearNode, node));
+		}
 	}
-}
\ No newline at end of file
+}
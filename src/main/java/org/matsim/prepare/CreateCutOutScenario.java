@@ -12,10 +12,13 @@ import org.matsim.run.MetropoleRuhrScenario;
 import picocli.CommandLine;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Creates and prepares a cutout scenario.
  * This class depends on {@link ScenarioCutOut}, but does additional processing steps.
+ * With {@code --name-attr}, one scenario is created for each feature of the shape file.
  */
 public class CreateCutOutScenario implements MATSimAppCommand {
 
@@ -24,9 +27,12 @@ public class CreateCutOutScenario implements MATSimAppCommand {
 	@CommandLine.Mixin
 	private ShpOptions shp;
 
-	@CommandLine.Option(names = "--name", description = "Name of the new scenario", required = true)
+	@CommandLine.Option(names = "--name", description = "Name of the new scenario")
 	private String name;
 
+	@CommandLine.Option(names = "--name-attr", description = "Attribute of the shape file features with the scenario names. If set, one scenario is created per feature.")
+	private String nameAttr;
+
 	@CommandLine.Option(names = "--population", description = "Path to complete population", required = true)
 	private Path population;
 
@@ -46,18 +52,46 @@ public class CreateCutOutScenario implements MATSimAppCommand {
 			return 2;
 		}
 
-		String networkPath = String.format("scenarios/input/%s-%s.network.xml.gz", name, MetropoleRuhrScenario.VERSION);
-		String populationPath = String.format("scenarios/input/%s-%s-25pct.plans.xml.gz", name, MetropoleRuhrScenario.VERSION);
+		if ((name == null) == (nameAttr == null)) {
+			log.error("Either --name or --name-attr must be given!");
+			return 2;
+		}
 
-		new ScenarioCutOut().execute(
+		// network and population are only read once, even if multiple scenarios are cut out
+		List<String> args = new ArrayList<>(List.of(
 				"--input", population.toString(),
 				"--network", network.toString(),
 				"--input-crs", "EPSG:25832",
 				"--shp", shp.getShapeFile().toString(),
-				"--output-network", networkPath,
-				"--output-population", populationPath,
+				"--output-network", networkPath(nameAttr == null ? name : "%s"),
+				"--output-population", populationPath(nameAttr == null ? name : "%s"),
 				"--use-router"
-		);
+		));
+
+		List<String> names;
+		if (nameAttr == null) {
+			names = List.of(name);
+		} else {
+			args.addAll(List.of("--region-attr", nameAttr));
+			names = shp.readFeatures().stream()
+					.map(feature -> String.valueOf(feature.getAttribute(nameAttr)))
+					.toList();
+		}
+
+		new ScenarioCutOut().execute(args.toArray(String[]::new));
+
+		names.parallelStream().forEach(this::prepareScenario);
+
+		return 0;
+	}
+
+	/**
+	 * Additional processing steps for one cut out scenario.
+	 */
+	private void prepareScenario(String name) {
+
+		String networkPath = networkPath(name);
+		String populationPath = populationPath(name);
 
 		new XYToLinks().execute(
 				"--network", networkPath,
@@ -79,7 +113,13 @@ public class CreateCutOutScenario implements MATSimAppCommand {
 				populationPath,
 				"--csv", String.format("scenarios/input/%s-%s-homes.csv", name, MetropoleRuhrScenario.VERSION)
 		);
+	}
 
-		return 0;
+	private static String networkPath(String name) {
+		return String.format("scenarios/input/%s-%s.network.xml.gz", name, MetropoleRuhrScenario.VERSION);
+	}
+
+	private static String populationPath(String name) {
+		return String.format("scenarios/input/%s-%s-25pct.plans.xml.gz", name, MetropoleRuhrScenario.VERSION);
 	}
 }
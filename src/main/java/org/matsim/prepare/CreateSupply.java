@@ -6,7 +6,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.api.feature.simple.SimpleFeature;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
@@ -40,6 +39,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
@@ -93,16 +93,25 @@ public class CreateSupply {
 			rootDirectory = args[0];
 		}
 
-		new CreateSupply().run(Paths.get(rootDirectory));
+		// optional directory for intermediate files, which are reused by later runs
+		Path cacheDirectory = args.length > 1 ? Paths.get(args[1]) : null;
+
+		new CreateSupply().run(Paths.get(rootDirectory), cacheDirectory);
 	}
 
-	private void run(Path rootDirectory) {
+	/**
+	 * @param cacheDirectory directory in which converted input data is kept between runs, or null to always read the original data
+	 */
+	private void run(Path rootDirectory, Path cacheDirectory) {
 
 		// ----------------------------------------- Preparation ---------------------------------------
 
 		var outputDir = rootDirectory.resolve(outputDirPublic);
 		var outputDirForCounts = rootDirectory.resolve(outputDirCounts);
 
+		// parsed raw count data, which is reused as long as the raw data does not change
+		var countsCache = cacheDirectory != null ? cacheDirectory.resolve("counts") : null;
+
 		OutputDirectoryLogging.catchLogEntries();
 		try {
 			OutputDirectoryLogging.initLoggingWithOutputDirectory(outputDir.resolve("").toString());
@@ -149,6 +158,11 @@ public class CreateSupply {
 			throw new RuntimeException("Unknown network resolution. Aborting...");
 		}
 
+		// bike networks are converted in the background while the osm data is read
+		List<CompletableFuture<Network>> bikeNetworkFutures = new ArrayList<>();
+		List<CompletableFuture<Void>> bikeNetworkWrites = new ArrayList<>();
+		readBikeNetworks(rootDirectory, outputDir, bikeNetworkFutures, bikeNetworkWrites);
+
 		var network = networkBuilder
 			.build()
 			.read(rootDirectory.resolve(osmData));
@@ -157,17 +171,8 @@ public class CreateSupply {
 
 		// ----------------------------- Add bicycles and write network ------------------------------------------------
 
-		Network network1 = new ShpToNetwork().run(rootDirectory.resolve(inputShapeNetwork1));
-		new NetworkWriter(network1).write(outputDir.resolve("metropole-ruhr-v2.0.network-onlyBikeNetwork1.xml.gz").toString());
-		new BikeNetworkMerger(network).mergeBikeHighways(network1);
-
-		Network network2 = new ShpToNetwork().run(rootDirectory.resolve(inputShapeNetwork2));
-		new NetworkWriter(network2).write(outputDir.resolve("metropole-ruhr-v2.0.network-onlyBikeNetwork2.xml.gz").toString());
-		new BikeNetworkMerger(network).mergeBikeHighways(network2);
-
-		Network network3 = new ShpToNetwork().run(rootDirectory.resolve(inputShapeNetwork3));
-		new NetworkWriter(network3).write(outputDir.resolve("metropole-ruhr-v2.0.network-onlyBikeNetwork3.xml.gz").toString());
-		new BikeNetworkMerger(network).mergeBikeHighways(network3);
+		List<Network> bikeNetworks = bikeNetworkFutures.stream().map(CompletableFuture::join).toList();
+		new BikeNetworkMerger(network).mergeBikeHighways(bikeNetworks);
 
 		var simplifier = new NetworkSimplifier();
 
@@ -192,102 +197,50 @@ public class CreateSupply {
 		//-------------------------- add height information to network -------------------------------------------------
 
 		//TODO get correct transformation
-		var elevationReader = new ElevationReader(List.of(rootDirectory.resolve(heightData).toString()), new IdentityTransformation());
+		var elevationReader = new ElevationReader(List.of(rootDirectory.resolve(heightData).toString()), new IdentityTransformation(),
+			cacheDirectory != null ? cacheDirectory.resolve("elevation-tiles") : null);
 
-		for (Node node : network.getNodes().values()) {
-			var elevation = elevationReader.getElevationAt(node.getCoord());
-			node.setCoord(new Coord(node.getCoord().getX(), node.getCoord().getY(), elevation));
-		}
+		elevationReader.assignElevations(network, ElevationReader.Sampling.NEAREST);
 
 		Collection<SimpleFeature> features = ShapeFileReader.getAllFeatures(rootDirectory.resolve(parkingShapeFile).toString());
 
-		for (var link : network.getLinks().values()) {
-
-			if (!link.getAllowedModes().contains("pt")) {
-
-				Coord coord = link.getCoord();
-				Point point = MGC.coord2Point(coord);
-
-				double oneHourPCost = 0.;
-				double extraHourPCost = 0.;
-				double maxDailyPCost = 0.;
-				double maxParkingTime = 0.;
-				double pFine = 0.;
-				double resPCosts = 0.;
-				double accesstime = 0.;
-				double egresstime = 0.;
-				Long zoneName = 0L;
-				String zoneGroup = "";
-
-
-				for (SimpleFeature feature : features) {
-					Geometry geometry = (Geometry) feature.getDefaultGeometry();
-
-					if (geometry.covers(point)) {
-
-						if (feature.getAttribute("id") != null) {
-							zoneName = (Long) feature.getAttribute("id");
-						}
-
-						if (feature.getAttribute("GN") != null) {
-							zoneGroup = (String) feature.getAttribute("GN");
-						}
-
-						if (feature.getAttribute("cost") != null) {
-							if (feature.getAttribute("cost").equals(0)) {
-								feature.setAttribute("cost", 0.0);
-							}
-							oneHourPCost = (Double) feature.getAttribute("cost");
-							extraHourPCost = (Double) feature.getAttribute("cost");
-						}
-
-						if (feature.getAttribute("max_cost") != null) {
-							if (feature.getAttribute("max_cost").equals(0)) {
-								feature.setAttribute("max_cost", 0.0);
-							}
-							maxDailyPCost = (Double) feature.getAttribute("max_cost");
-						}
-
-						if (feature.getAttribute("accestime") != null) {
-							accesstime = (Double) feature.getAttribute("accestime");
-						}
-
-						if (feature.getAttribute("egresstime") != null) {
-							egresstime = (Double) feature.getAttribute("egresstime");
-						}
-
-						break;
-					}
-				}
-
-				link.getAttributes().putAttribute(ONE_HOUR_P_COST, oneHourPCost);
-				link.getAttributes().putAttribute(EXTRA_HOUR_P_COST, extraHourPCost);
-				link.getAttributes().putAttribute(MAX_DAILY_P_COST, maxDailyPCost);
-				link.getAttributes().putAttribute(MAX_P_TIME, maxParkingTime);
-				link.getAttributes().putAttribute(P_FINE, pFine);
-				link.getAttributes().putAttribute(RES_P_COSTS, resPCosts);
-				link.getAttributes().putAttribute(ZONE_NAME, zoneName);
-				link.getAttributes().putAttribute(ZONE_GROUP, zoneGroup);
-
-				NetworkUtils.setLinkAccessTime(link, TransportMode.car, accesstime);
-				NetworkUtils.setLinkEgressTime(link, TransportMode.car, egresstime);
-				NetworkUtils.setLinkAccessTime(link, TransportMode.pt, 0.0);
-				NetworkUtils.setLinkEgressTime(link, TransportMode.pt, 0.0);
-				NetworkUtils.setLinkAccessTime(link, TransportMode.bike, 0.0);
-				NetworkUtils.setLinkEgressTime(link, TransportMode.bike, 0.0);
-				NetworkUtils.setLinkAccessTime(link, TransportMode.ride, 0.0);
-				NetworkUtils.setLinkEgressTime(link, TransportMode.ride, 0.0);
-				NetworkUtils.setLinkAccessTime(link, "truck8t", 0.0);
-				NetworkUtils.setLinkEgressTime(link, "truck8t", 0.0);
-				NetworkUtils.setLinkAccessTime(link, "truck18t", 0.0);
-				NetworkUtils.setLinkEgressTime(link, "truck18t", 0.0);
-				NetworkUtils.setLinkAccessTime(link, "truck26t", 0.0);
-				NetworkUtils.setLinkEgressTime(link, "truck26t", 0.0);
-				NetworkUtils.setLinkAccessTime(link, "truck40t", 0.0);
-				NetworkUtils.setLinkEgressTime(link, "truck40t", 0.0);
-
-			}
-		}
+		var parkingZones = new PolygonAttributeJoiner<>(features, ParkingZone::fromFeature);
+
+		parkingZones.join(network.getLinks().values(), link -> !link.getAllowedModes().contains("pt"), (link, zone) -> {
+
+			if (zone == null)
+				zone = ParkingZone.NONE;
+
+			double maxParkingTime = 0.;
+			double pFine = 0.;
+			double resPCosts = 0.;
+
+			link.getAttributes().putAttribute(ONE_HOUR_P_COST, zone.cost());
+			link.getAttributes().putAttribute(EXTRA_HOUR_P_COST, zone.cost());
+			link.getAttributes().putAttribute(MAX_DAILY_P_COST, zone.maxCost());
+			link.getAttributes().putAttribute(MAX_P_TIME, maxParkingTime);
+			link.getAttributes().putAttribute(P_FINE, pFine);
+			link.getAttributes().putAttribute(RES_P_COSTS, resPCosts);
+			link.getAttributes().putAttribute(ZONE_NAME, zone.zoneName());
+			link.getAttributes().putAttribute(ZONE_GROUP, zone.zoneGroup());
+
+			NetworkUtils.setLinkAccessTime(link, TransportMode.car, zone.accessTime());
+			NetworkUtils.setLinkEgressTime(link, TransportMode.car, zone.egressTime());
+			NetworkUtils.setLinkAccessTime(link, TransportMode.pt, 0.0);
+			NetworkUtils.setLinkEgressTime(link, TransportMode.pt, 0.0);
+			NetworkUtils.setLinkAccessTime(link, TransportMode.bike, 0.0);
+			NetworkUtils.setLinkEgressTime(link, TransportMode.bike, 0.0);
+			NetworkUtils.setLinkAccessTime(link, TransportMode.ride, 0.0);
+			NetworkUtils.setLinkEgressTime(link, TransportMode.ride, 0.0);
+			NetworkUtils.setLinkAccessTime(link, "truck8t", 0.0);
+			NetworkUtils.setLinkEgressTime(link, "truck8t", 0.0);
+			NetworkUtils.setLinkAccessTime(link, "truck18t", 0.0);
+			NetworkUtils.setLinkEgressTime(link, "truck18t", 0.0);
+			NetworkUtils.setLinkAccessTime(link, "truck26t", 0.0);
+			NetworkUtils.setLinkEgressTime(link, "truck26t", 0.0);
+			NetworkUtils.setLinkAccessTime(link, "truck40t", 0.0);
+			NetworkUtils.setLinkEgressTime(link, "truck40t", 0.0);
+		});
 
 		String networkOut = outputDir.resolve("metropole-ruhr-v2.0.network_resolution" + networkResolution + ".xml.gz").toString();
 
@@ -298,6 +251,9 @@ public class CreateSupply {
 
 		NetworkUtils.writeNetwork(network, networkOut);
 
+		// the intermediate bike networks are not modified by the merger and only need to be written at this point
+		CompletableFuture.allOf(bikeNetworkWrites.toArray(CompletableFuture[]::new)).join();
+
 		// --------------------------------------- Create Pt -----------------------------------------------------------
 
 		String outputName = "metropole-ruhr-v2.0";
@@ -327,6 +283,7 @@ public class CreateSupply {
 			.setLoggingFolder(outputDirForCounts + "/")
 			.withNetwork(network)
 			.withRootDir(rootDirectory.resolve(longTermCountsRoot).toString())
+			.withCacheDirectory(countsCache)
 			.withIdMapping(rootDirectory.resolve(longTermCountsIdMapping).toString())
 			.withStationIdsToOmit(5002L, 50025L)
 			.useCountsWithinGeometry(rootDirectory.resolve(ruhrShape).toString())
@@ -337,6 +294,7 @@ public class CreateSupply {
 			.setLoggingFolder(outputDirForCounts + "/")
 			.withNetwork(network)
 			.withRootDir(rootDirectory.resolve(shortTermCountsRoot).toString())
+			.withCacheDirectory(countsCache)
 			.withIdMapping(rootDirectory.resolve(shortTermCountsIdMapping).toString())
 			.withStationIdsToOmit(5002L, 50025L)
 			.useCountsWithinGeometry(rootDirectory.resolve(ruhrShape).toString())
@@ -362,6 +320,22 @@ public class CreateSupply {
 			longTermCounts.get(RawDataVehicleTypes.Pkw.toString()), shortTermCounts.get(RawDataVehicleTypes.Pkw.toString()));
 	}
 
+	/**
+	 * Read and convert the bike highway shape files concurrently. Each network is written asynchronously as soon as it has been converted.
+	 */
+	private void readBikeNetworks(Path rootDirectory, Path outputDir, List<CompletableFuture<Network>> networks, List<CompletableFuture<Void>> writes) {
+
+		List<Path> shapeFiles = List.of(inputShapeNetwork1, inputShapeNetwork2, inputShapeNetwork3);
+		for (int i = 0; i < shapeFiles.size(); i++) {
+			Path shapeFile = rootDirectory.resolve(shapeFiles.get(i));
+			String output = outputDir.resolve("metropole-ruhr-v2.0.network-onlyBikeNetwork" + (i + 1) + ".xml.gz").toString();
+
+			CompletableFuture<Network> network = CompletableFuture.supplyAsync(() -> new ShpToNetwork().run(shapeFile));
+			networks.add(network);
+			writes.add(network.thenAcceptAsync(n -> new NetworkWriter(n).write(output)));
+		}
+	}
+
 	/**
 	 * Fix links with speed 0
 	 */
@@ -451,4 +425,30 @@ public class CreateSupply {
 
 	public enum NetworkResolution {Low, Medium, High}
 
+	/**
+	 * Attributes of one zone of the parking shape file.
+	 */
+	private record ParkingZone(Long zoneName, String zoneGroup, double cost, double maxCost, double accessTime, double egressTime) {
+
+		static final ParkingZone NONE = new ParkingZone(0L, "", 0, 0, 0, 0);
+
+		static ParkingZone fromFeature(SimpleFeature feature) {
+			return new ParkingZone(
+				feature.getAttribute("id") != null ? ((Number) feature.getAttribute("id")).longValue() : NONE.zoneName(),
+				feature.getAttribute("GN") != null ? (String) feature.getAttribute("GN") : NONE.zoneGroup(),
+				toDouble(feature.getAttribute("cost")),
+				toDouble(feature.getAttribute("max_cost")),
+				toDouble(feature.getAttribute("accestime")),
+				toDouble(feature.getAttribute("egresstime"))
+			);
+		}
+
+		/**
+		 * Values may be stored as integers in the shape file.
+		 */
+		private static double toDouble(Object value) {
+			return value instanceof Number n ? n.doubleValue() : 0.;
+		}
+	}
+
 }
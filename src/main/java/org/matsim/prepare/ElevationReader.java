@@ -7,38 +7,83 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.geometry.Position2D;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/**
+ * Reads elevations from one or more geo tiffs. Lookups are thread-safe, provided that the coordinate transformation is.
+ */
 public class ElevationReader {
 
     private final static Logger log = LogManager.getLogger(ElevationReader.class);
+
+    /**
+     * Resolution of each axis for the Morton order.
+     */
+    private static final double MORTON_MAX = 0x7FFF;
+    private static final int CHUNK_SIZE = 4096;
+
     private final Collection<ElevationMap> elevationMaps;
     private final CoordinateTransformation transformation;
 
+    /**
+     * Creates a reader, which loads the rasters of the geo tiffs onto the heap.
+     * See {@link #ElevationReader(Collection, CoordinateTransformation, Path)}.
+     */
     ElevationReader(Collection<String> filenames, CoordinateTransformation transformation) {
+        this(filenames, transformation, null);
+    }
+
+    /**
+     * @param tileCache directory in which each geo tiff is converted once into a tile file, which is memory mapped instead
+     *                  of loading the raster onto the heap. The tile file is reused as long as size and content hash of
+     *                  the geo tiff match the ones it was converted from.
+     *                  If the directory is null or can not be written, the raster is loaded onto the heap.
+     */
+    ElevationReader(Collection<String> filenames, CoordinateTransformation transformation, Path tileCache) {
 
         log.info("Loading " + filenames.size() + " height maps.");
         elevationMaps = filenames.parallelStream()
-                .map(ElevationMap::new)
+                .map(f -> tileCache != null ? TiledElevationMap.load(f, tileCache) : new RasterElevationMap(f))
                 .collect(Collectors.toList());
         this.transformation = transformation;
     }
 
     public double getElevationAt(Coord coord) {
+        return getElevationAt(coord, Sampling.NEAREST);
+    }
+
+    public double getElevationAt(Coord coord, Sampling sampling) {
 
         Coord transformed = transformation.transform(coord);
-        var position = new Position2D(transformed.getX(), transformed.getY());
+        double x = transformed.getX();
+        double y = transformed.getY();
 
         for (ElevationMap elevationMap : elevationMaps) {
 
-            if (elevationMap.covers(position)) {
-                return elevationMap.getElevation(position);
+            if (elevationMap.covers(x, y)) {
+                return sampling == Sampling.BILINEAR ? elevationMap.getElevationBilinear(x, y) : elevationMap.getElevation(x, y);
             }
         }
 
@@ -46,14 +91,134 @@ public class ElevationReader {
         return 0;
     }
 
-    private static class ElevationMap {
+    /**
+     * Set the elevation of all nodes in the network. Nodes are processed in parallel, ordered along a Morton (z-order)
+     * curve, so that nearby nodes are looked up together and access to the height map stays local.
+     */
+    public void assignElevations(Network network, Sampling sampling) {
+
+        Node[] nodes = network.getNodes().values().toArray(new Node[0]);
+        if (nodes.length == 0)
+            return;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Node node : nodes) {
+            minX = Math.min(minX, node.getCoord().getX());
+            minY = Math.min(minY, node.getCoord().getY());
+            maxX = Math.max(maxX, node.getCoord().getX());
+            maxY = Math.max(maxY, node.getCoord().getY());
+        }
+
+        double scaleX = MORTON_MAX / Math.max(maxX - minX, 1);
+        double scaleY = MORTON_MAX / Math.max(maxY - minY, 1);
+
+        long[] order = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            int mx = (int) ((nodes[i].getCoord().getX() - minX) * scaleX);
+            int my = (int) ((nodes[i].getCoord().getY() - minY) * scaleY);
+
+            // morton code in the upper bits, node index in the lower bits
+            order[i] = (interleave(mx) | (interleave(my) << 1)) << 32 | i;
+        }
+        Arrays.sort(order);
+
+        double[] elevations = new double[nodes.length];
+        int chunks = (nodes.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int end = Math.min(nodes.length, (chunk + 1) * CHUNK_SIZE);
+            for (int j = chunk * CHUNK_SIZE; j < end; j++) {
+                int idx = (int) order[j];
+                elevations[idx] = getElevationAt(nodes[idx].getCoord(), sampling);
+            }
+        });
+
+        // coordinates are updated sequentially, because the network may hold a spatial index of its nodes
+        for (int i = 0; i < nodes.length; i++) {
+            Coord coord = nodes[i].getCoord();
+            nodes[i].setCoord(new Coord(coord.getX(), coord.getY(), elevations[i]));
+        }
+
+        log.info("Assigned elevation to " + nodes.length + " nodes.");
+    }
+
+    /**
+     * Spread the lower 16 bits of a value to the even bits of the result.
+     */
+    private static long interleave(int value) {
+        long x = value & 0xFFFFL;
+        x = (x | (x << 8)) & 0x00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0FL;
+        x = (x | (x << 2)) & 0x33333333L;
+        x = (x | (x << 1)) & 0x55555555L;
+        return x;
+    }
+
+    /**
+     * Interpolate between the four pixels around a position, which are given in grid coordinates relative to the pixel centers.
+     * Positions on the outer half pixel are clamped to the border.
+     */
+    private static double bilinear(ElevationMap map, double fx, double fy, int width, int height, double[] scratch) {
+
+        int c0 = Math.max(0, Math.min((int) Math.floor(fx), width - 2));
+        int r0 = Math.max(0, Math.min((int) Math.floor(fy), height - 2));
+        double tx = width > 1 ? Math.max(0, Math.min(fx - c0, 1)) : 0;
+        double ty = height > 1 ? Math.max(0, Math.min(fy - r0, 1)) : 0;
+
+        map.getBlock(c0, r0, scratch);
+
+        double top = scratch[0] * (1 - tx) + scratch[1] * tx;
+        double bottom = scratch[2] * (1 - tx) + scratch[3] * tx;
+        return top * (1 - ty) + bottom * ty;
+    }
+
+    public enum Sampling {
+        /**
+         * Value of the pixel containing the position.
+         */
+        NEAREST,
+        /**
+         * Bilinear interpolation between the four closest pixel centers.
+         */
+        BILINEAR
+    }
+
+    private interface ElevationMap {
+
+        boolean covers(double x, double y);
+
+        double getElevation(double x, double y);
+
+        double getElevationBilinear(double x, double y);
+
+        /**
+         * Copy the 2x2 pixels starting at column {@code col} and row {@code row} into {@code out} in row major order.
+         * Pixels outside the map are clamped to the border.
+         */
+        void getBlock(int col, int row, double[] out);
+    }
+
+    /**
+     * Keeps the whole raster of the geo tiff on the heap.
+     */
+    private static class RasterElevationMap implements ElevationMap {
 
-        private final static Logger log = LogManager.getLogger(ElevationMap.class);
-        private final double[] outPixel = new double[1];
+        private final static Logger log = LogManager.getLogger(RasterElevationMap.class);
+
+        /**
+         * Scratch buffers are kept per thread, so that lookups can be done in parallel.
+         */
+        private final ThreadLocal<double[]> outPixel = ThreadLocal.withInitial(() -> new double[1]);
+        private final ThreadLocal<double[]> block = ThreadLocal.withInitial(() -> new double[4]);
         private final GridCoverage2D coverage;
         private final Raster raster;
+        private final double minX;
+        private final double maxY;
+        private final double pixelWidth;
+        private final double pixelHeight;
 
-        ElevationMap(String filename) {
+        RasterElevationMap(String filename) {
 
             log.info("Loading height map from: " + filename);
             try {
@@ -65,25 +230,342 @@ public class ElevationReader {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+
+            var envelope = coverage.getEnvelope2D();
+            minX = envelope.getMinX();
+            maxY = envelope.getMaxY();
+            pixelWidth = envelope.getWidth() / raster.getWidth();
+            pixelHeight = envelope.getHeight() / raster.getHeight();
         }
 
-        boolean covers(Position2D position) {
-            return coverage.getEnvelope2D().contains(position.getX(), position.getY());
+        @Override
+        public boolean covers(double x, double y) {
+            return coverage.getEnvelope2D().contains(x, y);
         }
 
-        double getElevation(Position2D position) {
+        @Override
+        public double getElevation(double x, double y) {
 
-            if (!coverage.getEnvelope2D().contains(position.getX(), position.getY())) {
+            if (!covers(x, y)) {
                 throw new IllegalArgumentException("position is not covered by height map. Test with 'covers' first");
             }
 
             try {
-                var gridPosition = coverage.getGridGeometry().worldToGrid(position);
-                raster.getPixel(gridPosition.x, gridPosition.y, outPixel);
-                return outPixel[0];
+                var gridPosition = coverage.getGridGeometry().worldToGrid(new Position2D(x, y));
+                double[] pixel = outPixel.get();
+                raster.getPixel(gridPosition.x, gridPosition.y, pixel);
+                return pixel[0];
             } catch (TransformException e) {
                 throw new RuntimeException(e);
             }
         }
+
+        @Override
+        public double getElevationBilinear(double x, double y) {
+
+            if (!covers(x, y)) {
+                throw new IllegalArgumentException("position is not covered by height map. Test with 'covers' first");
+            }
+
+            double fx = (x - minX) / pixelWidth - 0.5;
+            double fy = (maxY - y) / pixelHeight - 0.5;
+            return bilinear(this, fx, fy, raster.getWidth(), raster.getHeight(), block.get());
+        }
+
+        @Override
+        public void getBlock(int col, int row, double[] out) {
+            int w = Math.min(2, raster.getWidth() - col);
+            int h = Math.min(2, raster.getHeight() - row);
+            raster.getSamples(raster.getMinX() + col, raster.getMinY() + row, w, h, 0, out);
+
+            // duplicate border pixels for maps which are only one pixel wide or high
+            if (w == 1) {
+                out[2] = out[1];
+                out[1] = out[0];
+                out[3] = out[2];
+            }
+            if (h == 1) {
+                out[2] = out[0];
+                out[3] = out[1];
+            }
+        }
+    }
+
+    /**
+     * Height map stored as square tiles of floats in a memory mapped file. The affine transformation from world to
+     * grid coordinates is computed once, so that lookups don't allocate any objects.
+     * <p>
+     * File layout: header (see {@link #HEADER_SIZE}) followed by tiles in row major order. Values within a tile are
+     * in row major order as well.
+     */
+    private static final class TiledElevationMap implements ElevationMap {
+
+        private final static Logger log = LogManager.getLogger(TiledElevationMap.class);
+
+        private static final int MAGIC = 0x454C4556; // ELEV
+        private static final int VERSION = 2;
+        private static final int HEADER_SIZE = 128;
+        private static final String HASH_ALGORITHM = "SHA-256";
+        private static final int HASH_BYTES = 32;
+
+        /**
+         * Position of the size and hash of the source geo tiff, which follow the grid geometry and tile size in the header.
+         */
+        private static final int SIZE_OFFSET = 52;
+        private static final int HASH_OFFSET = SIZE_OFFSET + Long.BYTES;
+        private static final int TILE_SIZE = 256;
+        private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * Float.BYTES;
+
+        /**
+         * Number of tiles per mapped segment, a single mapping is limited to 2GB.
+         */
+        private static final int TILES_PER_SEGMENT = Integer.MAX_VALUE / TILE_BYTES;
+
+        private final int width;
+        private final int height;
+        private final int tilesX;
+        private final double minX;
+        private final double maxY;
+        private final double maxX;
+        private final double minY;
+        private final double pixelWidth;
+        private final double pixelHeight;
+        private final MappedByteBuffer[] segments;
+        private final ThreadLocal<double[]> block = ThreadLocal.withInitial(() -> new double[4]);
+
+        private TiledElevationMap(Path file) throws IOException {
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(header, 0);
+                header.flip();
+
+                if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                    throw new IOException("Invalid tile file: " + file);
+
+                width = header.getInt();
+                height = header.getInt();
+                minX = header.getDouble();
+                maxY = header.getDouble();
+                pixelWidth = header.getDouble();
+                pixelHeight = header.getDouble();
+
+                if (header.getInt() != TILE_SIZE)
+                    throw new IOException("Tile file was written with a different tile size: " + file);
+
+                // size and hash of the source are only checked in load
+
+                tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+                int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+                long tiles = (long) tilesX * tilesY;
+
+                maxX = minX + width * pixelWidth;
+                minY = maxY - height * pixelHeight;
+
+                segments = new MappedByteBuffer[(int) ((tiles + TILES_PER_SEGMENT - 1) / TILES_PER_SEGMENT)];
+                for (int i = 0; i < segments.length; i++) {
+                    long first = (long) i * TILES_PER_SEGMENT;
+                    long n = Math.min(TILES_PER_SEGMENT, tiles - first);
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * TILE_BYTES, n * TILE_BYTES);
+                    segments[i].order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+        }
+
+        /**
+         * Load the tile file for a geo tiff, which is created in the cache directory if it does not exist or is outdated.
+         * Falls back to a {@link RasterElevationMap} if the tile file can not be written.
+         */
+        static ElevationMap load(String filename, Path cache) {
+
+            Path tiff = Path.of(filename);
+
+            // the name contains a hash of the full path, so that geo tiffs with the same name in different folders don't collide
+            String name = tiff.getFileName() + "-" + Integer.toHexString(tiff.toAbsolutePath().normalize().toString().hashCode());
+            Path tiles = cache.resolve(name + ".tiles");
+
+            try {
+                long size = Files.size(tiff);
+                byte[] hash = hash(tiff);
+
+                if (!isConvertedFrom(tiles, size, hash)) {
+                    Files.createDirectories(cache);
+                    convert(tiff, tiles, size, hash);
+                } else {
+                    log.info("Using existing tile file: " + tiles);
+                }
+
+                return new TiledElevationMap(tiles);
+            } catch (IOException e) {
+                log.warn("Could not use tile file " + tiles + ", loading height map " + tiff + " into memory instead.", e);
+                return new RasterElevationMap(filename);
+            }
+        }
+
+        /**
+         * Check whether a tile file exists and was converted from a source with the given size and hash.
+         */
+        private static boolean isConvertedFrom(Path tiles, long size, byte[] hash) throws IOException {
+
+            if (!Files.exists(tiles))
+                return false;
+
+            try (FileChannel channel = FileChannel.open(tiles, StandardOpenOption.READ)) {
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(header, 0);
+                header.flip();
+
+                if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION)
+                    return false;
+
+                byte[] stored = new byte[HASH_BYTES];
+                header.get(HASH_OFFSET, stored);
+                return header.getLong(SIZE_OFFSET) == size && Arrays.equals(stored, hash);
+            }
+        }
+
+        /**
+         * Hash of the whole file content. Reading the file sequentially is much cheaper than decoding the geo tiff.
+         */
+        private static byte[] hash(Path file) throws IOException {
+
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+
+            return digest.digest();
+        }
+
+        /**
+         * Convert a geo tiff into a tile file. Only one row of tiles is held in memory at a time.
+         */
+        private static void convert(Path tiff, Path output, long size, byte[] hash) throws IOException {
+
+            log.info("Converting height map " + tiff + " into tile file " + output + ". This is only done once.");
+
+            GridCoverage2D coverage = new GeoTiffReader(tiff.toFile()).read(null);
+
+            var gridToCrs = coverage.getGridGeometry().getGridToCRS2D();
+            if (gridToCrs instanceof AffineTransform affine && (affine.getShearX() != 0 || affine.getShearY() != 0))
+                throw new IllegalArgumentException("Rotated height maps are not supported: " + tiff);
+
+            var envelope = coverage.getEnvelope2D();
+            var gridRange = coverage.getGridGeometry().getGridRange2D();
+            int width = gridRange.width;
+            int height = gridRange.height;
+            int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+            var image = coverage.getRenderedImage();
+
+            // write into a unique temporary file first, so that incomplete or concurrent conversions are never used
+            Path tmp = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+                header.putDouble(envelope.getMinX()).putDouble(envelope.getMaxY());
+                header.putDouble(envelope.getWidth() / width).putDouble(envelope.getHeight() / height);
+                header.putInt(TILE_SIZE);
+                header.putLong(size).put(hash);
+                header.position(HEADER_SIZE).flip();
+                channel.write(header);
+
+                ByteBuffer tile = ByteBuffer.allocate(TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                double[] row = new double[TILE_SIZE];
+
+                for (int ty = 0; ty < tilesY; ty++) {
+
+                    int rows = Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+                    Raster strip = image.getData(new Rectangle(gridRange.x, gridRange.y + ty * TILE_SIZE, width, rows));
+
+                    for (int tx = 0; tx < tilesX; tx++) {
+                        int cols = Math.min(TILE_SIZE, width - tx * TILE_SIZE);
+                        tile.clear();
+                        for (int r = 0; r < TILE_SIZE; r++) {
+                            if (r < rows)
+                                strip.getSamples(gridRange.x + tx * TILE_SIZE, gridRange.y + ty * TILE_SIZE + r, cols, 1, 0, row);
+
+                            for (int c = 0; c < TILE_SIZE; c++) {
+                                tile.putFloat(r < rows && c < cols ? (float) row[c] : 0f);
+                            }
+                        }
+                        tile.flip();
+                        channel.write(tile);
+                    }
+
+                    log.info("Converted tile row " + (ty + 1) + " of " + tilesY);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public boolean covers(double x, double y) {
+            return minX <= x && x <= maxX && minY <= y && y <= maxY;
+        }
+
+        @Override
+        public double getElevation(double x, double y) {
+
+            if (!covers(x, y)) {
+                throw new IllegalArgumentException("position is not covered by height map. Test with 'covers' first");
+            }
+
+            // points on the max border belong to the last row or column
+            int col = Math.min((int) ((x - minX) / pixelWidth), width - 1);
+            int row = Math.min((int) ((maxY - y) / pixelHeight), height - 1);
+
+            return getValue(col, row);
+        }
+
+        @Override
+        public double getElevationBilinear(double x, double y) {
+
+            if (!covers(x, y)) {
+                throw new IllegalArgumentException("position is not covered by height map. Test with 'covers' first");
+            }
+
+            double fx = (x - minX) / pixelWidth - 0.5;
+            double fy = (maxY - y) / pixelHeight - 0.5;
+            return bilinear(this, fx, fy, width, height, block.get());
+        }
+
+        @Override
+        public void getBlock(int col, int row, double[] out) {
+            int col1 = Math.min(col + 1, width - 1);
+            int row1 = Math.min(row + 1, height - 1);
+            out[0] = getValue(col, row);
+            out[1] = getValue(col1, row);
+            out[2] = getValue(col, row1);
+            out[3] = getValue(col1, row1);
+        }
+
+        private float getValue(int col, int row) {
+            long tile = (long) (row / TILE_SIZE) * tilesX + col / TILE_SIZE;
+            int segment = (int) (tile / TILES_PER_SEGMENT);
+            int offset = (int) (tile % TILES_PER_SEGMENT) * TILE_BYTES + ((row % TILE_SIZE) * TILE_SIZE + col % TILE_SIZE) * Float.BYTES;
+
+            // absolute reads don't modify the buffer and are safe to use from multiple threads
+            return segments[segment].getFloat(offset);
+        }
     }
 }
@@ -0,0 +1,113 @@
+package org.matsim.prepare;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded cache which evicts the least recently used entries. Keys are distributed over independently locked segments,
+ * each of them evicting separately, so that the cache can be used by many threads.
+ * <p>
+ * Values are computed outside the lock. Concurrent misses on the same key may therefore compute the value more than once.
+ * Null values are not supported.
+ */
+final class LruCache<K, V> {
+
+	private final Segment<K, V>[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Create a cache holding up to {@code capacity} entries. The capacity is split evenly between the segments, so that
+	 * a segment may evict entries before the whole cache is full. A capacity of 0 disables caching.
+	 */
+	@SuppressWarnings("unchecked")
+	LruCache(int capacity) {
+
+		if (capacity < 0)
+			throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+
+		int n = Integer.highestOneBit(Math.max(1, Math.min(capacity / 16, Runtime.getRuntime().availableProcessors() * 4)));
+		segments = new Segment[n];
+		for (int i = 0; i < n; i++) {
+			// the remainder is distributed over the first segments
+			segments[i] = new Segment<>(capacity / n + (i < capacity % n ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Return the cached value or compute and store it if absent.
+	 */
+	V get(K key, Function<? super K, ? extends V> loader) {
+
+		Segment<K, V> segment = segmentFor(key);
+
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+
+		if (value != null) {
+			hits.increment();
+			return value;
+		}
+
+		misses.increment();
+		value = loader.apply(key);
+
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+
+		return value;
+	}
+
+	int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Share of lookups that have been answered from the cache.
+	 */
+	double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	private Segment<K, V> segmentFor(K key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (segments.length - 1)];
+	}
+
+	private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+	}
+}
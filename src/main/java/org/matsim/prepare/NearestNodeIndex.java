@@ -0,0 +1,86 @@
+package org.matsim.prepare;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.collections.QuadTree;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Spatial index of network nodes which is updated incrementally while nodes are added to a network. In contrast to the
+ * index of the network itself, it never has to be rebuilt.
+ * <p>
+ * Nodes whose id starts with one of the excluded prefixes are never indexed. The nearest neighbour is selected in a single
+ * pass over the candidates, without sorting them.
+ */
+final class NearestNodeIndex {
+
+	private final QuadTree<Node> tree;
+	private final List<String> excludedPrefixes;
+
+	/**
+	 * Create an empty index.
+	 *
+	 * @param nodes            nodes that determine the bounds of the index, they are not added
+	 * @param margin           additional margin around the bounds
+	 * @param excludedPrefixes nodes with ids starting with these prefixes are ignored
+	 */
+	NearestNodeIndex(Collection<? extends Node> nodes, double margin, String... excludedPrefixes) {
+		double[] bounds = NetworkUtils.getBoundingBox(nodes);
+		this.tree = new QuadTree<>(bounds[0] - margin, bounds[1] - margin, bounds[2] + margin, bounds[3] + margin);
+		this.excludedPrefixes = List.of(excludedPrefixes);
+	}
+
+	/**
+	 * Add a node to the index, unless it is excluded by its id.
+	 *
+	 * @return whether the node was added
+	 */
+	boolean add(Node node) {
+		String id = node.getId().toString();
+		for (String prefix : excludedPrefixes) {
+			if (id.startsWith(prefix))
+				return false;
+		}
+
+		return tree.put(node.getCoord().getX(), node.getCoord().getY(), node);
+	}
+
+	int size() {
+		return tree.size();
+	}
+
+	/**
+	 * Return the nearest node regardless of the distance, or null if the index is empty.
+	 */
+	Node nearest(Coord coord) {
+		return tree.getClosest(coord.getX(), coord.getY());
+	}
+
+	/**
+	 * Return the nearest node within the radius that is accepted by the filter, or null if there is none.
+	 */
+	Node nearest(Coord coord, double radius, Predicate<Node> filter) {
+
+		Node result = null;
+		double best = Double.POSITIVE_INFINITY;
+		for (Node node : tree.getDisk(coord.getX(), coord.getY(), radius)) {
+			double dist = distanceSquared(coord, node);
+			if (dist < best && filter.test(node)) {
+				best = dist;
+				result = node;
+			}
+		}
+
+		return result;
+	}
+
+	private static double distanceSquared(Coord coord, Node node) {
+		double dx = node.getCoord().getX() - coord.getX();
+		double dy = node.getCoord().getY() - coord.getY();
+		return dx * dx + dy * dy;
+	}
+}
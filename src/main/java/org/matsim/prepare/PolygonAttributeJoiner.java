@@ -0,0 +1,128 @@
+package org.matsim.prepare;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.network.Link;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Joins attributes of polygon features to links. Polygons are prepared and stored in an STR-tree, so that each link
+ * is only tested against polygons whose envelope contains it.
+ * <p>
+ * Attributes of each feature are converted once into a value of type {@code T}. If multiple polygons cover a link,
+ * the feature that comes first in the input collection is used.
+ */
+public final class PolygonAttributeJoiner<T> {
+
+	private static final Logger log = LogManager.getLogger(PolygonAttributeJoiner.class);
+
+	private static final int BATCH_SIZE = 10_000;
+
+	private final STRtree index = new STRtree();
+	private final GeometryFactory factory = new GeometryFactory();
+
+	/**
+	 * Create joiner from features.
+	 *
+	 * @param features  polygon features
+	 * @param converter converts the attributes of one feature, called once per feature
+	 */
+	public PolygonAttributeJoiner(Collection<SimpleFeature> features, Function<SimpleFeature, T> converter) {
+
+		long t = System.currentTimeMillis();
+
+		var preparedFactory = new PreparedGeometryFactory();
+		int i = 0;
+		for (SimpleFeature feature : features) {
+			Geometry geometry = (Geometry) feature.getDefaultGeometry();
+			if (geometry == null)
+				continue;
+
+			index.insert(geometry.getEnvelopeInternal(), new Entry<>(i++, preparedFactory.create(geometry), converter.apply(feature)));
+		}
+
+		index.build();
+
+		log.info("Indexed {} features in {} ms", i, System.currentTimeMillis() - t);
+	}
+
+	/**
+	 * Return the value of the first feature covering the coordinate or null if there is none.
+	 */
+	public T find(double x, double y) {
+
+		@SuppressWarnings("unchecked")
+		List<Entry<T>> candidates = index.query(new Envelope(x, x, y, y));
+		if (candidates.isEmpty())
+			return null;
+
+		var point = factory.createPoint(new Coordinate(x, y));
+
+		Entry<T> result = null;
+		for (Entry<T> candidate : candidates) {
+			if ((result == null || candidate.order() < result.order()) && candidate.geometry().covers(point))
+				result = candidate;
+		}
+
+		return result == null ? null : result.value();
+	}
+
+	/**
+	 * Find the value for each link and pass it to the consumer. Links are processed in parallel batches, so the consumer
+	 * must only modify the link it is given.
+	 *
+	 * @param filter   links to consider
+	 * @param consumer receives the link and the value of the covering feature, which is null if there is none
+	 */
+	public void join(Collection<? extends Link> links, Predicate<Link> filter, BiConsumer<Link, T> consumer) {
+
+		long t = System.currentTimeMillis();
+
+		List<Link> list = new ArrayList<>(links);
+		int batches = (list.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+		var matched = new AtomicInteger();
+		var processed = new AtomicInteger();
+
+		IntStream.range(0, batches).parallel().forEach(b -> {
+			int m = 0;
+			int n = 0;
+			int end = Math.min(list.size(), (b + 1) * BATCH_SIZE);
+			for (int i = b * BATCH_SIZE; i < end; i++) {
+				Link link = list.get(i);
+				if (!filter.test(link))
+					continue;
+
+				T value = find(link.getCoord().getX(), link.getCoord().getY());
+				if (value != null)
+					m++;
+
+				consumer.accept(link, value);
+				n++;
+			}
+
+			matched.addAndGet(m);
+			processed.addAndGet(n);
+		});
+
+		log.info("Joined {} of {} links with features in {} ms", matched.get(), processed.get(), System.currentTimeMillis() - t);
+	}
+
+	private record Entry<T>(int order, PreparedGeometry geometry, T value) {
+	}
+}
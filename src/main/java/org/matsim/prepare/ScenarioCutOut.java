@@ -21,15 +21,16 @@ package org.matsim.prepare;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.geom.Coordinate;
+import org.geotools.api.feature.simple.SimpleFeature;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.LineString;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
 import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
@@ -37,11 +38,15 @@ import org.matsim.api.core.v01.population.Route;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.CrsOptions;
 import org.matsim.application.options.ShpOptions;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.network.algorithms.MultimodalNetworkCleaner;
 import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.algorithms.ParallelPersonAlgorithmUtils;
+import org.matsim.core.population.algorithms.PersonAlgorithm;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.population.io.PopulationWriter;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.router.TripStructureUtils.Trip;
@@ -49,19 +54,38 @@ import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
 import org.matsim.core.router.speedy.SpeedyALTFactory;
 import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
-import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.utils.objectattributes.ObjectAttributesConverter;
 import picocli.CommandLine;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Cuts out the network and the relevant persons of one or multiple regions. With {@code --region-attr}, each feature of
+ * the shape file is one region and network and population are read only once for all of them.
+ */
 @CommandLine.Command(name = "scenario-cutout", description = "TODO")
 public class ScenarioCutOut implements MATSimAppCommand {
 
 	private static final Logger log = LogManager.getLogger(ScenarioCutOut.class);
 
+	/**
+	 * Grid cell size in meter used for classifying coordinates.
+	 */
+	private static final double CELL_SIZE = 250;
+
 	@CommandLine.Option(names = "--input", description = "Path to input population", required = true)
 	private Path input;
 
@@ -71,11 +95,14 @@ public class ScenarioCutOut implements MATSimAppCommand {
 	@CommandLine.Option(names = "--buffer", description = "Buffer around zones in meter", defaultValue = "1000")
 	private double buffer;
 
-	@CommandLine.Option(names = "--output-network", description = "Path to output network", required = true)
-	private Path outputNetwork;
+	@CommandLine.Option(names = "--output-network", description = "Path to output network, must contain %s if multiple regions are cut out", required = true)
+	private String outputNetwork;
+
+	@CommandLine.Option(names = "--output-population", description = "Path to output population, must contain %s if multiple regions are cut out", required = true)
+	private String outputPopulation;
 
-	@CommandLine.Option(names = "--output-population", description = "Path to output population", required = true)
-	private Path outputPopulation;
+	@CommandLine.Option(names = "--region-attr", description = "Attribute of the shape file features with the region name. If set, one scenario is cut out per feature.")
+	private String regionAttr;
 
 	@CommandLine.Option(names = "--modes", description = "Modes to consider when cutting network", defaultValue = "car,bike,ride", split = ",")
 	private Set<String> modes;
@@ -86,6 +113,12 @@ public class ScenarioCutOut implements MATSimAppCommand {
 	@CommandLine.Option(names = "--use-router", description = "Use router on legs that don't have a route", defaultValue = "false")
 	private boolean useRouter;
 
+	@CommandLine.Option(names = "--streaming", description = "Stream the population twice instead of reading it into memory", defaultValue = "false")
+	private boolean streaming;
+
+	@CommandLine.Option(names = "--cache-size", description = "Number of routes and nearest links cached when using the router", defaultValue = "200000")
+	private int cacheSize;
+
 	@CommandLine.Mixin
 	private CrsOptions crs;
 
@@ -94,6 +127,10 @@ public class ScenarioCutOut implements MATSimAppCommand {
 
 	private final ThreadLocal<LeastCostPathCalculator> routerCache = new ThreadLocal<>();
 
+	private NearestNodeIndex carNodes;
+	private LruCache<Coord, Node> nearestNodeCache;
+	private LruCache<Long, Id<Link>[]> pathCache;
+
 	public static void main(String[] args) {
 		new ScenarioCutOut().execute(args);
 	}
@@ -102,183 +139,392 @@ public class ScenarioCutOut implements MATSimAppCommand {
 	public Integer call() throws Exception {
 
 		Network network = NetworkUtils.readNetwork(networkPath.toString());
-		Population population = PopulationUtils.readPopulation(input.toString());
 
 		if (crs.getInputCRS() == null) {
 			log.error("Input CRS must be specified");
 			return 2;
 		}
 
-		Geometry geom = shp.getGeometry().buffer(buffer);
+		List<Region> regions = createRegions();
 
-		Set<Id<Link>> linksToDelete = new HashSet<>();
-		Set<Id<Link>> linksToKeep = new HashSet<>();
+		regions.parallelStream().forEach(region -> {
+			for (Link link : network.getLinks().values()) {
+				if (link.getAllowedModes().contains(TransportMode.pt)
+						|| region.area().contains(link.getCoord())
+						|| region.area().contains(link.getFromNode().getCoord())
+						|| region.area().contains(link.getToNode().getCoord())) {
+					// keep the link
+					region.linksToKeep().add(link.getId());
+				}
+			}
+		});
 
-		for (Link link : network.getLinks().values()) {
+		Network carOnlyNetwork = useRouter ? filterNetwork(network) : null;
+		if (useRouter) {
+			keepLinksInRoutes = true;
 
-			if (geom.contains(MGC.coord2Point(link.getCoord()))
-					|| geom.contains(MGC.coord2Point(link.getFromNode().getCoord()))
-					|| geom.contains(MGC.coord2Point(link.getToNode().getCoord()))
-					|| link.getAllowedModes().contains(TransportMode.pt)) {
-				// keep the link
-				linksToKeep.add(link.getId());
-			} else {
-				linksToDelete.add(link.getId());
-			}
+			carNodes = new NearestNodeIndex(carOnlyNetwork.getNodes().values(), 0);
+			carOnlyNetwork.getNodes().values().forEach(carNodes::add);
+			nearestNodeCache = new LruCache<>(cacheSize);
+			pathCache = new LruCache<>(cacheSize);
 		}
 
+		if (streaming) {
+			cutPopulationStreaming(regions, carOnlyNetwork);
+		} else {
+			cutPopulation(regions, carOnlyNetwork);
+		}
 
-		// additional links to include
-		Set<Id<Link>> linksToInclude = ConcurrentHashMap.newKeySet();
+		if (useRouter) {
+			log.info("Path cache: {} hits, {} misses, hit rate {}", pathCache.getHits(), pathCache.getMisses(), String.format("%.2f", pathCache.getHitRate()));
+			log.info("Nearest link cache: {} hits, {} misses, hit rate {}", nearestNodeCache.getHits(), nearestNodeCache.getMisses(), String.format("%.2f", nearestNodeCache.getHitRate()));
+		}
 
-		GeometryFactory gf = new GeometryFactory();
+		log.info("number of links in original network: {}", network.getLinks().size());
 
-		Network carOnlyNetwork = useRouter ? filterNetwork(network) : null;
-		if (useRouter) {
-			keepLinksInRoutes = true;
+		regions.parallelStream().forEach(region -> cutNetwork(network, region));
+
+		return 0;
+	}
+
+	/**
+	 * Create either one region from the whole shape file, or one region per feature.
+	 */
+	private List<Region> createRegions() {
+
+		if (regionAttr == null)
+			return List.of(Region.create(null, shp.getGeometry().buffer(buffer), Path.of(outputNetwork), Path.of(outputPopulation)));
+
+		if (!outputNetwork.contains("%s") || !outputPopulation.contains("%s"))
+			throw new IllegalArgumentException("Output paths must contain %s when cutting out multiple regions.");
+
+		List<Region> regions = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (SimpleFeature feature : shp.readFeatures()) {
+			String name = String.valueOf(feature.getAttribute(regionAttr));
+			if (!names.add(name))
+				throw new IllegalArgumentException("Region name " + name + " is not unique.");
+
+			Geometry geom = ((Geometry) feature.getDefaultGeometry()).buffer(buffer);
+			regions.add(Region.create(name, geom, Path.of(String.format(outputNetwork, name)), Path.of(String.format(outputPopulation, name))));
 		}
 
-		// now delete irrelevant persons
-		Set<Id<Person>> personsToDelete = ConcurrentHashMap.newKeySet();
+		log.info("Cutting out {} regions: {}", regions.size(), names);
+		return regions;
+	}
+
+	/**
+	 * Read the whole population, determine relevant persons and write them for each region.
+	 */
+	private void cutPopulation(List<Region> regions, Network carOnlyNetwork) {
+
+		Population population = PopulationUtils.readPopulation(input.toString());
 
 		ParallelPersonAlgorithmUtils.run(population, Runtime.getRuntime().availableProcessors(), person -> {
+			if (processPerson(person, regions, carOnlyNetwork)) {
+				resetLinks(person);
+			}
+		});
 
-			boolean keepPerson = false;
+		// kept persons are modified in the same way for all regions, so they can be shared between the populations
+		regions.parallelStream().forEach(region -> {
 
-			List<Trip> trips = TripStructureUtils.getTrips(person.getSelectedPlan());
+			Population result = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+			for (Map.Entry<String, Object> attr : population.getAttributes().getAsMap().entrySet()) {
+				result.getAttributes().putAttribute(attr.getKey(), attr.getValue());
+			}
 
-			Set<Id<Link>> linkIds = new HashSet<>();
+			for (Person person : population.getPersons().values()) {
+				if (region.persons().contains(person.getId()))
+					result.addPerson(person);
+			}
 
-			for (Trip trip : trips) {
+			log.info("Persons in the scenario {}: {}", region, result.getPersons().size());
 
-				// keep all agents starting or ending in area
-				if (geom.contains(MGC.coord2Point(trip.getOriginActivity().getCoord())) || geom.contains(MGC.coord2Point(trip.getDestinationActivity().getCoord()))) {
-					keepPerson = true;
-				}
+			PopulationUtils.writePopulation(result, region.outputPopulation().toString());
+		});
+	}
 
-				LineString line = gf.createLineString(new Coordinate[]{
-						MGC.coord2Coordinate(trip.getOriginActivity().getCoord()),
-						MGC.coord2Coordinate(trip.getDestinationActivity().getCoord())
-				});
+	/**
+	 * Stream the population twice, so that it is never held in memory completely. The first pass determines persons and
+	 * links to keep, the second pass writes the kept persons.
+	 */
+	private void cutPopulationStreaming(List<Region> regions, Network carOnlyNetwork) throws InterruptedException, IOException, XMLStreamException {
+
+		StreamingPopulationReader first = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+		try (ParallelPersonHandler handler = new ParallelPersonHandler(Runtime.getRuntime().availableProcessors(),
+				person -> processPerson(person, regions, carOnlyNetwork))) {
+			first.addAlgorithm(handler);
+			first.readFile(input.toString());
+		}
 
-				// also keep persons traveling through or close to area (beeline)
-				if (line.intersects(geom)) {
-					keepPerson = true;
-				}
+		// the streaming reader does not expose the attributes of the population, which are needed for the header of the output
+		Population header = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		readPopulationAttributes(input).forEach(header.getAttributes()::putAttribute);
 
+		List<PopulationWriter> writers = new ArrayList<>();
+		for (Region region : regions) {
+			log.info("Persons in the scenario {}: {}", region, region.persons().size());
 
-				for (Leg leg : trip.getLegsOnly()) {
-					Route route = leg.getRoute();
-					if (keepLinksInRoutes && route instanceof NetworkRoute) {
+			PopulationWriter writer = new PopulationWriter(header);
+			writer.writeStartPlans(region.outputPopulation().toString());
+			writers.add(writer);
+		}
 
-						linkIds.addAll(((NetworkRoute) route).getLinkIds());
-						if (((NetworkRoute) route).getLinkIds().stream().anyMatch(linksToKeep::contains)) {
-							keepPerson = true;
-						}
+		StreamingPopulationReader second = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+		second.addAlgorithm(person -> {
+			boolean reset = false;
+			for (int i = 0; i < regions.size(); i++) {
+				if (regions.get(i).persons().contains(person.getId())) {
+					// persons need to be modified in the same way as in the in-memory mode
+					if (!reset) {
+						resetLinks(person);
+						reset = true;
 					}
+					writers.get(i).writePerson(person);
 				}
+			}
+		});
 
-				if (useRouter) {
-
-					LeastCostPathCalculator router = createRouter(carOnlyNetwork);
+		second.readFile(input.toString());
+		writers.forEach(PopulationWriter::writeEndPlans);
+	}
 
-					Node fromNode;
-					Node toNode;
+	/**
+	 * Read the attributes of the population element, which precede all persons. The rest of the file is not read.
+	 */
+	private static Map<String, Object> readPopulationAttributes(Path input) throws IOException, XMLStreamException {
 
-					Map<Id<Link>, ? extends Link> carLinks = carOnlyNetwork.getLinks();
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
 
-					if (trip.getOriginActivity().getLinkId() != null && carLinks.get(trip.getOriginActivity().getLinkId()) != null) {
-						fromNode = carLinks.get(trip.getOriginActivity().getLinkId()).getFromNode();
-					} else {
-						fromNode = NetworkUtils.getNearestLink(carOnlyNetwork, trip.getOriginActivity().getCoord()).getFromNode();
-					}
+		ObjectAttributesConverter converter = new ObjectAttributesConverter();
+		Map<String, Object> attributes = new LinkedHashMap<>();
 
-					if (trip.getDestinationActivity().getLinkId() != null && carLinks.get(trip.getDestinationActivity().getLinkId()) != null) {
-						toNode = carLinks.get(trip.getDestinationActivity().getLinkId()).getFromNode();
-					} else {
-						toNode = NetworkUtils.getNearestLink(carOnlyNetwork, trip.getDestinationActivity().getCoord()).getFromNode();
-					}
+		try (InputStream in = IOUtils.getInputStream(IOUtils.resolveFileOrResource(input.toString()))) {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
 
-					LeastCostPathCalculator.Path path = router.calcLeastCostPath(fromNode, toNode, 0, null, null);
+					if (reader.getLocalName().equals("person"))
+						break;
 
-					if (path != null) {
-						// add all these links directly
-						path.links.stream().map(Link::getId).forEach(linkIds::add);
-						if (path.links.stream().map(Link::getId).anyMatch(linksToKeep::contains)) {
-							keepPerson = true;
-						}
+					if (reader.getLocalName().equals("attribute")) {
+						String name = reader.getAttributeValue(null, "name");
+						String type = reader.getAttributeValue(null, "class");
+						attributes.put(name, converter.convert(type, reader.getElementText()));
 					}
 				}
+			} finally {
+				reader.close();
+			}
+		}
 
-				// activity link ids are reset, because it is not guaranteed they can be retained
-				if (trip.getOriginActivity().getLinkId() != null) {
-					linkIds.add(trip.getOriginActivity().getLinkId());
-					trip.getOriginActivity().setLinkId(null);
-				}
+		return attributes;
+	}
+
+	/**
+	 * Determine for each region whether the person is relevant and collect the links it uses. The person is not modified.
+	 *
+	 * @return whether the person is kept in any region
+	 */
+	private boolean processPerson(Person person, List<Region> regions, Network carOnlyNetwork) {
 
-				if (trip.getDestinationActivity().getLinkId() != null) {
-					linkIds.add(trip.getDestinationActivity().getLinkId());
-					trip.getDestinationActivity().setLinkId(null);
+		List<Trip> trips = TripStructureUtils.getTrips(person.getSelectedPlan());
+
+		// links used by the person do not depend on the region
+		Set<Id<Link>> linkIds = new HashSet<>();
+		List<Id<Link>[]> paths = new ArrayList<>();
+
+		for (int i = 0; i < trips.size(); i++) {
+
+			Trip trip = trips.get(i);
+			for (Leg leg : trip.getLegsOnly()) {
+				Route route = leg.getRoute();
+				if (keepLinksInRoutes && route instanceof NetworkRoute) {
+					linkIds.addAll(((NetworkRoute) route).getLinkIds());
 				}
+			}
 
+			// activity link ids are reset later, the origin of a trip is the destination of the previous one
+			// so that only the first trip considers the link id of its origin
+			Id<Link> originLinkId = i == 0 ? trip.getOriginActivity().getLinkId() : null;
+			Id<Link> destinationLinkId = trip.getDestinationActivity().getLinkId();
+
+			if (useRouter) {
+				Id<Link>[] path = routeTrip(carOnlyNetwork, trip.getOriginActivity(), originLinkId, trip.getDestinationActivity(), destinationLinkId);
+				Collections.addAll(linkIds, path);
+				paths.add(path);
 			}
 
-			if (keepPerson) {
-				linksToInclude.addAll(linkIds);
-			} else {
-				personsToDelete.add(person.getId());
+			if (originLinkId != null)
+				linkIds.add(originLinkId);
+
+			if (destinationLinkId != null)
+				linkIds.add(destinationLinkId);
+		}
+
+		boolean keepAny = false;
+		for (Region region : regions) {
+			if (isRelevant(trips, paths, region)) {
+				region.persons().add(person.getId());
+				region.linksToInclude().addAll(linkIds);
+				keepAny = true;
 			}
+		}
+
+		return keepAny;
+	}
 
-			PopulationUtils.resetRoutes(person.getSelectedPlan());
+	private boolean isRelevant(List<Trip> trips, List<Id<Link>[]> paths, Region region) {
 
-		});
+		AreaClassifier area = region.area();
+		for (Trip trip : trips) {
+			// keep all agents starting or ending in area
+			// also keep persons traveling through or close to area (beeline), which is the more expensive test
+			if (area.contains(trip.getOriginActivity().getCoord()) || area.contains(trip.getDestinationActivity().getCoord())
+					|| area.intersects(trip.getOriginActivity().getCoord(), trip.getDestinationActivity().getCoord())) {
+				return true;
+			}
 
-		log.info("Persons to delete: {}", personsToDelete.size());
-		for (Id<Person> personId : personsToDelete) {
-			population.removePerson(personId);
+			for (Leg leg : trip.getLegsOnly()) {
+				if (keepLinksInRoutes && leg.getRoute() instanceof NetworkRoute route
+						&& route.getLinkIds().stream().anyMatch(region.linksToKeep()::contains)) {
+					return true;
+				}
+			}
 		}
 
-		log.info("Persons in the scenario: {}", population.getPersons().size());
+		for (Id<Link>[] path : paths) {
+			for (Id<Link> linkId : path) {
+				if (region.linksToKeep().contains(linkId))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Route a trip on the car network. Activities without a usable link id are connected to the nearest link.
+	 */
+	private Id<Link>[] routeTrip(Network carOnlyNetwork, Activity origin, Id<Link> originLinkId, Activity destination, Id<Link> destinationLinkId) {
+
+		Node fromNode;
+		Node toNode;
 
-		PopulationUtils.writePopulation(population, outputPopulation.toString());
+		Map<Id<Link>, ? extends Link> carLinks = carOnlyNetwork.getLinks();
 
-		if (keepLinksInRoutes && linksToInclude.isEmpty()) {
-			log.warn("Keep links in routes is activated, but no links have been kept. Probably no routes are present.");
+		if (originLinkId != null && carLinks.get(originLinkId) != null) {
+			fromNode = carLinks.get(originLinkId).getFromNode();
+		} else {
+			fromNode = nearestLinkFromNode(origin.getCoord());
 		}
 
-		log.info("Links to add: " + linksToKeep.size());
+		if (destinationLinkId != null && carLinks.get(destinationLinkId) != null) {
+			toNode = carLinks.get(destinationLinkId).getFromNode();
+		} else {
+			toNode = nearestLinkFromNode(destination.getCoord());
+		}
 
-		if (keepLinksInRoutes) {
-			log.info("Additional links from routes to include: {}", linksToInclude.size());
+		long key = ((long) fromNode.getId().index() << 32) | toNode.getId().index();
+		return pathCache.get(key, k -> route(carOnlyNetwork, fromNode, toNode));
+	}
+
+	/**
+	 * Remove link ids from all trip activities and reset routes, because it is not guaranteed they can be retained.
+	 */
+	private static void resetLinks(Person person) {
+		for (Trip trip : TripStructureUtils.getTrips(person.getSelectedPlan())) {
+			trip.getOriginActivity().setLinkId(null);
+			trip.getDestinationActivity().setLinkId(null);
 		}
 
+		PopulationUtils.resetRoutes(person.getSelectedPlan());
+	}
 
-		log.info("number of links in original network: {}", network.getLinks().size());
+	/**
+	 * Copy the links relevant for a region into a new network, clean and write it.
+	 */
+	private void cutNetwork(Network network, Region region) {
 
-		for (Id<Link> linkId : linksToDelete) {
-			if (!linksToInclude.contains(linkId))
-				network.removeLink(linkId);
+		if (keepLinksInRoutes && region.linksToInclude().isEmpty()) {
+			log.warn("Keep links in routes is activated, but no links have been kept for {}. Probably no routes are present.", region);
+		}
+
+		log.info("Links to add for {}: {}", region, region.linksToKeep().size());
+
+		if (keepLinksInRoutes) {
+			log.info("Additional links from routes to include for {}: {}", region, region.linksToInclude().size());
+		}
+
+		Network result = NetworkUtils.createNetwork();
+		result.setCapacityPeriod(network.getCapacityPeriod());
+		result.setEffectiveLaneWidth(network.getEffectiveLaneWidth());
+		for (Map.Entry<String, Object> attr : network.getAttributes().getAsMap().entrySet()) {
+			result.getAttributes().putAttribute(attr.getKey(), attr.getValue());
+		}
+
+		for (Link link : network.getLinks().values()) {
+			if (region.linksToKeep().contains(link.getId()) || region.linksToInclude().contains(link.getId()))
+				copyLink(result, link);
 		}
 
 		// clean the network
-		log.info("number of links before cleaning: {}", network.getLinks().size());
-		log.info("number of nodes before cleaning: {}", network.getNodes().size());
+		log.info("number of links before cleaning: {}", result.getLinks().size());
+		log.info("number of nodes before cleaning: {}", result.getNodes().size());
 
-		MultimodalNetworkCleaner cleaner = new MultimodalNetworkCleaner(network);
+		MultimodalNetworkCleaner cleaner = new MultimodalNetworkCleaner(result);
 		cleaner.removeNodesWithoutLinks();
 
 		for (String m : modes) {
-			log.info("Cleaning mode {}", m);
+			log.info("Cleaning mode {} for {}", m, region);
 			cleaner.run(Set.of(m));
 		}
 
-		log.info("number of links after cleaning: {}", network.getLinks().size());
-		log.info("number of nodes after cleaning: {}", network.getNodes().size());
+		log.info("number of links after cleaning: {}", result.getLinks().size());
+		log.info("number of nodes after cleaning: {}", result.getNodes().size());
+
+		NetworkUtils.writeNetwork(result, region.outputNetwork().toString());
+	}
+
+	/**
+	 * Copy a link with its nodes into the target network. Nodes are only copied once.
+	 */
+	private static void copyLink(Network target, Link link) {
+
+		NetworkFactory factory = target.getFactory();
+		Node fromNode = copyNode(target, link.getFromNode());
+		Node toNode = copyNode(target, link.getToNode());
+
+		Link result = factory.createLink(link.getId(), fromNode, toNode);
+		result.setAllowedModes(link.getAllowedModes());
+		result.setCapacity(link.getCapacity());
+		result.setFreespeed(link.getFreespeed());
+		result.setNumberOfLanes(link.getNumberOfLanes());
+		result.setLength(link.getLength());
+		for (Map.Entry<String, Object> attr : link.getAttributes().getAsMap().entrySet()) {
+			result.getAttributes().putAttribute(attr.getKey(), attr.getValue());
+		}
+
+		target.addLink(result);
+	}
 
-		NetworkUtils.writeNetwork(network, outputNetwork.toString());
+	private static Node copyNode(Network target, Node node) {
 
+		Node existing = target.getNodes().get(node.getId());
+		if (existing != null)
+			return existing;
 
-		return 0;
+		Node result = target.getFactory().createNode(node.getId(), node.getCoord());
+		for (Map.Entry<String, Object> attr : node.getAttributes().getAsMap().entrySet()) {
+			result.getAttributes().putAttribute(attr.getKey(), attr.getValue());
+		}
+
+		target.addNode(result);
+		return result;
 	}
 
 	private Network filterNetwork(Network network) {
@@ -289,6 +535,43 @@ public class ScenarioCutOut implements MATSimAppCommand {
 		return carOnlyNetwork;
 	}
 
+	/**
+	 * Route between two nodes and return the link ids of the path, which are empty if there is no path.
+	 */
+	@SuppressWarnings("unchecked")
+	private Id<Link>[] route(Network network, Node fromNode, Node toNode) {
+
+		LeastCostPathCalculator router = createRouter(network);
+		LeastCostPathCalculator.Path path = router.calcLeastCostPath(fromNode, toNode, 0, null, null);
+
+		if (path == null)
+			return new Id[0];
+
+		return path.links.stream().map(Link::getId).toArray(Id[]::new);
+	}
+
+	/**
+	 * Same as the from node of {@link NetworkUtils#getNearestLink(Network, Coord)} on the car network, but using the
+	 * precomputed node index and cached per coordinate.
+	 */
+	private Node nearestLinkFromNode(Coord coord) {
+		return nearestNodeCache.get(coord, c -> {
+			Node nearestNode = carNodes.nearest(c);
+
+			Link nearestLink = null;
+			double shortestDistance = Double.MAX_VALUE;
+			for (Link link : NetworkUtils.getIncidentLinks(nearestNode).values()) {
+				double dist = CoordUtils.distancePointLinesegment(link.getFromNode().getCoord(), link.getToNode().getCoord(), c);
+				if (dist < shortestDistance) {
+					shortestDistance = dist;
+					nearestLink = link;
+				}
+			}
+
+			return nearestLink == null ? nearestNode : nearestLink.getFromNode();
+		});
+	}
+
 	private LeastCostPathCalculator createRouter(Network network) {
 
 		LeastCostPathCalculator c = routerCache.get();
@@ -304,8 +587,88 @@ public class ScenarioCutOut implements MATSimAppCommand {
 
 		return c;
 	}
-}
 
+	/**
+	 * Area to cut out, together with the links and persons determined for it.
+	 *
+	 * @param name          name of the region, null if there is only one
+	 * @param linksToKeep   links within the area
+	 * @param linksToInclude additional links used by relevant persons
+	 */
+	private record Region(String name, AreaClassifier area, Path outputNetwork, Path outputPopulation,
+						  Set<Id<Link>> linksToKeep, Set<Id<Link>> linksToInclude, Set<Id<Person>> persons) {
+
+		static Region create(String name, Geometry geom, Path outputNetwork, Path outputPopulation) {
+			return new Region(name, new AreaClassifier(geom, CELL_SIZE), outputNetwork, outputPopulation,
+					new HashSet<>(), ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet());
+		}
+
+		@Override
+		public String toString() {
+			return name == null ? "area" : name;
+		}
+	}
+
+	/**
+	 * Passes streamed persons in batches to a person algorithm running on multiple threads.
+	 * The number of batches in flight is bounded, so that the reader is blocked if the algorithm can not keep up.
+	 */
+	private static final class ParallelPersonHandler implements PersonAlgorithm, AutoCloseable {
 
+		private static final int BATCH_SIZE = 500;
 
+		private final PersonAlgorithm algorithm;
+		private final ExecutorService executor;
+		private final Semaphore inFlight;
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+		private List<Person> batch = new ArrayList<>(BATCH_SIZE);
 
+		ParallelPersonHandler(int threads, PersonAlgorithm algorithm) {
+			this.algorithm = algorithm;
+			this.executor = Executors.newFixedThreadPool(threads);
+			this.inFlight = new Semaphore(threads * 2);
+		}
+
+		@Override
+		public void run(Person person) {
+			batch.add(person);
+			if (batch.size() >= BATCH_SIZE)
+				submit();
+		}
+
+		private void submit() {
+
+			List<Person> persons = batch;
+			batch = new ArrayList<>(BATCH_SIZE);
+
+			inFlight.acquireUninterruptibly();
+			executor.execute(() -> {
+				try {
+					persons.forEach(algorithm::run);
+				} catch (Throwable t) {
+					error.compareAndSet(null, t);
+				} finally {
+					inFlight.release();
+				}
+			});
+		}
+
+		/**
+		 * Wait until all persons have been processed.
+		 */
+		@Override
+		public void close() throws InterruptedException {
+
+			if (!batch.isEmpty())
+				submit();
+
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.info("Waiting for person handlers to finish");
+			}
+
+			if (error.get() != null)
+				throw new RuntimeException("Error while processing persons", error.get());
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.matsim.prepare.commercial;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.freight.carriers.*;
+import org.matsim.vehicles.VehicleType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Checkpoint of solved carriers, so that an interrupted run can be resumed without solving the same carriers again.
+ * <p>
+ * Each solved carrier is written to its own file. Afterward, a line with the carrier id, the hash of the input of the
+ * carrier (jobs, vehicles, vehicle types and jsprit iterations) and the file name is appended to the manifest. When restoring, a carrier
+ * is only replaced by its checkpoint if its input has the same hash, i.e. carriers with changed demand are solved again.
+ */
+final class CarrierCheckpoint {
+
+	private static final Logger log = LogManager.getLogger(CarrierCheckpoint.class);
+
+	private static final String MANIFEST = "manifest.tsv";
+
+	private final Path directory;
+	private final Path manifest;
+
+	/**
+	 * Latest entry of each carrier in the manifest.
+	 */
+	private final Map<Id<Carrier>, Entry> entries = new HashMap<>();
+
+	CarrierCheckpoint(Path directory) throws IOException {
+		this.directory = directory;
+		this.manifest = directory.resolve(MANIFEST);
+
+		Files.createDirectories(directory);
+		if (Files.exists(manifest)) {
+			String content = Files.readString(manifest, StandardCharsets.UTF_8);
+
+			// the last line might be incomplete if the process was killed while writing it, only complete lines are used
+			for (String line : content.substring(0, content.lastIndexOf('\n') + 1).split("\n")) {
+				String[] parts = line.split("\t");
+				if (parts.length != 3)
+					continue;
+
+				entries.put(Id.create(parts[0], Carrier.class), new Entry(parts[1], parts[2]));
+			}
+		}
+	}
+
+	/**
+	 * Replace carriers, whose input has not changed, by their solved checkpoint.
+	 *
+	 * @return carriers which still need to be solved
+	 */
+	List<Carrier> restore(Carriers carriers, CarrierVehicleTypes vehicleTypes) {
+
+		List<Carrier> restored = carriers.getCarriers().values().parallelStream()
+			.map(carrier -> {
+				Entry entry = entries.get(carrier.getId());
+				if (entry == null || !entry.hash().equals(hash(carrier)) || !Files.exists(directory.resolve(entry.file())))
+					return null;
+
+				Carriers loaded = new Carriers();
+				new CarrierPlanXmlReader(loaded, vehicleTypes).readFile(directory.resolve(entry.file()).toString());
+				Carrier solved = loaded.getCarriers().get(carrier.getId());
+				return solved != null && solved.getSelectedPlan() != null ? solved : null;
+			})
+			.filter(Objects::nonNull)
+			.toList();
+
+		for (Carrier carrier : restored) {
+			carriers.getCarriers().put(carrier.getId(), carrier);
+		}
+
+		List<Carrier> unsolved = carriers.getCarriers().values().stream()
+			.filter(carrier -> carrier.getSelectedPlan() == null)
+			.toList();
+
+		log.info("Restored {} solved carriers from {}, {} carriers need to be solved", restored.size(), directory, unsolved.size());
+		return unsolved;
+	}
+
+	/**
+	 * Write a solved carrier and append it to the manifest. This method can be called by multiple threads.
+	 */
+	void record(Carrier carrier) {
+
+		String hash = hash(carrier);
+		String file = hash + ".xml.gz";
+
+		try {
+			Carriers single = new Carriers();
+			single.addCarrier(carrier);
+
+			// write to a temporary file first, so that the manifest never points to incomplete files
+			Path tmp = Files.createTempFile(directory, "carrier", ".xml.gz");
+			try {
+				CarriersUtils.writeCarriers(single, tmp.toString());
+				Files.move(tmp, directory.resolve(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+
+			synchronized (this) {
+				Files.writeString(manifest, carrier.getId() + "\t" + hash + "\t" + file + "\n", StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				entries.put(carrier.getId(), new Entry(hash, file));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write checkpoint of carrier " + carrier.getId(), e);
+		}
+	}
+
+	/**
+	 * Hash of the input of the vehicle routing problem of a carrier. Plans of the carrier are not considered.
+	 */
+	static String hash(Carrier carrier) {
+
+		StringBuilder str = new StringBuilder();
+		str.append(carrier.getId()).append('|').append(CarriersUtils.getJspritIterations(carrier)).append('\n');
+
+		carrier.getShipments().values().stream()
+			.sorted(Comparator.comparing(CarrierShipment::getId))
+			.forEach(s -> str.append(s.getId()).append('|').append(s.getFrom()).append('|').append(s.getTo()).append('|').append(s.getSize())
+				.append('|').append(s.getPickupServiceTime()).append('|').append(s.getDeliveryServiceTime())
+				.append('|').append(s.getPickupTimeWindow().getStart()).append('|').append(s.getPickupTimeWindow().getEnd())
+				.append('|').append(s.getDeliveryTimeWindow().getStart()).append('|').append(s.getDeliveryTimeWindow().getEnd()).append('\n'));
+
+		carrier.getServices().values().stream()
+			.sorted(Comparator.comparing(CarrierService::getId))
+			.forEach(s -> str.append(s.getId()).append('|').append(s.getLocationLinkId()).append('|').append(s.getCapacityDemand())
+				.append('|').append(s.getServiceDuration())
+				.append('|').append(s.getServiceStartTimeWindow().getStart()).append('|').append(s.getServiceStartTimeWindow().getEnd()).append('\n'));
+
+		carrier.getCarrierCapabilities().getCarrierVehicles().values().stream()
+			.sorted(Comparator.comparing(CarrierVehicle::getId))
+			.forEach(v -> str.append(v.getId()).append('|').append(v.getLinkId()).append('|').append(v.getType().getId())
+				.append('|').append(v.getEarliestStartTime()).append('|').append(v.getLatestEndTime()).append('\n'));
+
+		// vehicle types are read from a separate file, which may change while their ids stay the same
+		carrier.getCarrierCapabilities().getCarrierVehicles().values().stream()
+			.map(CarrierVehicle::getType)
+			.distinct()
+			.sorted(Comparator.comparing(VehicleType::getId))
+			.forEach(t -> str.append(t.getId()).append('|').append(t.getNetworkMode()).append('|').append(t.getMaximumVelocity())
+				.append('|').append(t.getCapacity().getOther()).append('|').append(t.getCapacity().getWeightInTons())
+				.append('|').append(t.getCapacity().getVolumeInCubicMeters())
+				.append('|').append(t.getCostInformation().getFixedCosts()).append('|').append(t.getCostInformation().getCostsPerMeter())
+				.append('|').append(t.getCostInformation().getCostsPerSecond()).append('\n'));
+
+		str.append(carrier.getCarrierCapabilities().getFleetSize());
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(str.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private record Entry(String hash, String file) {
+	}
+}
@@ -0,0 +1,263 @@
+package org.matsim.prepare.commercial;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.freight.carriers.*;
+
+import java.util.*;
+
+/**
+ * Splits carriers with many shipments into spatially compact parts, which are solved independently, and merges the
+ * solutions of the parts back into one plan of the original carrier.
+ * <p>
+ * All shipments of the carriers start (parcel delivery) or end (waste collection) at the depot of the vehicles. The
+ * other locations are sorted by their angle around the depot, starting after the largest gap, and the resulting sweep
+ * is cut into sectors. Each sector, except the last, carries a multiple of the largest vehicle capacity, so that vehicles
+ * are not only partly loaded because of the decomposition. Shipments to the same link are never split.
+ * <p>
+ * Only carriers with an infinite fleet are decomposed, whose vehicles are templates and can be used by all parts at the
+ * same time. The vehicles of a finite fleet would be used more than once.
+ */
+final class CarrierDecomposition {
+
+	private static final Logger log = LogManager.getLogger(CarrierDecomposition.class);
+
+	private final Network network;
+	private final int maxShipments;
+
+	/**
+	 * Parts of each decomposed carrier and the parts which are not solved yet.
+	 */
+	private final Map<Carrier, List<Carrier>> parts = new IdentityHashMap<>();
+	private final Map<Carrier, Carrier> parents = new IdentityHashMap<>();
+	private final Map<Carrier, Integer> unsolved = new IdentityHashMap<>();
+
+	/**
+	 * @param maxShipments carriers with more shipments are decomposed into parts with at most this number of shipments
+	 */
+	CarrierDecomposition(Network network, int maxShipments) {
+		this.network = network;
+		this.maxShipments = maxShipments;
+	}
+
+	/**
+	 * Return the carriers to solve instead of the given ones, i.e. the parts of large carriers and all other carriers unchanged.
+	 */
+	List<Carrier> decompose(Collection<Carrier> carriers) {
+		List<Carrier> result = new ArrayList<>();
+		for (Carrier carrier : carriers) {
+			result.addAll(decompose(carrier));
+		}
+		return result;
+	}
+
+	/**
+	 * Return the parts of a carrier, or the carrier itself if it does not need to be decomposed.
+	 */
+	List<Carrier> decompose(Carrier carrier) {
+
+		if (carrier.getShipments().size() <= maxShipments || !carrier.getServices().isEmpty())
+			return List.of(carrier);
+
+		Set<Id<Link>> depots = new HashSet<>();
+		double capacity = 0;
+		for (CarrierVehicle vehicle : carrier.getCarrierCapabilities().getCarrierVehicles().values()) {
+			depots.add(vehicle.getLinkId());
+			capacity = Math.max(capacity, vehicle.getType().getCapacity().getOther());
+		}
+
+		if (carrier.getCarrierCapabilities().getFleetSize() != CarrierCapabilities.FleetSize.INFINITE) {
+			log.warn("Carrier {} has a finite fleet and is not decomposed", carrier.getId());
+			return List.of(carrier);
+		}
+
+		if (depots.size() != 1) {
+			log.warn("Carrier {} has vehicles at {} depots and is not decomposed", carrier.getId(), depots.size());
+			return List.of(carrier);
+		}
+
+		Id<Link> depot = depots.iterator().next();
+		List<List<CarrierShipment>> sectors = sweep(carrier, depot, capacity);
+		if (sectors == null || sectors.size() <= 1)
+			return List.of(carrier);
+
+		List<Carrier> result = new ArrayList<>();
+		for (List<CarrierShipment> sector : sectors) {
+			Carrier part = CarriersUtils.createCarrier(Id.create(carrier.getId() + "_part" + (result.size() + 1), Carrier.class));
+			CarriersUtils.setJspritIterations(part, CarriersUtils.getJspritIterations(carrier));
+			part.getAttributes().putAttribute("goodsType", carrier.getAttributes().getAttribute("goodsType"));
+
+			CarrierCapabilities capabilities = CarrierCapabilities.Builder.newInstance()
+				.setFleetSize(carrier.getCarrierCapabilities().getFleetSize()).build();
+			capabilities.getCarrierVehicles().putAll(carrier.getCarrierCapabilities().getCarrierVehicles());
+			capabilities.getVehicleTypes().addAll(carrier.getCarrierCapabilities().getVehicleTypes());
+			part.setCarrierCapabilities(capabilities);
+
+			for (CarrierShipment shipment : sector) {
+				part.getShipments().put(shipment.getId(), shipment);
+			}
+
+			result.add(part);
+		}
+
+		synchronized (this) {
+			parts.put(carrier, result);
+			unsolved.put(carrier, result.size());
+			result.forEach(part -> parents.put(part, carrier));
+		}
+
+		log.info("Decomposed carrier {} with {} shipments into {} parts", carrier.getId(), carrier.getShipments().size(), result.size());
+		return result;
+	}
+
+	/**
+	 * Notify that a carrier returned by {@link #decompose(Carrier)} has been solved. This method can be called by multiple threads.
+	 *
+	 * @return the carrier which is solved completely, i.e. the carrier itself, or the original carrier once all of its parts
+	 * are solved and merged. Otherwise, null.
+	 */
+	Carrier solved(Carrier carrier) {
+
+		Carrier parent;
+		List<Carrier> solvedParts;
+		synchronized (this) {
+			parent = parents.get(carrier);
+			if (parent == null)
+				return carrier;
+
+			int remaining = unsolved.merge(parent, -1, Integer::sum);
+			if (remaining > 0)
+				return null;
+
+			unsolved.remove(parent);
+			solvedParts = parts.get(parent);
+		}
+
+		merge(parent, solvedParts);
+		return parent;
+	}
+
+	/**
+	 * Combine the tours of the selected plans of all parts into one plan of the carrier.
+	 */
+	static void merge(Carrier carrier, List<Carrier> parts) {
+
+		List<ScheduledTour> tours = new ArrayList<>();
+		double score = 0;
+		for (Carrier part : parts) {
+			CarrierPlan plan = part.getSelectedPlan();
+			if (plan.getScore() != null)
+				score += plan.getScore();
+
+			for (ScheduledTour tour : plan.getScheduledTours()) {
+				// tour ids are only unique within a part
+				Tour copy = copy(tour.getTour(), Id.create(tours.size() + 1, Tour.class));
+				tours.add(ScheduledTour.newInstance(copy, tour.getVehicle(), tour.getDeparture()));
+			}
+		}
+
+		CarrierPlan plan = new CarrierPlan(tours);
+		plan.setScore(score);
+		carrier.addPlan(plan);
+		carrier.setSelectedPlan(plan);
+	}
+
+	private static Tour copy(Tour tour, Id<Tour> id) {
+		Tour.Builder builder = Tour.Builder.newInstance(id);
+		builder.scheduleStart(tour.getStart().getLocation());
+		for (Tour.TourElement element : tour.getTourElements()) {
+			if (element instanceof Tour.Leg leg) {
+				builder.addLeg(leg);
+			} else if (element instanceof Tour.Pickup pickup) {
+				builder.schedulePickup(pickup.getShipment());
+			} else if (element instanceof Tour.Delivery delivery) {
+				builder.scheduleDelivery(delivery.getShipment());
+			} else if (element instanceof Tour.ServiceActivity service) {
+				builder.scheduleService(service.getService());
+			}
+		}
+		builder.scheduleEnd(tour.getEnd().getLocation());
+		return builder.build();
+	}
+
+	/**
+	 * Cut the shipments of a carrier into sectors around the depot.
+	 *
+	 * @return sectors, or null if the shipments neither start nor end at the depot
+	 */
+	private List<List<CarrierShipment>> sweep(Carrier carrier, Id<Link> depot, double capacity) {
+
+		// shipments are grouped by their location other than the depot
+		Map<Id<Link>, List<CarrierShipment>> byLocation = new LinkedHashMap<>();
+		for (CarrierShipment shipment : carrier.getShipments().values()) {
+			Id<Link> location;
+			if (shipment.getFrom().equals(depot))
+				location = shipment.getTo();
+			else if (shipment.getTo().equals(depot))
+				location = shipment.getFrom();
+			else
+				return null;
+
+			byLocation.computeIfAbsent(location, k -> new ArrayList<>()).add(shipment);
+		}
+
+		Coord center = network.getLinks().get(depot).getCoord();
+		List<Id<Link>> locations = new ArrayList<>(byLocation.keySet());
+		Map<Id<Link>, Double> angles = new HashMap<>();
+		for (Id<Link> location : locations) {
+			Coord coord = network.getLinks().get(location).getCoord();
+			angles.put(location, Math.atan2(coord.getY() - center.getY(), coord.getX() - center.getX()));
+		}
+		locations.sort(Comparator.comparingDouble((Id<Link> l) -> angles.get(l)).thenComparing(Comparator.naturalOrder()));
+
+		// start after the largest gap, so that a cluster of locations is not cut at -pi
+		int start = 0;
+		double largestGap = -1;
+		for (int i = 0; i < locations.size(); i++) {
+			double prev = angles.get(locations.get((i + locations.size() - 1) % locations.size()));
+			double gap = angles.get(locations.get(i)) - prev;
+			if (gap <= 0)
+				gap += 2 * Math.PI;
+			if (gap > largestGap) {
+				largestGap = gap;
+				start = i;
+			}
+		}
+		Collections.rotate(locations, -start);
+
+		int total = carrier.getShipments().size();
+		int numberOfParts = (total + maxShipments - 1) / maxShipments;
+		double totalDemand = carrier.getShipments().values().stream().mapToDouble(CarrierShipment::getSize).sum();
+
+		// demand of each sector is rounded up to full vehicles
+		double targetDemand = totalDemand / numberOfParts;
+		if (capacity > 0)
+			targetDemand = Math.ceil(targetDemand / capacity) * capacity;
+
+		List<List<CarrierShipment>> sectors = new ArrayList<>();
+		List<CarrierShipment> current = new ArrayList<>();
+		double demand = 0;
+		for (Id<Link> location : locations) {
+			List<CarrierShipment> shipments = byLocation.get(location);
+			double locationDemand = shipments.stream().mapToDouble(CarrierShipment::getSize).sum();
+
+			if (!current.isEmpty() && (demand + locationDemand > targetDemand || current.size() + shipments.size() > maxShipments)) {
+				sectors.add(current);
+				current = new ArrayList<>();
+				demand = 0;
+			}
+
+			current.addAll(shipments);
+			demand += locationDemand;
+		}
+
+		if (!current.isEmpty())
+			sectors.add(current);
+
+		return sectors;
+	}
+}
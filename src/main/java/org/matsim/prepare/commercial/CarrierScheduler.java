@@ -0,0 +1,200 @@
+package org.matsim.prepare.commercial;
+
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.util.Solutions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.freight.carriers.Carrier;
+import org.matsim.freight.carriers.CarrierPlan;
+import org.matsim.freight.carriers.CarriersUtils;
+import org.matsim.freight.carriers.FreightCarriersConfigGroup;
+import org.matsim.freight.carriers.jsprit.MatsimJspritFactory;
+import org.matsim.freight.carriers.jsprit.NetworkBasedTransportCosts;
+import org.matsim.freight.carriers.jsprit.NetworkRouter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Solves the vehicle routing problems of the carriers of multiple scenarios with jsprit in one work stealing pool.
+ * <p>
+ * The carriers are independent of each other, but their problems differ a lot in size. They are therefore submitted in
+ * descending order of their estimated size (jobs &times; vehicles), so that large carriers start first and small ones
+ * fill the remaining threads.
+ * <p>
+ * If a {@link LinkCostMatrix} is given, jsprit looks up the costs of carriers on its network in the matrix, which is
+ * shared by all carriers, unless they have too many locations. The final plans are still routed with the network based
+ * transport costs.
+ */
+final class CarrierScheduler {
+
+	private static final Logger log = LogManager.getLogger(CarrierScheduler.class);
+
+	private final int threads;
+	private final LinkCostMatrix matrix;
+	private final List<Task> tasks = new ArrayList<>();
+
+	/**
+	 * @param threads number of carriers solved at the same time
+	 */
+	CarrierScheduler(int threads) {
+		this(threads, null);
+	}
+
+	/**
+	 * @param threads number of carriers solved at the same time
+	 * @param matrix  shared costs between the locations of the carriers, may be null
+	 */
+	CarrierScheduler(int threads, LinkCostMatrix matrix) {
+		this.threads = threads;
+		this.matrix = matrix;
+	}
+
+	/**
+	 * Add all carriers of a scenario to be solved. Vehicle types of the scenario must not change afterward.
+	 */
+	void addCarriers(Scenario scenario) {
+		addCarriers(scenario, CarriersUtils.getCarriers(scenario).getCarriers().values());
+	}
+
+	/**
+	 * Add some carriers of a scenario to be solved.
+	 */
+	void addCarriers(Scenario scenario, Collection<Carrier> carriers) {
+
+		if (carriers.isEmpty())
+			return;
+
+		NetworkBasedTransportCosts netBasedCosts = NetworkBasedTransportCosts.Builder.newInstance(
+			scenario.getNetwork(), CarriersUtils.getCarrierVehicleTypes(scenario).getVehicleTypes().values()).build();
+
+		for (Carrier carrier : carriers) {
+			// fail before any carrier is solved
+			getJspritIterations(carrier);
+			tasks.add(new Task(scenario, carrier, netBasedCosts, estimateSize(carrier)));
+		}
+	}
+
+	/**
+	 * Number of jsprit iterations of a carrier, which must be set and positive, as in {@link CarriersUtils#runJsprit}.
+	 */
+	static int getJspritIterations(Carrier carrier) {
+
+		int iterations;
+		try {
+			iterations = CarriersUtils.getJspritIterations(carrier);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Carrier has no number of jsprit iterations. Carrier id: " + carrier.getId(), e);
+		}
+
+		if (iterations <= 0)
+			throw new IllegalArgumentException("Carrier has invalid number of jsprit iterations. They must be positive! Carrier id: " + carrier.getId());
+
+		return iterations;
+	}
+
+	/**
+	 * Estimated size of the vehicle routing problem of a carrier.
+	 */
+	static long estimateSize(Carrier carrier) {
+		int jobs = carrier.getShipments().size() + carrier.getServices().size();
+		int vehicles = carrier.getCarrierCapabilities().getCarrierVehicles().size();
+		return (long) jobs * Math.max(1, vehicles);
+	}
+
+	/**
+	 * Solve all added carriers and select the solution as their plan.
+	 */
+	void run() throws ExecutionException, InterruptedException {
+		run(carrier -> {
+		});
+	}
+
+	/**
+	 * Solve all added carriers and select the solution as their plan.
+	 *
+	 * @param onSolved called for each carrier after it has been solved, from the thread that solved it
+	 */
+	void run(Consumer<Carrier> onSolved) throws ExecutionException, InterruptedException {
+
+		tasks.sort(Comparator.comparingLong(Task::size).reversed());
+
+		log.info("Solving {} carriers with {} threads", tasks.size(), threads);
+		long start = System.currentTimeMillis();
+
+		AtomicInteger solved = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Task task : tasks) {
+				futures.add(pool.submit(() -> {
+					solve(task, solved);
+					onSolved.accept(task.carrier());
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		log.info("Solved {} carriers in {} s", tasks.size(), (System.currentTimeMillis() - start) / 1000);
+		tasks.clear();
+	}
+
+	private void solve(Task task, AtomicInteger solved) {
+
+		Carrier carrier = task.carrier();
+		long start = System.currentTimeMillis();
+
+		VehicleRoutingTransportCosts costs = task.costs();
+		if (matrix != null && matrix.getNetwork() == task.scenario().getNetwork()) {
+			if (MatrixTransportCosts.isApplicable(carrier)) {
+				MatrixTransportCosts matrixCosts = new MatrixTransportCosts(matrix, carrier, task.costs());
+				if (matrixCosts.isComplete())
+					costs = matrixCosts;
+				else
+					log.info("Cost matrix is full, carrier {} uses network based costs", carrier.getId());
+			} else
+				log.info("Carrier {} has too many locations for the cost matrix, using network based costs", carrier.getId());
+		}
+
+		VehicleRoutingProblem problem = MatsimJspritFactory.createRoutingProblemBuilder(carrier, task.scenario().getNetwork())
+			.setRoutingCost(costs)
+			.build();
+
+		FreightCarriersConfigGroup freightConfig = ConfigUtils.addOrGetModule(task.scenario().getConfig(), FreightCarriersConfigGroup.class);
+		VehicleRoutingAlgorithm algorithm = MatsimJspritFactory.loadOrCreateVehicleRoutingAlgorithm(task.scenario(), freightConfig, task.costs(), problem);
+		algorithm.setMaxIterations(getJspritIterations(carrier));
+
+		VehicleRoutingProblemSolution solution = Solutions.bestOf(algorithm.searchSolutions());
+
+		CarrierPlan plan = MatsimJspritFactory.createPlan(carrier, solution);
+		NetworkRouter.routePlan(plan, task.costs());
+		carrier.addPlan(plan);
+		carrier.setSelectedPlan(plan);
+
+		double seconds = (System.currentTimeMillis() - start) / 1000.;
+		CarriersUtils.setJspritComputationTime(carrier, seconds);
+
+		log.info("Solved carrier {} with estimated size {} in {} s ({} of {})", carrier.getId(), task.size(),
+			seconds, solved.incrementAndGet(), tasks.size());
+	}
+
+	private record Task(Scenario scenario, Carrier carrier, NetworkBasedTransportCosts costs, long size) {
+	}
+}
@@ -95,22 +95,22 @@ public class CommercialTrafficUtils {
         return person.getAttributes().getAttribute("destination_cell").toString();
     }
     public static double getOriginX(Person person) {
-        return Double.parseDouble(person.getAttributes().getAttribute("origin_x").toString());
+        return getDouble(person, "origin_x");
     }
     public static double getOriginY(Person person) {
-        return Double.parseDouble(person.getAttributes().getAttribute("origin_y").toString());
+        return getDouble(person, "origin_y");
     }
     public static double getDestinationX(Person person) {
-        return Double.parseDouble(person.getAttributes().getAttribute("destination_x").toString());
+        return getDouble(person, "destination_x");
     }
     public static double getDestinationY(Person person) {
-        return Double.parseDouble(person.getAttributes().getAttribute("destination_y").toString());
+        return getDouble(person, "destination_y");
     }
     public static int getGoodsType(Person person) {
         return Integer.parseInt(person.getAttributes().getAttribute("goods_type").toString());
     }
     public static double getTonsPerYear(Person person) {
-        return Double.parseDouble(person.getAttributes().getAttribute("tons_per_year").toString());
+        return getDouble(person, "tons_per_year");
     }
     public static String getOriginLocationId(Person person) {
         return person.getAttributes().getAttribute("origin_locationId").toString();
@@ -122,9 +122,19 @@ public class CommercialTrafficUtils {
         return person.getAttributes().getAttribute("parcelOperator").toString();
     }
     public static int getParcelsPerYear(Person person) {
-        return (int)(Double.parseDouble(person.getAttributes().getAttribute("parcelsPerYear").toString()));
+        return (int) getDouble(person, "parcelsPerYear");
     }
     public static String getParcelHubId(Person person) {
         return person.getAttributes().getAttribute("parcelHubId").toString();
     }
+
+    /**
+     * Numeric attributes are stored as numbers by {@link #writeCommonAttributes}, so they only need to be parsed if they are text.
+     */
+    private static double getDouble(Person person, String attribute) {
+        Object value = person.getAttributes().getAttribute(attribute);
+        if (value instanceof Number number)
+            return number.doubleValue();
+        return Double.parseDouble(value.toString());
+    }
 }
@@ -0,0 +1,303 @@
+package org.matsim.prepare.commercial;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PopulationFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact storage of {@link RvrTripRelation}s with one array per attribute. Text attributes like cells and location ids
+ * are stored as codes of a dictionary, because only a few distinct values are repeated for millions of relations.
+ * <p>
+ * The store can be written to and read from a binary file, which replaces the population of freight data as input of
+ * the freight plan generators. Persons with the attributes of {@link CommercialTrafficUtils#writeCommonAttributes} are
+ * only created for the relations that are actually used.
+ */
+public final class FreightRelationStore {
+
+	/**
+	 * File ending of stored relations.
+	 */
+	public static final String FILE_ENDING = ".bin.gz";
+
+	private static final int MAGIC = 0x46524c53;
+
+	/**
+	 * Needs to be increased whenever the format changes.
+	 */
+	private static final int VERSION = 1;
+
+	private int size;
+
+	private final StringColumn originCell = new StringColumn();
+	private final StringColumn originLocationId = new StringColumn();
+	private final StringColumn destinationCell = new StringColumn();
+	private final StringColumn destinationLocationId = new StringColumn();
+	private final StringColumn transportType = new StringColumn();
+	private final StringColumn goodsType = new StringColumn();
+	private final StringColumn parcelOperator = new StringColumn();
+	private final StringColumn parcelHubId = new StringColumn();
+
+	private final DoubleColumn tonsPerYear = new DoubleColumn();
+	private final DoubleColumn originX = new DoubleColumn();
+	private final DoubleColumn originY = new DoubleColumn();
+	private final DoubleColumn destinationX = new DoubleColumn();
+	private final DoubleColumn destinationY = new DoubleColumn();
+	private final DoubleColumn parcelsPerYear = new DoubleColumn();
+
+	public static FreightRelationStore of(Collection<RvrTripRelation> relations) {
+		FreightRelationStore store = new FreightRelationStore();
+		relations.forEach(store::add);
+		return store;
+	}
+
+	public static boolean isStoreFile(String path) {
+		return path.endsWith(FILE_ENDING);
+	}
+
+	public void add(RvrTripRelation relation) {
+		originCell.add(size, relation.getOriginCell());
+		originLocationId.add(size, relation.getOriginLocationId());
+		destinationCell.add(size, relation.getDestinationCell());
+		destinationLocationId.add(size, relation.getDestinationLocationId());
+		transportType.add(size, relation.getTransportType());
+		goodsType.add(size, relation.getGoodsType());
+		parcelOperator.add(size, relation.getParcelOperator());
+		parcelHubId.add(size, relation.getParcelHubId());
+
+		tonsPerYear.add(size, relation.getTonsPerYear());
+		originX.add(size, relation.getOriginX());
+		originY.add(size, relation.getOriginY());
+		destinationX.add(size, relation.getDestinationX());
+		destinationY.add(size, relation.getDestinationY());
+		parcelsPerYear.add(size, relation.getParcelsPerYear());
+
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getOriginCell(int index) {
+		return originCell.get(index);
+	}
+
+	public String getOriginLocationId(int index) {
+		return originLocationId.get(index);
+	}
+
+	public String getDestinationCell(int index) {
+		return destinationCell.get(index);
+	}
+
+	public String getDestinationLocationId(int index) {
+		return destinationLocationId.get(index);
+	}
+
+	public String getTransportType(int index) {
+		return transportType.get(index);
+	}
+
+	/**
+	 * Goods type as number. The text is only parsed once per distinct value.
+	 */
+	public int getGoodsType(int index) {
+		return goodsType.getAsInt(index);
+	}
+
+	public String getParcelOperator(int index) {
+		return parcelOperator.get(index);
+	}
+
+	public String getParcelHubId(int index) {
+		return parcelHubId.get(index);
+	}
+
+	public double getTonsPerYear(int index) {
+		return tonsPerYear.get(index);
+	}
+
+	public double getOriginX(int index) {
+		return originX.get(index);
+	}
+
+	public double getOriginY(int index) {
+		return originY.get(index);
+	}
+
+	public double getDestinationX(int index) {
+		return destinationX.get(index);
+	}
+
+	public double getDestinationY(int index) {
+		return destinationY.get(index);
+	}
+
+	public double getParcelsPerYear(int index) {
+		return parcelsPerYear.get(index);
+	}
+
+	public RvrTripRelation get(int index) {
+		return new RvrTripRelation.Builder()
+			.originCell(getOriginCell(index)).originLocationId(getOriginLocationId(index))
+			.destinationCell(getDestinationCell(index)).destinationLocationId(getDestinationLocationId(index))
+			.transportType(getTransportType(index)).goodsType(goodsType.get(index)).tonsPerYear(getTonsPerYear(index))
+			.originX(getOriginX(index)).originY(getOriginY(index)).destinationX(getDestinationX(index)).destinationY(getDestinationY(index))
+			.parcelsPerYear(getParcelsPerYear(index)).parcelOperator(getParcelOperator(index)).parcelHubId(getParcelHubId(index))
+			.build();
+	}
+
+	/**
+	 * Create the person of a relation, as it is contained in the population of freight data.
+	 */
+	public Person createPerson(int index, PopulationFactory factory) {
+		Person person = factory.createPerson(Id.createPersonId("freightData_" + index));
+		CommercialTrafficUtils.writeCommonAttributes(person, get(index), Integer.toString(index));
+		return person;
+	}
+
+	public void write(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+
+			for (StringColumn column : stringColumns()) {
+				column.write(out, size);
+			}
+			for (DoubleColumn column : doubleColumns()) {
+				column.write(out, size);
+			}
+		}
+	}
+
+	public static FreightRelationStore read(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a file of freight relations: " + path);
+
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version " + version + " of freight relations: " + path);
+
+			FreightRelationStore store = new FreightRelationStore();
+			store.size = in.readInt();
+
+			for (StringColumn column : store.stringColumns()) {
+				column.read(in, store.size);
+			}
+			for (DoubleColumn column : store.doubleColumns()) {
+				column.read(in, store.size);
+			}
+
+			return store;
+		}
+	}
+
+	private List<StringColumn> stringColumns() {
+		return List.of(originCell, originLocationId, destinationCell, destinationLocationId, transportType, goodsType, parcelOperator, parcelHubId);
+	}
+
+	private List<DoubleColumn> doubleColumns() {
+		return List.of(tonsPerYear, originX, originY, destinationX, destinationY, parcelsPerYear);
+	}
+
+	/**
+	 * Dictionary encoded text attribute. Null values have the code -1.
+	 */
+	private static final class StringColumn {
+
+		private final List<String> dictionary = new ArrayList<>();
+		private final Map<String, Integer> codes = new HashMap<>();
+		private volatile int[] parsed;
+		private int[] data = new int[1024];
+
+		void add(int index, String value) {
+			if (index == data.length)
+				data = Arrays.copyOf(data, data.length * 2);
+
+			data[index] = value == null ? -1 : codes.computeIfAbsent(value, v -> {
+				dictionary.add(v);
+				return dictionary.size() - 1;
+			});
+			parsed = null;
+		}
+
+		String get(int index) {
+			int code = data[index];
+			return code < 0 ? null : dictionary.get(code);
+		}
+
+		int getAsInt(int index) {
+			if (parsed == null) {
+				int[] p = new int[dictionary.size()];
+				for (int i = 0; i < p.length; i++) {
+					p[i] = Integer.parseInt(dictionary.get(i));
+				}
+				parsed = p;
+			}
+
+			return parsed[data[index]];
+		}
+
+		void write(DataOutputStream out, int size) throws IOException {
+			out.writeInt(dictionary.size());
+			for (String value : dictionary) {
+				out.writeUTF(value);
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(data[i]);
+			}
+		}
+
+		void read(DataInputStream in, int size) throws IOException {
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String value = in.readUTF();
+				codes.put(value, dictionary.size());
+				dictionary.add(value);
+			}
+
+			data = new int[Math.max(size, 1)];
+			for (int i = 0; i < size; i++) {
+				data[i] = in.readInt();
+			}
+		}
+	}
+
+	private static final class DoubleColumn {
+
+		private double[] data = new double[1024];
+
+		void add(int index, double value) {
+			if (index == data.length)
+				data = Arrays.copyOf(data, data.length * 2);
+
+			data[index] = value;
+		}
+
+		double get(int index) {
+			return data[index];
+		}
+
+		void write(DataOutputStream out, int size) throws IOException {
+			for (int i = 0; i < size; i++) {
+				out.writeDouble(data[i]);
+			}
+		}
+
+		void read(DataInputStream in, int size) throws IOException {
+			data = new double[Math.max(size, 1)];
+			for (int i = 0; i < size; i++) {
+				data[i] = in.readDouble();
+			}
+		}
+	}
+}
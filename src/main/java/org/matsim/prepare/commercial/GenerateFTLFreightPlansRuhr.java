@@ -19,7 +19,7 @@ import java.util.List;
 public class GenerateFTLFreightPlansRuhr implements MATSimAppCommand {
     private static final Logger log = LogManager.getLogger(GenerateFTLFreightPlansRuhr.class);
 
-    @CommandLine.Option(names = "--data", description = "Path to generated freight data",
+    @CommandLine.Option(names = "--data", description = "Path to generated freight data, either a population or stored freight relations (*.bin.gz)",
             defaultValue = "scenarios/metropole-ruhr-v2.0/input/commercialTraffic/ruhr_freightData_100pct.xml.gz")
     private String dataPath;
 
@@ -51,22 +51,36 @@ public class GenerateFTLFreightPlansRuhr implements MATSimAppCommand {
         log.info("Freight agent generator for FTL trips successfully created!");
 
         log.info("Reading freight data...");
-        Population inputFreightDemandData = PopulationUtils.readPopulation(dataPath);
-        log.info("Freight data successfully loaded. There are {} trip relations", inputFreightDemandData.getPersons().size());
-
-        log.info("Start generating population...");
         Population outputPopulation = PopulationUtils.createPopulation(ConfigUtils.createConfig());
 
-        int i = 0;
-        for (Person freightDemandDataRelation : inputFreightDemandData.getPersons().values()) {
-            if (i % 500000 == 0) {
-                log.info("Processing: {} out of {} entries have been processed", i, inputFreightDemandData.getPersons().size());
+        if (FreightRelationStore.isStoreFile(dataPath)) {
+            FreightRelationStore relations = FreightRelationStore.read(Path.of(dataPath));
+            log.info("Freight data successfully loaded. There are {} trip relations", relations.size());
+
+            log.info("Start generating population...");
+            // persons are only created for the FTL relations
+            for (int i = 0; i < relations.size(); i++) {
+                if (i % 500000 == 0) {
+                    log.info("Processing: {} out of {} entries have been processed", i, relations.size());
+                }
+                if (isFTLTrip(relations.getTransportType(i))) {
+                    createPLansForFTLTrips(relations.createPerson(i, outputPopulation.getFactory()), freightAgentGeneratorFTL, outputPopulation);
+                }
             }
-            i++;
-            if (CommercialTrafficUtils.getTransportType(freightDemandDataRelation).equals(
-                    CommercialTrafficUtils.TransportType.FTL.toString()) || CommercialTrafficUtils.getTransportType(freightDemandDataRelation).equals(
-                    CommercialTrafficUtils.TransportType.FTL_kv.toString())) {
-                createPLansForFTLTrips(freightDemandDataRelation, freightAgentGeneratorFTL, outputPopulation);
+        } else {
+            Population inputFreightDemandData = PopulationUtils.readPopulation(dataPath);
+            log.info("Freight data successfully loaded. There are {} trip relations", inputFreightDemandData.getPersons().size());
+
+            log.info("Start generating population...");
+            int i = 0;
+            for (Person freightDemandDataRelation : inputFreightDemandData.getPersons().values()) {
+                if (i % 500000 == 0) {
+                    log.info("Processing: {} out of {} entries have been processed", i, inputFreightDemandData.getPersons().size());
+                }
+                i++;
+                if (isFTLTrip(CommercialTrafficUtils.getTransportType(freightDemandDataRelation))) {
+                    createPLansForFTLTrips(freightDemandDataRelation, freightAgentGeneratorFTL, outputPopulation);
+                }
             }
         }
 
@@ -111,6 +125,11 @@ public class GenerateFTLFreightPlansRuhr implements MATSimAppCommand {
         return 0;
     }
 
+    private static boolean isFTLTrip(String transportType) {
+        return transportType.equals(CommercialTrafficUtils.TransportType.FTL.toString()) || transportType.equals(
+                CommercialTrafficUtils.TransportType.FTL_kv.toString());
+    }
+
     /**
      * Creates plans for FTL trips.
      */
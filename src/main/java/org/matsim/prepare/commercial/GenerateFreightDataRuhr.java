@@ -72,6 +72,9 @@ public class GenerateFreightDataRuhr implements MATSimAppCommand {
     @CommandLine.Option(names = "--nameOutputDataFile", defaultValue = "ruhr_freightData_100pct.xml.gz", description = "Name of the output data file")
     private String nameOutputDataFile;
 
+    @CommandLine.Option(names = "--nameOutputRelationsFile", defaultValue = "ruhr_freightData_100pct.bin.gz", description = "Name of the output file with the stored freight relations, which can be used as input of the freight plan generators instead of the data file")
+    private String nameOutputRelationsFile;
+
     @CommandLine.Option(names = "--shpCells", description = "Path to shapefile with the cells vp2040", defaultValue = "../shared-svn/projects/rvr-metropole-ruhr/data/shapeFiles/cells_vp2040/cells_vp2040.shp")
     private Path shpCells;
 
@@ -92,6 +95,13 @@ public class GenerateFreightDataRuhr implements MATSimAppCommand {
                 coordinateTransformation, indexZones);
         log.info("Trip relations successfully loaded. There are {} trip relations", tripRelations.size());
 
+        if (!Files.exists(output)) {
+            Files.createDirectory(output);
+        }
+
+        // the typed relations are read much faster by the freight plan generators than the population
+        FreightRelationStore.of(tripRelations).write(output.resolve(nameOutputRelationsFile));
+
         log.info("Start generating population...");
         Population outputPopulation = PopulationUtils.createPopulation(ConfigUtils.createConfig());
         PopulationFactory populationFactory = PopulationUtils.getFactory();
@@ -105,10 +115,6 @@ public class GenerateFreightDataRuhr implements MATSimAppCommand {
             }
         }
 
-        if (!Files.exists(output)) {
-            Files.createDirectory(output);
-        }
-
         String outputPlansPath = output.resolve(nameOutputDataFile).toString();
         PopulationWriter populationWriter = new PopulationWriter(outputPopulation);
         populationWriter.write(outputPlansPath);
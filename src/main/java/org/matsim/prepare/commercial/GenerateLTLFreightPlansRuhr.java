@@ -7,13 +7,16 @@ import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.MutableScenario;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.io.IOUtils;
+import org.matsim.freight.carriers.Carrier;
 import org.matsim.freight.carriers.CarrierVehicleTypeReader;
 import org.matsim.freight.carriers.CarrierVehicleTypes;
 import org.matsim.freight.carriers.CarriersUtils;
@@ -25,14 +28,23 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
 
 public class GenerateLTLFreightPlansRuhr implements MATSimAppCommand {
 	private static final Logger log = LogManager.getLogger(GenerateLTLFreightPlansRuhr.class);
 
-	@CommandLine.Option(names = "--data", description = "Path to generated freight data",
+	/**
+	 * Minimum time in milliseconds between writes of the cost matrix while carriers are solved.
+	 */
+	private static final long COST_MATRIX_WRITE_INTERVAL = 15 * 60 * 1000;
+
+	@CommandLine.Option(names = "--data", description = "Path to generated freight data, either a population or stored freight relations (*.bin.gz)",
 		defaultValue = "scenarios/metropole-ruhr-v2.0/input/commercialTraffic/ruhr_freightData_100pct.xml.gz")
 	private String dataPath;
 
@@ -60,6 +72,18 @@ public class GenerateLTLFreightPlansRuhr implements MATSimAppCommand {
 	@CommandLine.Option(names = "--jsprit-iterations-for-LTL", defaultValue = "100", description = "Number of iterations for jsprit for solving the LTL vehicle routing problems", required = true)
 	private int jspritIterationsForLTL;
 
+	@CommandLine.Option(names = "--jsprit-threads", description = "Number of carriers solved by jsprit at the same time. Default is the number of available processors")
+	private int jspritThreads = Runtime.getRuntime().availableProcessors();
+
+	@CommandLine.Option(names = "--max-shipments-per-parcel-carrier", defaultValue = "0", description = "Parcel carriers with more shipments are decomposed into spatially compact parts, which are solved independently. 0 disables the decomposition")
+	private int maxShipmentsPerParcelCarrier;
+
+	@CommandLine.Option(names = "--cost-matrix", description = "Directory where travel times and distances between carrier locations are stored between runs. Default is a folder in the carrier output")
+	private Path costMatrixPath;
+
+	@CommandLine.Option(names = "--cost-matrix-max-entries", defaultValue = "100000000", description = "Maximum number of pairs in the cost matrix, each takes up to 40 bytes. Carriers exceeding it use network based costs")
+	private long costMatrixMaxEntries;
+
 	@Override
 	public Integer call() throws Exception {
 
@@ -69,13 +93,21 @@ public class GenerateLTLFreightPlansRuhr implements MATSimAppCommand {
 		log.info("Freight agent generator for FTL trips successfully created!");
 
 		log.info("Reading freight data...");
-		Population inputFreightDemandData = PopulationUtils.readPopulation(dataPath);
-		log.info("Freight data successfully loaded. There are {} trip relations", inputFreightDemandData.getPersons().size());
+		ObjIntConsumer<Scenario> createCarriers;
+		if (FreightRelationStore.isStoreFile(dataPath)) {
+			FreightRelationStore relations = FreightRelationStore.read(Path.of(dataPath));
+			log.info("Freight data successfully loaded. There are {} trip relations", relations.size());
+			createCarriers = (scenario, goodsType) -> freightAgentGeneratorLTL.createCarriersForLTL(relations, scenario, jspritIterationsForLTL, goodsType);
+		} else {
+			Population inputFreightDemandData = PopulationUtils.readPopulation(dataPath);
+			log.info("Freight data successfully loaded. There are {} trip relations", inputFreightDemandData.getPersons().size());
+			createCarriers = (scenario, goodsType) -> freightAgentGeneratorLTL.createCarriersForLTL(inputFreightDemandData, scenario, jspritIterationsForLTL, goodsType);
+		}
 
 		log.info("Start generating population...");
 		Population outputPopulation = PopulationUtils.createPopulation(ConfigUtils.createConfig());
 
-		createPLansForLTLTrips(inputFreightDemandData, freightAgentGeneratorLTL, outputPopulation, jspritIterationsForLTL);
+		createPLansForLTLTrips(createCarriers, outputPopulation);
 
 		if (!Files.exists(output)) {
 			Files.createDirectory(output);
@@ -120,10 +152,11 @@ public class GenerateLTLFreightPlansRuhr implements MATSimAppCommand {
 
 	/**
 	 * Creates plans for LTL trips. Therefore, multiple carriers are created to solve the resulted vehicle routing problem.
+	 *
+	 * @param createCarriers creates the carriers of a goods type in a scenario
 	 */
-	private void createPLansForLTLTrips(Population inputFreightDemandData, LTLFreightAgentGeneratorRuhr freightAgentGeneratorLTL,
-										Population outputPopulation,
-										int jspritIterationsForLTL) throws ExecutionException, InterruptedException, IOException {
+	private void createPLansForLTLTrips(ObjIntConsumer<Scenario> createCarriers, Population outputPopulation)
+		throws ExecutionException, InterruptedException, IOException {
 
 		enum CarrierType {
 			REST, WASTE, PARCEL
@@ -151,6 +184,21 @@ public class GenerateLTLFreightPlansRuhr implements MATSimAppCommand {
 //		Path carrierFile_noSolution = outputFolderCarriers.resolve("output_LTLcarriersNoSolution.xml.gz");
 //		Path carrierFile_withSolution = outputFolderCarriers.resolve("output_LTLcarriersWithSolution.xml.gz");
 
+		// the network is shared by the scenarios of all carrier types
+		Network network = ScenarioUtils.loadScenario(config).getNetwork();
+
+		// costs between locations are shared, because the same depots and delivery links are used by many carriers
+		Path costMatrixDir = costMatrixPath != null ? costMatrixPath : outputFolderCarriers.resolve("costMatrix");
+		LinkCostMatrix costMatrix = new LinkCostMatrix(network, costMatrixMaxEntries);
+		costMatrix.read(costMatrixDir);
+
+		// carriers of all types are solved together, because carriers of one type may take much longer than others
+		CarrierScheduler scheduler = new CarrierScheduler(jspritThreads, costMatrix);
+		Map<CarrierType, Scenario> scenarios = new EnumMap<>(CarrierType.class);
+		Map<CarrierType, Path> unsolved = new EnumMap<>(CarrierType.class);
+		Map<Carrier, CarrierCheckpoint> checkpoints = new IdentityHashMap<>();
+		CarrierDecomposition decomposition = new CarrierDecomposition(network, maxShipmentsPerParcelCarrier > 0 ? maxShipmentsPerParcelCarrier : Integer.MAX_VALUE);
+
 		for (CarrierType carrierType : CarrierType.values()) {
 			carrierFile_noSolution = switch (carrierType) {
 				case REST -> carrierVRPFileLTL_Rest;
@@ -163,45 +211,84 @@ public class GenerateLTLFreightPlansRuhr implements MATSimAppCommand {
 				case PARCEL -> carrierVRPFile_Rest_Parcel;
 			};
 
-			Scenario scenario;
+			MutableScenario scenario = ScenarioUtils.createMutableScenario(config);
+			scenario.setNetwork(network);
 			if (Files.exists(carrierFile_withSolution)) {
 				log.warn("Using existing carrier VRP file with solution: {}", carrierFile_withSolution);
 				freightCarriersConfigGroup.setCarriersFile(carrierFile_withSolution.toString());
-				scenario = ScenarioUtils.loadScenario(config);
 				CarriersUtils.loadCarriersAccordingToFreightConfig(scenario);
 			} else {
 				if (Files.exists(carrierFile_noSolution)) {
 					log.warn("Using existing carrier VRP file without solution: {}", carrierFile_noSolution);
 					freightCarriersConfigGroup.setCarriersFile(carrierFile_noSolution.toString());
-
-					scenario = ScenarioUtils.loadScenario(config);
 					CarriersUtils.loadCarriersAccordingToFreightConfig(scenario);
 
 				} else {
-					scenario = ScenarioUtils.loadScenario(config);
-
 					log.info("Read carrier vehicle types");
 					CarrierVehicleTypes carrierVehicleTypes = CarriersUtils.getCarrierVehicleTypes(scenario);
 					new CarrierVehicleTypeReader(carrierVehicleTypes).readURL(
 						IOUtils.extendUrl(scenario.getConfig().getContext(), freightCarriersConfigGroup.getCarriersVehicleTypesFile()));
 					switch (carrierType) {
-						case REST -> freightAgentGeneratorLTL.createCarriersForLTL(inputFreightDemandData, scenario, jspritIterationsForLTL,
-							Integer.MIN_VALUE);
-						case WASTE -> freightAgentGeneratorLTL.createCarriersForLTL(inputFreightDemandData, scenario, jspritIterationsForLTL, 140);
-						case PARCEL -> freightAgentGeneratorLTL.createCarriersForLTL(inputFreightDemandData, scenario, jspritIterationsForLTL, 150);
-					};
+						case REST -> createCarriers.accept(scenario, Integer.MIN_VALUE);
+						case WASTE -> createCarriers.accept(scenario, 140);
+						case PARCEL -> createCarriers.accept(scenario, 150);
+					}
 //                freightAgentGeneratorLTL.createCarriersForLTL(inputFreightDemandData, scenario, jspritIterationsForLTL);
 
 					CarriersUtils.writeCarriers(CarriersUtils.addOrGetCarriers(scenario), carrierFile_noSolution.toString());
 				}
 				filterRelevantVehicleTypesForTourPlanning(scenario);
 
-				CarriersUtils.runJsprit(scenario);
+				// carriers solved by a previous, interrupted run are restored
+				CarrierCheckpoint checkpoint = new CarrierCheckpoint(outputFolderCarriers.resolve("checkpoint_" + carrierType.name().toLowerCase()));
+				List<Carrier> carriersToSolve = checkpoint.restore(CarriersUtils.getCarriers(scenario), CarriersUtils.getCarrierVehicleTypes(scenario));
+				carriersToSolve.forEach(carrier -> checkpoints.put(carrier, checkpoint));
 
-				CarriersUtils.writeCarriers(CarriersUtils.addOrGetCarriers(scenario), carrierFile_withSolution.toString());
+				// very large parcel carriers are solved in parts, which are merged again once all of them are solved
+				if (carrierType == CarrierType.PARCEL)
+					carriersToSolve = decomposition.decompose(carriersToSolve);
+
+				scheduler.addCarriers(scenario, carriersToSolve);
+				unsolved.put(carrierType, carrierFile_withSolution);
 			}
 
-			LTLFreightAgentGeneratorRuhr.createPlansBasedOnCarrierPlans(scenario, outputPopulation);
+			scenarios.put(carrierType, scenario);
+		}
+
+		// computed costs are also saved during the run, so that they are not lost if it is interrupted
+		AtomicLong lastCostMatrixWrite = new AtomicLong(System.currentTimeMillis());
+		try {
+			scheduler.run(carrier -> {
+				Carrier solved = decomposition.solved(carrier);
+				if (solved != null)
+					checkpoints.get(solved).record(solved);
+
+				long last = lastCostMatrixWrite.get();
+				long now = System.currentTimeMillis();
+				if (now - last > COST_MATRIX_WRITE_INTERVAL && lastCostMatrixWrite.compareAndSet(last, now))
+					writeCostMatrix(costMatrix, costMatrixDir);
+			});
+		} finally {
+			writeCostMatrix(costMatrix, costMatrixDir);
+		}
+
+		for (Map.Entry<CarrierType, Path> e : unsolved.entrySet()) {
+			CarriersUtils.writeCarriers(CarriersUtils.addOrGetCarriers(scenarios.get(e.getKey())), e.getValue().toString());
+		}
+
+		for (CarrierType carrierType : CarrierType.values()) {
+			LTLFreightAgentGeneratorRuhr.createPlansBasedOnCarrierPlans(scenarios.get(carrierType), outputPopulation);
+		}
+	}
+
+	/**
+	 * Write the cost matrix, which is only a cache and therefore does not fail the run.
+	 */
+	private static void writeCostMatrix(LinkCostMatrix costMatrix, Path directory) {
+		try {
+			costMatrix.write(directory);
+		} catch (IOException e) {
+			log.warn("Could not write cost matrix to {}", directory, e);
 		}
 	}
 
@@ -267,65 +267,102 @@ public class LTLFreightAgentGeneratorRuhr {
 	 * @param carrierGoodsType	   the goods type of the carrier
 	 */
     public void createCarriersForLTL(Population inputFreightDemandData, Scenario scenario, int jspritIterationsForLTL, int carrierGoodsType) {
-        Carriers carriers = CarriersUtils.addOrGetCarriers(scenario);
+        Network filteredNetwork = createFilteredNetwork(scenario);
 
+        for (Person freightDemandDataRelation : inputFreightDemandData.getPersons().values()) {
+            if (isRelationOfCarrier(CommercialTrafficUtils.getGoodsType(freightDemandDataRelation),
+                    CommercialTrafficUtils.getTransportType(freightDemandDataRelation), carrierGoodsType))
+                addRelationToCarrier(scenario, filteredNetwork, freightDemandDataRelation, jspritIterationsForLTL);
+        }
+    }
+
+    /**
+     * Creates all carriers for LTL freight agents based on stored freight relations. The relations are filtered on the typed
+     * attributes of the store, persons are only created for the relations of the carriers.
+     *
+     * @param relations              freight relations
+     * @param scenario               scenario
+     * @param jspritIterationsForLTL number of iterations for the jsprit algorithm to solve the LTL carriers
+     * @param carrierGoodsType       the goods type of the carrier
+     */
+    public void createCarriersForLTL(FreightRelationStore relations, Scenario scenario, int jspritIterationsForLTL, int carrierGoodsType) {
+        Network filteredNetwork = createFilteredNetwork(scenario);
+        PopulationFactory factory = scenario.getPopulation().getFactory();
+
+        for (int i = 0; i < relations.size(); i++) {
+            if (isRelationOfCarrier(relations.getGoodsType(i), relations.getTransportType(i), carrierGoodsType))
+                addRelationToCarrier(scenario, filteredNetwork, relations.createPerson(i, factory), jspritIterationsForLTL);
+        }
+    }
+
+    private static Network createFilteredNetwork(Scenario scenario) {
         TransportModeNetworkFilter filter = new TransportModeNetworkFilter(scenario.getNetwork());
         Set<String> modes = new HashSet<>();
         modes.add("car"); // TODO adjust for other modes
         Network filteredNetwork = NetworkUtils.createNetwork(scenario.getConfig().network());
         filter.filter(filteredNetwork, modes);
+        return filteredNetwork;
+    }
 
-        for (Person freightDemandDataRelation : inputFreightDemandData.getPersons().values()) {
-			int thisGoodsType = CommercialTrafficUtils.getGoodsType(freightDemandDataRelation);
-			// Filter only the goodsTypes of the carrier. If the carrierGoodsType is Integer.MIN_VALUE, we assume that the carrier is for all goods types, except for waste collection and parcel delivery
-			if ((thisGoodsType != carrierGoodsType && carrierGoodsType != Integer.MIN_VALUE) || (carrierGoodsType == Integer.MIN_VALUE && (thisGoodsType == 140 || thisGoodsType == 150)))
-				continue;
-			if (CommercialTrafficUtils.getTransportType(freightDemandDataRelation).equals(CommercialTrafficUtils.TransportType.LTL.toString())) {
-                Id<Carrier> carrierId = createCarrierId(freightDemandDataRelation);
-				if (carriers.getCarriers().containsKey(carrierId)) {
-                    Carrier existingCarrier = carriers.getCarriers().get(carrierId);
-                    if (thisGoodsType != 140) {
-                        Id<Link> fromLinkId;
-                        if (existingCarrier.getShipments().isEmpty()) {
-                            fromLinkId = NetworkUtils.getNearestLink(filteredNetwork,
-                                    new Coord(CommercialTrafficUtils.getOriginX(freightDemandDataRelation),
-                                            CommercialTrafficUtils.getOriginY(freightDemandDataRelation))).getId();
-                        } else
-                            fromLinkId = existingCarrier.getShipments().values().iterator().next().getFrom();
-                        addShipment(filteredNetwork, existingCarrier, freightDemandDataRelation, fromLinkId, null);
-                    } else { //waste collection
-                        Id<Link> toLinkId;
-                        if (existingCarrier.getShipments().isEmpty()) {
-                            toLinkId = NetworkUtils.getNearestLink(filteredNetwork,
-                                    new Coord(CommercialTrafficUtils.getDestinationX(freightDemandDataRelation),
-                                            CommercialTrafficUtils.getDestinationY(freightDemandDataRelation))).getId();
-                        } else
-                            toLinkId = existingCarrier.getShipments().values().iterator().next().getTo();
-                        addShipment(filteredNetwork, existingCarrier, freightDemandDataRelation, null, toLinkId);
-                    }
+    /**
+     * Checks if a relation is an LTL relation of the goods type of the carrier. If the carrierGoodsType is Integer.MIN_VALUE,
+     * we assume that the carrier is for all goods types, except for waste collection and parcel delivery.
+     */
+    private static boolean isRelationOfCarrier(int thisGoodsType, String transportType, int carrierGoodsType) {
+        if ((thisGoodsType != carrierGoodsType && carrierGoodsType != Integer.MIN_VALUE) || (carrierGoodsType == Integer.MIN_VALUE && (thisGoodsType == 140 || thisGoodsType == 150)))
+            return false;
+        return transportType.equals(CommercialTrafficUtils.TransportType.LTL.toString());
+    }
 
-                } else {
-                    Carrier newCarrier = CarriersUtils.createCarrier(carrierId);
-                    CarriersUtils.setJspritIterations(newCarrier, jspritIterationsForLTL);
-                    newCarrier.getAttributes().putAttribute("goodsType", thisGoodsType);
-                    Link vehicleLocation;
-                    if (thisGoodsType != 140) {
-                        vehicleLocation = NetworkUtils.getNearestLink(filteredNetwork,
-                                new Coord(CommercialTrafficUtils.getOriginX(freightDemandDataRelation),
-                                        CommercialTrafficUtils.getOriginY(freightDemandDataRelation)));
-                        createFreightVehicles(scenario, newCarrier, vehicleLocation.getId(), freightDemandDataRelation);
-                        addShipment(filteredNetwork, newCarrier, freightDemandDataRelation, vehicleLocation.getId(), null);
-                    } else { //waste collection
-                        vehicleLocation = NetworkUtils.getNearestLink(filteredNetwork,
-                                new Coord(CommercialTrafficUtils.getDestinationX(freightDemandDataRelation),
-                                        CommercialTrafficUtils.getDestinationY(freightDemandDataRelation)));
-                        createFreightVehicles(scenario, newCarrier, vehicleLocation.getId(), freightDemandDataRelation);
-                        addShipment(filteredNetwork, newCarrier, freightDemandDataRelation, null, vehicleLocation.getId());
-                    }
-                    if (!newCarrier.getShipments().isEmpty())
-                        carriers.addCarrier(newCarrier);
-                }
+    /**
+     * Adds the shipments of a relation to its carrier. The carrier is created, if it does not exist yet.
+     */
+    private void addRelationToCarrier(Scenario scenario, Network filteredNetwork, Person freightDemandDataRelation, int jspritIterationsForLTL) {
+        Carriers carriers = CarriersUtils.addOrGetCarriers(scenario);
+        int thisGoodsType = CommercialTrafficUtils.getGoodsType(freightDemandDataRelation);
+        Id<Carrier> carrierId = createCarrierId(freightDemandDataRelation);
+        if (carriers.getCarriers().containsKey(carrierId)) {
+            Carrier existingCarrier = carriers.getCarriers().get(carrierId);
+            if (thisGoodsType != 140) {
+                Id<Link> fromLinkId;
+                if (existingCarrier.getShipments().isEmpty()) {
+                    fromLinkId = NetworkUtils.getNearestLink(filteredNetwork,
+                            new Coord(CommercialTrafficUtils.getOriginX(freightDemandDataRelation),
+                                    CommercialTrafficUtils.getOriginY(freightDemandDataRelation))).getId();
+                } else
+                    fromLinkId = existingCarrier.getShipments().values().iterator().next().getFrom();
+                addShipment(filteredNetwork, existingCarrier, freightDemandDataRelation, fromLinkId, null);
+            } else { //waste collection
+                Id<Link> toLinkId;
+                if (existingCarrier.getShipments().isEmpty()) {
+                    toLinkId = NetworkUtils.getNearestLink(filteredNetwork,
+                            new Coord(CommercialTrafficUtils.getDestinationX(freightDemandDataRelation),
+                                    CommercialTrafficUtils.getDestinationY(freightDemandDataRelation))).getId();
+                } else
+                    toLinkId = existingCarrier.getShipments().values().iterator().next().getTo();
+                addShipment(filteredNetwork, existingCarrier, freightDemandDataRelation, null, toLinkId);
+            }
+
+        } else {
+            Carrier newCarrier = CarriersUtils.createCarrier(carrierId);
+            CarriersUtils.setJspritIterations(newCarrier, jspritIterationsForLTL);
+            newCarrier.getAttributes().putAttribute("goodsType", thisGoodsType);
+            Link vehicleLocation;
+            if (thisGoodsType != 140) {
+                vehicleLocation = NetworkUtils.getNearestLink(filteredNetwork,
+                        new Coord(CommercialTrafficUtils.getOriginX(freightDemandDataRelation),
+                                CommercialTrafficUtils.getOriginY(freightDemandDataRelation)));
+                createFreightVehicles(scenario, newCarrier, vehicleLocation.getId(), freightDemandDataRelation);
+                addShipment(filteredNetwork, newCarrier, freightDemandDataRelation, vehicleLocation.getId(), null);
+            } else { //waste collection
+                vehicleLocation = NetworkUtils.getNearestLink(filteredNetwork,
+                        new Coord(CommercialTrafficUtils.getDestinationX(freightDemandDataRelation),
+                                CommercialTrafficUtils.getDestinationY(freightDemandDataRelation)));
+                createFreightVehicles(scenario, newCarrier, vehicleLocation.getId(), freightDemandDataRelation);
+                addShipment(filteredNetwork, newCarrier, freightDemandDataRelation, null, vehicleLocation.getId());
             }
+            if (!newCarrier.getShipments().isEmpty())
+                carriers.addCarrier(newCarrier);
         }
     }
 
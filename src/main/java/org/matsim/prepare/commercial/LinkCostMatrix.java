@@ -0,0 +1,641 @@
+package org.matsim.prepare.commercial;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.vehicles.VehicleType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Travel times and distances between pairs of links, shared by all carriers solved on the same network.
+ * <p>
+ * Costs are computed per {@link Profile}, i.e. network mode, cost parameters and maximum velocity of a vehicle type,
+ * because these determine the least cost path. The pairs of a set of locations are computed with one Dijkstra search
+ * from each location, which stops as soon as all other locations are reached. As in the network based transport costs
+ * of the freight contrib, a path leads from the end of the first link to the end of the second link, and the costs of
+ * a link to itself are zero.
+ * <p>
+ * Computed pairs can be stored in a directory and are loaded again in later runs, as long as the network is the same.
+ * <p>
+ * The number of pairs of all profiles is limited by a budget, as the pairs are never evicted. Once it is exhausted, no
+ * further pairs are added and carriers whose pairs are missing use the network based costs instead. Note that the
+ * largest carriers, i.e. parcel carriers with thousands of shipments, exceed {@link MatrixTransportCosts#MAX_LOCATIONS}
+ * and never use the matrix, unless they are decomposed with {@code --max-shipments-per-parcel-carrier}.
+ */
+final class LinkCostMatrix {
+
+	private static final Logger log = LogManager.getLogger(LinkCostMatrix.class);
+
+	private static final int MAGIC = 0x4c434d58;
+
+	/**
+	 * Needs to be increased whenever the format or the computation of the costs changes.
+	 */
+	private static final int VERSION = 1;
+
+	private static final int SEGMENTS = 64;
+
+	/**
+	 * Default maximum number of pairs of all profiles. Each pair takes between 20 and 40 bytes in the hash maps.
+	 */
+	static final long DEFAULT_MAX_ENTRIES = 100_000_000;
+
+	/**
+	 * Value of pairs without a path.
+	 */
+	static final long UNREACHABLE = pack(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+
+	private final Network network;
+	private final String fingerprint;
+
+	private final Map<Id<Link>, Integer> linkIndex = new HashMap<>();
+	private final Link[] links;
+	private final int[] fromNode;
+	private final int[] toNode;
+	private final double[] length;
+	private final double[] freespeed;
+
+	/**
+	 * Outgoing links of each node, in compressed row format.
+	 */
+	private final int[] outStart;
+	private final int[] outLinks;
+
+	private final Map<Profile, Store> stores = new ConcurrentHashMap<>();
+	private final long maxEntries;
+
+	/**
+	 * Number of pairs in all stores, including the pairs reserved by running computations.
+	 */
+	private final AtomicLong entries = new AtomicLong();
+	private final AtomicBoolean budgetExceeded = new AtomicBoolean();
+	private final Map<String, BitSet> modeFilters = new ConcurrentHashMap<>();
+
+	private final ThreadLocal<Search> search;
+
+	LinkCostMatrix(Network network) {
+		this(network, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries maximum number of pairs of all profiles
+	 */
+	LinkCostMatrix(Network network, long maxEntries) {
+		this.network = network;
+		this.maxEntries = maxEntries;
+
+		Map<Id<Node>, Integer> nodeIndex = new HashMap<>();
+		for (Node node : network.getNodes().values()) {
+			nodeIndex.put(node.getId(), nodeIndex.size());
+		}
+
+		int n = network.getLinks().size();
+		links = new Link[n];
+		fromNode = new int[n];
+		toNode = new int[n];
+		length = new double[n];
+		freespeed = new double[n];
+
+		int[] outDegree = new int[nodeIndex.size() + 1];
+		int i = 0;
+		for (Link link : network.getLinks().values()) {
+			linkIndex.put(link.getId(), i);
+			links[i] = link;
+			fromNode[i] = nodeIndex.get(link.getFromNode().getId());
+			toNode[i] = nodeIndex.get(link.getToNode().getId());
+			length[i] = link.getLength();
+			freespeed[i] = link.getFreespeed();
+			outDegree[fromNode[i] + 1]++;
+			i++;
+		}
+
+		outStart = new int[nodeIndex.size() + 1];
+		for (int node = 0; node < nodeIndex.size(); node++) {
+			outStart[node + 1] = outStart[node] + outDegree[node + 1];
+		}
+
+		outLinks = new int[n];
+		int[] next = Arrays.copyOf(outStart, nodeIndex.size());
+		for (int link = 0; link < n; link++) {
+			outLinks[next[fromNode[link]]++] = link;
+		}
+
+		fingerprint = fingerprint(network);
+		int nodes = nodeIndex.size();
+		search = ThreadLocal.withInitial(() -> new Search(nodes));
+	}
+
+	Network getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Profile of a vehicle type, which determines the least cost paths.
+	 */
+	static Profile profile(VehicleType type) {
+		Double costsPerSecond = type.getCostInformation().getCostsPerSecond();
+		Double costsPerMeter = type.getCostInformation().getCostsPerMeter();
+		return new Profile(type.getNetworkMode() == null ? "" : type.getNetworkMode(), costsPerSecond == null ? 0 : costsPerSecond,
+			costsPerMeter == null ? 0 : costsPerMeter, type.getMaximumVelocity());
+	}
+
+	/**
+	 * Compute all missing pairs between the given links. This method can be called by multiple threads.
+	 *
+	 * @return whether all pairs are available, false if the missing pairs would exceed the budget, in which case none of them are added
+	 */
+	boolean compute(Profile profile, Collection<Id<Link>> locations) {
+
+		Store store = stores.computeIfAbsent(profile, p -> new Store());
+		BitSet allowed = modeFilter(profile.mode());
+
+		int[] idx = locations.stream().distinct().mapToInt(this::index).toArray();
+
+		int[] missing = Arrays.stream(idx).parallel()
+			.filter(from -> Arrays.stream(idx).anyMatch(to -> store.get(key(from, to)) == null))
+			.toArray();
+
+		if (missing.length == 0)
+			return true;
+
+		// reserve the worst case, pairs which have been added by other threads in the meantime are returned afterwards
+		long reserved = (long) missing.length * idx.length;
+		if (entries.addAndGet(reserved) > maxEntries) {
+			entries.addAndGet(-reserved);
+			if (budgetExceeded.compareAndSet(false, true))
+				log.warn("Cost matrix is full with {} pairs, further carriers use network based costs", entries.get());
+
+			return false;
+		}
+
+		LongAdder added = new LongAdder();
+		Arrays.stream(missing).parallel()
+			.forEach(from -> {
+				long[] values = search.get().run(profile, allowed, from, idx);
+				for (int j = 0; j < idx.length; j++) {
+					if (store.put(key(from, idx[j]), values[j]))
+						added.increment();
+				}
+			});
+
+		entries.addAndGet(added.sum() - reserved);
+		return true;
+	}
+
+	/**
+	 * Number of pairs of all profiles.
+	 */
+	long size() {
+		return entries.get();
+	}
+
+	/**
+	 * Return the packed travel time and distance of a pair, which has been computed before.
+	 * Use {@link #travelTime(long)} and {@link #distance(long)} to unpack the value.
+	 *
+	 * @throws IllegalStateException if the pair has not been computed
+	 */
+	long get(Profile profile, Id<Link> from, Id<Link> to) {
+		Store store = stores.get(profile);
+		Long value = store == null ? null : store.get(key(index(from), index(to)));
+		if (value == null)
+			throw new IllegalStateException("Costs from " + from + " to " + to + " have not been computed for " + profile);
+
+		return value;
+	}
+
+	static float travelTime(long value) {
+		return Float.intBitsToFloat((int) (value >>> 32));
+	}
+
+	static float distance(long value) {
+		return Float.intBitsToFloat((int) value);
+	}
+
+	private static long pack(float travelTime, float distance) {
+		return ((long) Float.floatToIntBits(travelTime) << 32) | (Float.floatToIntBits(distance) & 0xffffffffL);
+	}
+
+	private static long key(int from, int to) {
+		return ((long) from << 32) | (to & 0xffffffffL);
+	}
+
+	private int index(Id<Link> link) {
+		Integer idx = linkIndex.get(link);
+		if (idx == null)
+			throw new IllegalArgumentException("Link " + link + " is not part of the network");
+
+		return idx;
+	}
+
+	/**
+	 * Links which may be used by a mode. If no link allows the mode, all links are used, like the network based transport costs do.
+	 */
+	private BitSet modeFilter(String mode) {
+		return modeFilters.computeIfAbsent(mode, m -> {
+			BitSet allowed = new BitSet(links.length);
+			for (int i = 0; i < links.length; i++) {
+				if (links[i].getAllowedModes().contains(m))
+					allowed.set(i);
+			}
+
+			if (allowed.isEmpty()) {
+				log.warn("No link allows mode '{}', costs are computed on all links", m);
+				allowed.set(0, links.length);
+			}
+
+			return allowed;
+		});
+	}
+
+	/**
+	 * Load the pairs stored in a directory. Files of a different network or version are ignored.
+	 */
+	void read(Path directory) throws IOException {
+
+		if (!Files.isDirectory(directory))
+			return;
+
+		List<Path> files;
+		try (Stream<Path> s = Files.list(directory)) {
+			files = s.filter(p -> p.getFileName().toString().endsWith(".bin.gz")).toList();
+		}
+
+		for (Path file : files) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) {
+					log.info("Ignoring cost matrix {}, it was created for a different network or version", file);
+					continue;
+				}
+
+				Profile profile = new Profile(in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble());
+
+				int[] idx = new int[in.readInt()];
+				for (int i = 0; i < idx.length; i++) {
+					Integer link = linkIndex.get(Id.createLinkId(in.readUTF()));
+					idx[i] = link == null ? -1 : link;
+				}
+
+				Store store = stores.computeIfAbsent(profile, p -> new Store());
+				long n = in.readLong();
+				long e = 0;
+				for (; e < n; e++) {
+					int from = idx[in.readInt()];
+					int to = idx[in.readInt()];
+					long value = in.readLong();
+					if (from < 0 || to < 0 || store.get(key(from, to)) != null)
+						continue;
+
+					if (entries.incrementAndGet() > maxEntries) {
+						entries.decrementAndGet();
+						log.warn("Cost matrix is full with {} pairs, ignoring the remaining pairs of {}", entries.get(), file);
+						break;
+					}
+					store.put(key(from, to), value);
+				}
+
+				log.info("Read {} of {} pairs of {} from {}", e, n, profile, file);
+			} catch (EOFException e) {
+				log.warn("Cost matrix {} is incomplete, ignoring it", file);
+			}
+		}
+	}
+
+	/**
+	 * Store all computed pairs in a directory, one file per profile. Pairs may be computed by other threads at the same
+	 * time, each file contains the pairs of its profile at the time it is written.
+	 */
+	synchronized void write(Path directory) throws IOException {
+
+		Files.createDirectories(directory);
+
+		for (Map.Entry<Profile, Store> e : stores.entrySet()) {
+			Profile profile = e.getKey();
+			long[][] pairs = e.getValue().snapshot();
+			long[] keys = pairs[0];
+			long[] values = pairs[1];
+
+			// links are written only once, pairs refer to them by their position
+			int[] position = new int[links.length];
+			Arrays.fill(position, -1);
+			List<Integer> used = new ArrayList<>();
+			for (long key : keys) {
+				for (int link : new int[]{(int) (key >>> 32), (int) key}) {
+					if (position[link] < 0) {
+						position[link] = used.size();
+						used.add(link);
+					}
+				}
+			}
+
+			// write to a temporary file first, so that the next run never reads incomplete files
+			Path tmp = Files.createTempFile(directory, "matrix", ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeUTF(fingerprint);
+					out.writeUTF(profile.mode());
+					out.writeDouble(profile.costsPerSecond());
+					out.writeDouble(profile.costsPerMeter());
+					out.writeDouble(profile.maximumVelocity());
+
+					out.writeInt(used.size());
+					for (int link : used) {
+						out.writeUTF(links[link].getId().toString());
+					}
+
+					out.writeLong(keys.length);
+					for (int i = 0; i < keys.length; i++) {
+						out.writeInt(position[(int) (keys[i] >>> 32)]);
+						out.writeInt(position[(int) keys[i]]);
+						out.writeLong(values[i]);
+					}
+				}
+				Files.move(tmp, directory.resolve(hash(profile.toString()).substring(0, 16) + ".bin.gz"),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+
+			log.info("Wrote {} pairs of {} to {}", keys.length, profile, directory);
+		}
+	}
+
+	/**
+	 * Fingerprint of the attributes of the network, which are used for computing the costs.
+	 */
+	private static String fingerprint(Network network) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Link link : network.getLinks().values()) {
+				String str = link.getId() + "|" + link.getFromNode().getId() + "|" + link.getToNode().getId() + "|" + link.getLength()
+					+ "|" + link.getFreespeed() + "|" + String.join(",", new TreeSet<>(link.getAllowedModes())) + "\n";
+				digest.update(str.getBytes(StandardCharsets.UTF_8));
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hash(String str) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(str.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Attributes of a vehicle type, which determine the least cost paths.
+	 */
+	record Profile(String mode, double costsPerSecond, double costsPerMeter, double maximumVelocity) {
+	}
+
+	/**
+	 * Computed pairs of one profile, split into segments to reduce contention between threads.
+	 */
+	private static final class Store {
+
+		private final Long2LongOpenHashMap[] segments = new Long2LongOpenHashMap[SEGMENTS];
+
+		Store() {
+			for (int i = 0; i < SEGMENTS; i++) {
+				segments[i] = new Long2LongOpenHashMap();
+			}
+		}
+
+		private Long2LongOpenHashMap segment(long key) {
+			return segments[(int) ((key ^ (key >>> 29)) * 0x9E3779B1L >>> 26) & (SEGMENTS - 1)];
+		}
+
+		Long get(long key) {
+			Long2LongOpenHashMap segment = segment(key);
+			synchronized (segment) {
+				return segment.containsKey(key) ? segment.get(key) : null;
+			}
+		}
+
+		/**
+		 * @return whether the pair has been added, false if it was replaced
+		 */
+		boolean put(long key, long value) {
+			Long2LongOpenHashMap segment = segment(key);
+			synchronized (segment) {
+				int size = segment.size();
+				segment.put(key, value);
+				return segment.size() > size;
+			}
+		}
+
+		/**
+		 * Copy of all keys and values, which stays consistent while other threads add pairs.
+		 */
+		long[][] snapshot() {
+			LongArrayList keys = new LongArrayList();
+			LongArrayList values = new LongArrayList();
+			for (Long2LongOpenHashMap segment : segments) {
+				synchronized (segment) {
+					for (Long2LongMap.Entry e : Long2LongMaps.fastIterable(segment)) {
+						keys.add(e.getLongKey());
+						values.add(e.getLongValue());
+					}
+				}
+			}
+			return new long[][]{keys.toLongArray(), values.toLongArray()};
+		}
+	}
+
+	/**
+	 * State of a Dijkstra search, which is reused by one thread.
+	 */
+	private final class Search {
+
+		private final double[] cost;
+		private final double[] time;
+		private final double[] dist;
+		private final int[] visited;
+		private final boolean[] settled;
+		private final boolean[] target;
+		private int iteration;
+
+		private int[] heapNodes = new int[1024];
+		private double[] heapCosts = new double[1024];
+		private int heapSize;
+
+		Search(int nodes) {
+			cost = new double[nodes];
+			time = new double[nodes];
+			dist = new double[nodes];
+			visited = new int[nodes];
+			settled = new boolean[nodes];
+			target = new boolean[nodes];
+		}
+
+		/**
+		 * Compute the packed costs from one link to all targets.
+		 */
+		long[] run(Profile profile, BitSet allowed, int fromLink, int[] targets) {
+
+			iteration++;
+			heapSize = 0;
+
+			// nodes at which the target links start, the start link itself does not need to be reached
+			int remaining = 0;
+			for (int t : targets) {
+				if (t == fromLink)
+					continue;
+
+				int node = fromNode[t];
+				reset(node);
+				if (!target[node]) {
+					target[node] = true;
+					remaining++;
+				}
+			}
+
+			int start = toNode[fromLink];
+			reset(start);
+			cost[start] = 0;
+			time[start] = 0;
+			dist[start] = 0;
+			push(start, 0);
+
+			while (heapSize > 0 && remaining > 0) {
+				int node = pop();
+				if (settled[node])
+					continue;
+
+				settled[node] = true;
+				if (target[node])
+					remaining--;
+
+				for (int i = outStart[node]; i < outStart[node + 1]; i++) {
+					int link = outLinks[i];
+					if (!allowed.get(link))
+						continue;
+
+					double tt = travelTime(profile, link);
+					double c = cost[node] + linkCost(profile, link, tt);
+
+					int to = toNode[link];
+					reset(to);
+					if (!settled[to] && c < cost[to]) {
+						cost[to] = c;
+						time[to] = time[node] + tt;
+						dist[to] = dist[node] + length[link];
+						push(to, c);
+					}
+				}
+			}
+
+			long[] result = new long[targets.length];
+			for (int j = 0; j < targets.length; j++) {
+				int t = targets[j];
+				int node = fromNode[t];
+				if (t == fromLink) {
+					result[j] = pack(0, 0);
+				} else if (settled[node]) {
+					result[j] = pack((float) (time[node] + travelTime(profile, t)), (float) (dist[node] + length[t]));
+				} else {
+					result[j] = UNREACHABLE;
+				}
+			}
+
+			for (int t : targets) {
+				target[fromNode[t]] = false;
+			}
+
+			return result;
+		}
+
+		private double travelTime(Profile profile, int link) {
+			return length[link] / Math.min(freespeed[link], profile.maximumVelocity());
+		}
+
+		private double linkCost(Profile profile, int link, double tt) {
+			// without any costs, the fastest path is used
+			if (profile.costsPerSecond() == 0 && profile.costsPerMeter() == 0)
+				return tt;
+
+			return tt * profile.costsPerSecond() + length[link] * profile.costsPerMeter();
+		}
+
+		/**
+		 * Reset the state of a node, if it has not been visited in the current search.
+		 */
+		private void reset(int node) {
+			if (visited[node] != iteration) {
+				visited[node] = iteration;
+				cost[node] = Double.POSITIVE_INFINITY;
+				settled[node] = false;
+			}
+		}
+
+		private void push(int node, double c) {
+			if (heapSize == heapNodes.length) {
+				heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+				heapCosts = Arrays.copyOf(heapCosts, heapSize * 2);
+			}
+
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapCosts[parent] <= c)
+					break;
+				heapNodes[i] = heapNodes[parent];
+				heapCosts[i] = heapCosts[parent];
+				i = parent;
+			}
+			heapNodes[i] = node;
+			heapCosts[i] = c;
+		}
+
+		private int pop() {
+			int result = heapNodes[0];
+			int node = heapNodes[--heapSize];
+			double c = heapCosts[heapSize];
+
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize)
+					break;
+				if (child + 1 < heapSize && heapCosts[child + 1] < heapCosts[child])
+					child++;
+				if (heapCosts[child] >= c)
+					break;
+				heapNodes[i] = heapNodes[child];
+				heapCosts[i] = heapCosts[child];
+				i = child;
+			}
+			heapNodes[i] = node;
+			heapCosts[i] = c;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.matsim.prepare.commercial;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.cost.AbstractForwardVehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.driver.Driver;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleCostParams;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.freight.carriers.Carrier;
+import org.matsim.freight.carriers.CarrierService;
+import org.matsim.freight.carriers.CarrierShipment;
+import org.matsim.freight.carriers.CarrierVehicle;
+
+import java.util.*;
+
+/**
+ * Transport costs of one carrier for jsprit, which are looked up in a {@link LinkCostMatrix}.
+ * <p>
+ * All pairs of locations of the carrier are computed when this object is created and copied into one array per vehicle
+ * type, so that each lookup is an array read. Pairs without a path in the matrix, as well as unknown locations or vehicle
+ * types, are passed to the fallback costs. If the matrix can not hold the pairs of the carrier, all lookups are passed to
+ * the fallback costs, see {@link #isComplete()}.
+ */
+final class MatrixTransportCosts extends AbstractForwardVehicleRoutingTransportCosts {
+
+	/**
+	 * Maximum number of locations of a carrier, whose pairs are stored in the shared matrix. All pairs of a carrier are
+	 * kept in memory, so larger carriers use the network based costs instead, see {@link #isApplicable(Carrier)}. This
+	 * excludes the largest parcel carriers, unless they are decomposed with {@code --max-shipments-per-parcel-carrier}.
+	 */
+	static final int MAX_LOCATIONS = 2000;
+
+	/**
+	 * Maximum number of entries of the arrays of one carrier. Larger carriers read the shared matrix instead.
+	 */
+	private static final long MAX_DENSE_ENTRIES = 1L << 25;
+
+	private final LinkCostMatrix matrix;
+	private final VehicleRoutingTransportCosts fallback;
+
+	private final Map<String, Integer> locations = new HashMap<>();
+	private final List<Id<Link>> links = new ArrayList<>();
+
+	private final Map<String, Integer> types = new HashMap<>();
+	private final List<LinkCostMatrix.Profile> profiles = new ArrayList<>();
+
+	/**
+	 * Packed costs of all pairs for each vehicle type, or null if the carrier is too large.
+	 */
+	private final long[][] values;
+
+	/**
+	 * Whether the pairs of all vehicle types are available in the matrix.
+	 */
+	private final boolean complete;
+
+	MatrixTransportCosts(LinkCostMatrix matrix, Carrier carrier, VehicleRoutingTransportCosts fallback) {
+		this.matrix = matrix;
+		this.fallback = fallback;
+
+		for (CarrierVehicle vehicle : carrier.getCarrierCapabilities().getCarrierVehicles().values()) {
+			String type = vehicle.getType().getId().toString();
+			if (!types.containsKey(type)) {
+				types.put(type, profiles.size());
+				profiles.add(LinkCostMatrix.profile(vehicle.getType()));
+			}
+		}
+		for (Id<Link> link : locations(carrier)) {
+			locations.put(link.toString(), links.size());
+			links.add(link);
+		}
+
+		boolean complete = true;
+		for (LinkCostMatrix.Profile profile : new LinkedHashSet<>(profiles)) {
+			complete &= matrix.compute(profile, links);
+		}
+		this.complete = complete;
+
+		int n = links.size();
+		if (!complete || (long) n * n * profiles.size() > MAX_DENSE_ENTRIES) {
+			values = null;
+			return;
+		}
+
+		values = new long[profiles.size()][n * n];
+		for (int k = 0; k < profiles.size(); k++) {
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					values[k][i * n + j] = matrix.get(profiles.get(k), links.get(i), links.get(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether the costs of a carrier should be looked up in the shared matrix, i.e. it has at most {@link #MAX_LOCATIONS} locations.
+	 */
+	static boolean isApplicable(Carrier carrier) {
+		return locations(carrier).size() <= MAX_LOCATIONS;
+	}
+
+	/**
+	 * Whether the costs are looked up in the matrix, false if the budget of the matrix was exhausted and all costs are
+	 * passed to the fallback.
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Distinct links of the depots and jobs of a carrier.
+	 */
+	private static Set<Id<Link>> locations(Carrier carrier) {
+		Set<Id<Link>> locations = new LinkedHashSet<>();
+		for (CarrierVehicle vehicle : carrier.getCarrierCapabilities().getCarrierVehicles().values()) {
+			locations.add(vehicle.getLinkId());
+		}
+		for (CarrierShipment shipment : carrier.getShipments().values()) {
+			locations.add(shipment.getFrom());
+			locations.add(shipment.getTo());
+		}
+		for (CarrierService service : carrier.getServices().values()) {
+			locations.add(service.getLocationLinkId());
+		}
+		return locations;
+	}
+
+	/**
+	 * Packed costs of a pair, or {@link LinkCostMatrix#UNREACHABLE} if they are not available.
+	 */
+	private long lookup(Location from, Location to, Vehicle vehicle) {
+		Integer type = vehicle == null ? null : types.get(vehicle.getType().getTypeId());
+		Integer i = locations.get(from.getId());
+		Integer j = locations.get(to.getId());
+		if (!complete || type == null || i == null || j == null)
+			return LinkCostMatrix.UNREACHABLE;
+
+		if (values != null)
+			return values[type][i * links.size() + j];
+
+		return matrix.get(profiles.get(type), links.get(i), links.get(j));
+	}
+
+	@Override
+	public double getTransportTime(Location from, Location to, double departureTime, Driver driver, Vehicle vehicle) {
+		long value = lookup(from, to, vehicle);
+		if (value == LinkCostMatrix.UNREACHABLE)
+			return fallback.getTransportTime(from, to, departureTime, driver, vehicle);
+
+		return LinkCostMatrix.travelTime(value);
+	}
+
+	@Override
+	public double getTransportCost(Location from, Location to, double departureTime, Driver driver, Vehicle vehicle) {
+		long value = lookup(from, to, vehicle);
+		if (value == LinkCostMatrix.UNREACHABLE)
+			return fallback.getTransportCost(from, to, departureTime, driver, vehicle);
+
+		VehicleCostParams params = vehicle.getType().getVehicleCostParams();
+		return LinkCostMatrix.travelTime(value) * params.perTransportTimeUnit + LinkCostMatrix.distance(value) * params.perDistanceUnit;
+	}
+
+	@Override
+	public double getDistance(Location from, Location to, double departureTime, Vehicle vehicle) {
+		long value = lookup(from, to, vehicle);
+		if (value == LinkCostMatrix.UNREACHABLE)
+			return fallback.getDistance(from, to, departureTime, vehicle);
+
+		return LinkCostMatrix.distance(value);
+	}
+}
@@ -9,12 +9,20 @@ import org.matsim.application.options.ShpOptions;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 
 /**
  * Represents a relation between two locations for a commercial trip.
@@ -36,6 +44,13 @@ public class RvrTripRelation {
     public static final String column_parcelHubId = "quelle_id";
     public static final String column_parcelsPerYear = "paketeProJahr";
     public static final String column_parcelOperator = "dienstleister";
+
+    private static final CSVFormat FORMAT = CSVFormat.Builder.create(CSVFormat.DEFAULT).setDelimiter("\t").build();
+
+    /**
+     * Number of lines parsed by one task when reading the matrices.
+     */
+    private static final int CHUNK_SIZE = 50_000;
     /**
      * Start location of the full trip relation
      */
@@ -163,23 +178,34 @@ public class RvrTripRelation {
     }
 
     private RvrTripRelation(Builder builder) {
-        this.originCell = builder.originCell;
-        this.originLocationId = builder.originLocationId;
-        this.destinationLocationId = builder.destinationLocationId;
-        this.destinationCell = builder.destinationCell;
-
-        this.transportType = builder.transportType;
-
-        this.goodsType = builder.goodsType;
-        this.tonsPerYear = builder.tonsPerYear;
-        this.originX = builder.originX;
-        this.originY = builder.originY;
-        this.destinationX = builder.destinationX;
-        this.destinationY = builder.destinationY;
-
-        this.parcelsPerYear = builder.parcelsPerYear;
-        this.parcelOperator = builder.parcelOperator;
-        this.parcelHubId = builder.parcelHubId;
+        this(builder.originCell, builder.originLocationId, builder.destinationLocationId, builder.destinationCell, builder.transportType,
+                builder.goodsType, builder.tonsPerYear, builder.originX, builder.originY, builder.destinationX, builder.destinationY,
+                builder.parcelsPerYear, builder.parcelOperator, builder.parcelHubId);
+    }
+
+    /**
+     * Used when reading the matrices, to avoid creating a builder for each of the millions of records.
+     */
+    private RvrTripRelation(String originCell, String originLocationId, String destinationLocationId, String destinationCell,
+                            String transportType, String goodsType, double tonsPerYear, double originX, double originY,
+                            double destinationX, double destinationY, double parcelsPerYear, String parcelOperator, String parcelHubId) {
+        this.originCell = originCell;
+        this.originLocationId = originLocationId;
+        this.destinationLocationId = destinationLocationId;
+        this.destinationCell = destinationCell;
+
+        this.transportType = transportType;
+
+        this.goodsType = goodsType;
+        this.tonsPerYear = tonsPerYear;
+        this.originX = originX;
+        this.originY = originY;
+        this.destinationX = destinationX;
+        this.destinationY = destinationY;
+
+        this.parcelsPerYear = parcelsPerYear;
+        this.parcelOperator = parcelOperator;
+        this.parcelHubId = parcelHubId;
     }
 
     public double getOriginX() {
@@ -239,77 +265,154 @@ public class RvrTripRelation {
     }
 
 
+    /**
+     * Reads the relations of the main matrix and the KEP matrix. The files are split into chunks of lines, which are parsed in
+     * parallel. The order of the relations is the same as in the files, the main matrix first.
+     */
     public static List<RvrTripRelation> readTripRelations(Path pathToData, Path KEPdataFolderPath, CoordinateTransformation coordinateTransformation,
                                                           ShpOptions.Index indexZones) throws IOException {
-        List<RvrTripRelation> tripRelations = new ArrayList<>();
+        List<CompletableFuture<List<RvrTripRelation>>> chunks = new ArrayList<>();
 
-        readRelationsFromMainMatrix(pathToData, tripRelations);
-        readRelationsFromKEPMatrix(KEPdataFolderPath, tripRelations, coordinateTransformation, indexZones);
+        // the destinations of the KEP data are the centers of 100x100 cells, which are shared by many relations
+        Map<Coord, String> zonesOfCells = new ConcurrentHashMap<>();
 
-        return tripRelations;
-    }
+        // limits the chunks held in memory as text, if reading is faster than parsing
+        Semaphore inFlight = new Semaphore(2 * ForkJoinPool.getCommonPoolParallelism());
 
-    private static void readRelationsFromMainMatrix(Path pathToData, List<RvrTripRelation> tripRelations) throws IOException {
-        try (CSVParser parser = CSVParser.parse(Files.newBufferedReader(pathToData, StandardCharsets.ISO_8859_1),
-                CSVFormat.Builder.create(CSVFormat.DEFAULT).setDelimiter("\t").setHeader().setSkipHeaderRecord(true).build())) {
-            for (CSVRecord record : parser) {
-                Builder builder = new Builder();
-                // Read locations
-                builder.originCell(record.get(column_originCellId)).originLocationId(record.get(column_originLocationId)).
-                        destinationCell(record.get(column_destinationCellId)).destinationLocationId(record.get(column_destinationLocationId));
+        readChunks(pathToData, RvrTripRelation::readRelationsFromMainMatrix, chunks, inFlight);
+        readChunks(KEPdataFolderPath, (format, chunk) -> readRelationsFromKEPMatrix(format, chunk, coordinateTransformation, indexZones,
+                zonesOfCells), chunks, inFlight);
 
-                //read coordinates
-                builder.originX(Double.parseDouble(record.get(column_origin_X))).originY(Double.parseDouble(record.get(column_origin_Y))).
-                        destinationX(Double.parseDouble(record.get(column_destination_X))).destinationY(Double.parseDouble(record.get(
-                                column_destination_Y)));
-
-                // Read transport type  (FTL or LTL)
-                builder.transportType(record.get(column_transportType));
+        List<RvrTripRelation> tripRelations = new ArrayList<>();
+        for (CompletableFuture<List<RvrTripRelation>> chunk : chunks) {
+            try {
+                tripRelations.addAll(chunk.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException io)
+                    throw io.getCause();
+                throw e;
+            }
+        }
 
-                // Read goods type and tons
-                builder.goodsType(record.get(column_goodsType)).tonsPerYear(Double.parseDouble(record.get(column_tonesPerYear)));
+        return tripRelations;
+    }
 
-                // Build trip relation and add to list
-                tripRelations.add(builder.build());
+    /**
+     * Split a file on line boundaries and submit each chunk for parsing. Lines are read by the calling thread, which waits
+     * for a permit of {@code inFlight} before each chunk is submitted. The permit is released once the chunk is parsed.
+     */
+    private static void readChunks(Path path, ChunkReader reader, List<CompletableFuture<List<RvrTripRelation>>> chunks,
+                                   Semaphore inFlight) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            String headerLine = in.readLine();
+            if (headerLine == null)
+                return;
+
+            String[] header;
+            try (CSVParser parser = CSVParser.parse(headerLine, FORMAT.builder().setHeader().build())) {
+                header = parser.getHeaderNames().toArray(String[]::new);
+            }
+            CSVFormat format = FORMAT.builder().setHeader(header).build();
+
+            StringBuilder chunk = new StringBuilder();
+            int lines = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                chunk.append(line).append('\n');
+                if (++lines == CHUNK_SIZE) {
+                    chunks.add(submit(reader, format, chunk.toString(), inFlight));
+                    chunk.setLength(0);
+                    lines = 0;
+                }
             }
 
+            if (lines > 0)
+                chunks.add(submit(reader, format, chunk.toString(), inFlight));
         }
     }
 
-    private static void readRelationsFromKEPMatrix(Path KEPdataFolderPath, List<RvrTripRelation> tripRelations,
-                                                   CoordinateTransformation coordinateTransformation, ShpOptions.Index indexZones) throws IOException {
-        try (CSVParser parser = CSVParser.parse(Files.newBufferedReader(KEPdataFolderPath, StandardCharsets.ISO_8859_1),
-                CSVFormat.Builder.create(CSVFormat.DEFAULT).setDelimiter("\t").setHeader().setSkipHeaderRecord(true).build())) {
-            for (CSVRecord record : parser) {
-                Builder builder = new Builder();
-                // Read hub
-                builder.originLocationId(record.get(column_parcelHubId));
-
-                //read coordinates (destination only on 100x100 grid) and transform them
-                Coord coordOrigin = CoordUtils.createCoord(Double.parseDouble(record.get(column_origin_X)),
-                        Double.parseDouble(record.get(column_origin_Y)));
-                coordOrigin = coordinateTransformation.transform(coordOrigin);
-
-                Coord coordDestination = CoordUtils.createCoord(Double.parseDouble(record.get(column_destination_X)),
-                        Double.parseDouble(record.get(column_destination_Y)));
-                coordDestination = coordinateTransformation.transform(coordDestination);
-
-                builder.originX(coordOrigin.getX()).originY(coordOrigin.getY()).destinationX(coordDestination.getX()).destinationY(
-                        coordDestination.getY());
+    private static CompletableFuture<List<RvrTripRelation>> submit(ChunkReader reader, CSVFormat format, String chunk, Semaphore inFlight) {
+        inFlight.acquireUninterruptibly();
+        CompletableFuture<List<RvrTripRelation>> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return reader.read(format, chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        future.whenComplete((result, e) -> inFlight.release());
+        return future;
+    }
 
-                builder.destinationCell(indexZones.query(coordDestination).toString());
-                // Read transport type  (FTL or LTL)
-                builder.transportType(CommercialTrafficUtils.TransportType.LTL.toString());
+    private static List<RvrTripRelation> readRelationsFromMainMatrix(CSVFormat format, String chunk) throws IOException {
+        List<RvrTripRelation> tripRelations = new ArrayList<>();
+        try (CSVParser parser = CSVParser.parse(chunk, format)) {
+            for (CSVRecord record : parser) {
+                tripRelations.add(new RvrTripRelation(
+                        // Read locations
+                        record.get(column_originCellId), record.get(column_originLocationId),
+                        record.get(column_destinationLocationId), record.get(column_destinationCellId),
+                        // Read transport type  (FTL or LTL)
+                        record.get(column_transportType),
+                        // Read goods type and tons
+                        record.get(column_goodsType), Double.parseDouble(record.get(column_tonesPerYear)),
+                        //read coordinates
+                        Double.parseDouble(record.get(column_origin_X)), Double.parseDouble(record.get(column_origin_Y)),
+                        Double.parseDouble(record.get(column_destination_X)), Double.parseDouble(record.get(column_destination_Y)),
+                        0, null, null));
+            }
+        }
+        return tripRelations;
+    }
 
-                // Read goods type and parcels per year
-                builder.goodsType("150").parcelHubId(record.get(column_parcelHubId)).parcelOperator(record.get(column_parcelOperator)).parcelsPerYear(
-                        Double.parseDouble(record.get(column_parcelsPerYear)));
+    private static List<RvrTripRelation> readRelationsFromKEPMatrix(CSVFormat format, String chunk, CoordinateTransformation coordinateTransformation,
+                                                                    ShpOptions.Index indexZones, Map<Coord, String> zonesOfCells) throws IOException {
+        List<CSVRecord> records;
+        try (CSVParser parser = CSVParser.parse(chunk, format)) {
+            records = parser.getRecords();
+        }
 
-                // Build trip relation and add to list
-                tripRelations.add(builder.build());
-            }
+        // transform all coordinates of the chunk at once (destination only on 100x100 grid)
+        int n = records.size();
+        Coord[] origins = new Coord[n];
+        Coord[] destinations = new Coord[n];
+        Coord[] gridCells = new Coord[n];
+        for (int i = 0; i < n; i++) {
+            CSVRecord record = records.get(i);
+            gridCells[i] = CoordUtils.createCoord(Double.parseDouble(record.get(column_destination_X)),
+                    Double.parseDouble(record.get(column_destination_Y)));
+            origins[i] = coordinateTransformation.transform(CoordUtils.createCoord(Double.parseDouble(record.get(column_origin_X)),
+                    Double.parseDouble(record.get(column_origin_Y))));
+            destinations[i] = coordinateTransformation.transform(gridCells[i]);
+        }
 
+        List<RvrTripRelation> tripRelations = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            CSVRecord record = records.get(i);
+            Coord destination = destinations[i];
+            String destinationCell = zonesOfCells.computeIfAbsent(gridCells[i], cell -> {
+                // the index may not be safe for concurrent queries, with the cache it is queried only once per cell
+                synchronized (indexZones) {
+                    return indexZones.query(destination).toString();
+                }
+            });
+
+            tripRelations.add(new RvrTripRelation(
+                    // Read hub
+                    null, record.get(column_parcelHubId), null, destinationCell,
+                    // Read transport type  (FTL or LTL)
+                    CommercialTrafficUtils.TransportType.LTL.toString(),
+                    // Read goods type, tons are not given
+                    "150", 0,
+                    origins[i].getX(), origins[i].getY(), destination.getX(), destination.getY(),
+                    // Read parcels per year
+                    Double.parseDouble(record.get(column_parcelsPerYear)), record.get(column_parcelOperator), record.get(column_parcelHubId)));
         }
+        return tripRelations;
     }
-}
 
+    @FunctionalInterface
+    private interface ChunkReader {
+        List<RvrTripRelation> read(CSVFormat format, String chunk) throws IOException;
+    }
+}
@@ -0,0 +1,224 @@
+package org.matsim.prepare.counts;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Parser for one file of long-term count data in the BASt format, containing the data of one station for one month.
+ * The first three rows of the file define its layout, for more information see the documentation file at
+ * shared-svn\projects\nemo_mercator\40_Data\counts\LandesbetriebStrassenbauNRW_Verkehrszentrale\BASt-Bestandsbandformat_Version2004.pdf
+ * <p>
+ * Columns of all lanes are resolved once from the header, rows are tokenized without regular expressions.
+ * Instances are stateless and can be used by multiple threads.
+ */
+final class BastCountFileParser {
+
+	private static final Logger log = LogManager.getLogger(BastCountFileParser.class);
+
+	//need this for proper encoding
+	private static final Charset ENCODING = Charset.forName("windows-1256");
+
+	private final UnaryOperator<String> nameFormatter;
+
+	/**
+	 * @param nameFormatter applied to the station name, e.g. for fixing the encoding
+	 */
+	BastCountFileParser(UnaryOperator<String> nameFormatter) {
+		this.nameFormatter = nameFormatter;
+	}
+
+	/**
+	 * Parse all rows of a file.
+	 *
+	 * @param year year of the data, which is not contained in the rows
+	 * @return the data or null if the station does not distinguish heavy vehicles
+	 */
+	RawStationData parse(File file, int year) throws IOException {
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING))) {
+			return parse(reader, year);
+		}
+	}
+
+	RawStationData parse(BufferedReader reader, int year) throws IOException {
+
+		String headerOne = reader.readLine();
+		String headerTwo = reader.readLine();
+		String headerThree = reader.readLine();
+
+		String countID = headerOne.substring(5, 9);
+
+		String streetID = headerOne.substring(13, 20);
+		streetID = streetID.replaceAll("\\s", "");
+		String countName = headerOne.substring(21, 46);
+
+		countName = countName.replaceAll("\\s", "");
+		countName = nameFormatter.apply(countID + "_" + countName + "_" + streetID);
+
+		int nrOfLanesDir1 = Integer.parseInt(headerTwo.substring(1, 3));
+		int nrOfLanesDir2 = Integer.parseInt(headerTwo.substring(4, 6));
+
+		int nrOfVehicleTypes = Integer.parseInt(headerThree.substring(4, 6));
+		if (nrOfVehicleTypes < 9) {
+			log.warn("data of count " + countID + "" + countName + " is not differentiating Pkw from at least one other class");
+		}
+		int nrOfVehicleGroups = Integer.parseInt(headerThree.substring(1, 3));    // either 1 => all vehicles in one class or 2 => distinction of heavy traffic
+		if (nrOfVehicleGroups == 1) {
+			log.info("skipping data set of station " + countID + "" + countName + " because it doesn't differentiate heavy vehicles from normal ones..");
+			return null;
+		}
+
+		//get column number for each header
+		Map<String, Integer> baseColumnsOfVehicleTypes = new LinkedHashMap<>();
+		String[] headerThreeArray = headerThree.split("\\s+");
+		for (int i = 2; i < headerThreeArray.length; i++) {
+			String vehicleType = headerThreeArray[i];
+			if (!vehicleType.equals(RawDataVehicleTypes.SV.toString())) {
+				baseColumnsOfVehicleTypes.put(vehicleType, nrOfVehicleGroups * (nrOfLanesDir1 + nrOfLanesDir2) + i - 2);
+			} else {
+				baseColumnsOfVehicleTypes.put(vehicleType, i);
+			}
+		}
+
+		// columns of every lane, the lanes of one type are nrOfVehicleTypes columns apart
+		List<String> types = new ArrayList<>(baseColumnsOfVehicleTypes.keySet());
+		int[][] columnsDir1 = new int[types.size()][nrOfLanesDir1];
+		int[][] columnsDir2 = new int[types.size()][nrOfLanesDir2];
+		for (int t = 0; t < types.size(); t++) {
+			int base = baseColumnsOfVehicleTypes.get(types.get(t));
+			for (int lane = 0; lane < nrOfLanesDir1; lane++)
+				columnsDir1[t][lane] = base + lane * nrOfVehicleTypes;
+			for (int lane = 0; lane < nrOfLanesDir2; lane++)
+				columnsDir2[t][lane] = base + (nrOfLanesDir1 + lane) * nrOfVehicleTypes;
+		}
+
+		RawStationData.Builder builder = new RawStationData.Builder(countID, countName, types);
+		Tokens tokens = new Tokens();
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			//letter i stands for data that was somehow edited after investigation. we'll skip the row
+			if (line.length() <= 6 || line.charAt(6) == 'i')
+				continue;
+
+			LocalDate date;
+			try {
+				date = LocalDate.of(year, Integer.parseInt(line.substring(2, 4)), Integer.parseInt(line.substring(4, 6)));
+			} catch (DateTimeException | NumberFormatException e) {
+				log.warn("skipping row with invalid date of station {}: {}", countID, line);
+				continue;
+			}
+
+			tokens.tokenize(line);
+			int hour = Integer.parseInt(line, tokens.start(1), tokens.start(1) + 2, 10);
+
+			builder.addRow(date, hour);
+			for (int t = 0; t < types.size(); t++) {
+				builder.setVolume(t, readTrafficVolume(line, tokens, columnsDir1[t]), readTrafficVolume(line, tokens, columnsDir2[t]));
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Sum up the volumes of all lanes of one direction.
+	 */
+	private static double readTrafficVolume(String line, Tokens tokens, int[] columns) {
+		double trafficVolume = 0.;
+		for (int column : columns) {
+			if (column >= tokens.size())
+				return Double.NaN;
+
+			int start = tokens.start(column);
+			int end = tokens.end(column);
+			double valueOfLane = 0;
+			try {
+				if (end > start && line.charAt(end - 1) == '-') {
+					valueOfLane = Double.parseDouble(line.substring(start, end - 1));
+				} else {
+					return Double.NaN;            //once data set for one lane is invalid, it is invalid for the whole direction
+				}
+
+			} catch (NumberFormatException nfe) {
+				log.warn("could'nt read traffic volumes. error message: \n" + nfe.getMessage());
+			}
+			trafficVolume += valueOfLane;
+		}
+		return trafficVolume;
+	}
+
+	/**
+	 * Positions of whitespace separated tokens in a line, same as {@code line.split("\\s+")}.
+	 */
+	private static final class Tokens {
+
+		private int[] starts = new int[128];
+		private int[] ends = new int[128];
+		private int size;
+
+		void tokenize(String line) {
+			size = 0;
+			int len = line.length();
+			int i = 0;
+
+			// split yields a leading empty token
+			if (len > 0 && isWhitespace(line.charAt(0)))
+				add(0, 0);
+
+			while (i < len) {
+				while (i < len && isWhitespace(line.charAt(i)))
+					i++;
+
+				if (i == len)
+					break;
+
+				int start = i;
+				while (i < len && !isWhitespace(line.charAt(i)))
+					i++;
+
+				add(start, i);
+			}
+		}
+
+		private void add(int start, int end) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			size++;
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Same characters as {@code \\s} in regular expressions.
+		 */
+		private static boolean isWhitespace(char c) {
+			return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+		}
+
+		int start(int i) {
+			return starts[i];
+		}
+
+		int end(int i) {
+			return ends[i];
+		}
+	}
+}
@@ -30,39 +30,80 @@ import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.LeastCostPathCalculator.Path;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.utils.collections.Tuple;
 import org.matsim.vehicles.Vehicle;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.stream.IntStream;
 
 /**
+ * Finds the first link of a short path (by distance) between the two nodes of a counting station.
+ * <p>
+ * As the nodes are usually close to each other, paths are first searched with a bidirectional search that is limited to a
+ * maximum number of links. This is an approximation: The path found is the shortest among the paths with few links, a
+ * shorter path with more links than the limit is not considered. E.g. for a long direct link and a shorter detour via many
+ * short links, the direct link is returned. Only if no path is found this way, a full Dijkstra is run, which can be
+ * enforced with a limit of 0. Each thread uses its own search and router on the shared network, which is only read.
+ * Many stations can be matched in parallel with {@link #getFirstLinksOnTheWayFromNodeToNode(List)}.
+ *
  * @author tschlenther
  *
  */
 public class CountLinkFinder {
 
+	/**
+	 * Default maximum number of links of a path found by the bounded search.
+	 */
+	public static final int DEFAULT_MAX_HOPS = 10;
+
 	private Network network;
 	private List<Path> allFoundPaths = new ArrayList<Path>();
-	private LeastCostPathCalculator dijkstra;
+	private final ThreadLocal<Search> search;
 
 	/**
 	 *
 	 */
 	public CountLinkFinder(Network net) {
+		this(net, DEFAULT_MAX_HOPS);
+	}
+
+	/**
+	 * @param maxHops maximum number of links of a path found by the bounded search, or 0 to always search the shortest path
+	 */
+	public CountLinkFinder(Network net, int maxHops) {
 		this.network = net;
-		SimpleTravelDistanceDisutility travelDistance = new SimpleTravelDistanceDisutility();
-		dijkstra = new DijkstraFactory().createPathCalculator(network, travelDistance, travelDistance);
+		this.search = ThreadLocal.withInitial(() -> new Search(network, maxHops));
 	}
 
 
 	public Id<Link> getFirstLinkOnTheWayFromNodeToNode(Node from, Node to) {
+		return getFirstLinksOnTheWayFromNodeToNode(List.of(new Tuple<>(from, to))).get(0);
+	}
 
-		Path path = dijkstra.calcLeastCostPath(from, to, 1.0, null, null);
-		if (path == null || path.links.isEmpty()) {
-			return null;
+	/**
+	 * Find the first links of the paths between all given pairs of nodes in parallel.
+	 *
+	 * @param nodes pairs of from and to node
+	 * @return first link of each path, in the order of the pairs, or null if no path exists
+	 */
+	public List<Id<Link>> getFirstLinksOnTheWayFromNodeToNode(List<Tuple<Node, Node>> nodes) {
+
+		List<Path> paths = IntStream.range(0, nodes.size())
+				.parallel()
+				.mapToObj(i -> search.get().calcPath(nodes.get(i).getFirst(), nodes.get(i).getSecond()))
+				.toList();
+
+		List<Id<Link>> result = new ArrayList<>(paths.size());
+		for (Path path : paths) {
+			if (path == null || path.links.isEmpty()) {
+				result.add(null);
+			} else {
+				this.allFoundPaths.add(path);
+				result.add(path.links.get(0).getId());
+			}
 		}
-		this.allFoundPaths.add(path);
-		return path.links.get(0).getId();
+
+		return result;
 	}
 
 	public void writeNetworkThatShowsAllFoundPaths(String outputPath) {
@@ -100,6 +141,133 @@ public class CountLinkFinder {
 		return this.allFoundPaths.size();
 	}
 
+	/**
+	 * Search state of one thread. The bounded search runs Dijkstra from both nodes, the forward search along out links and
+	 * the backward search along in links, and stops once no shorter connection can be found.
+	 */
+	private static final class Search {
+
+		private final int maxHopsPerDirection;
+		private final LeastCostPathCalculator dijkstra;
+
+		private final Map<Id<Node>, Label> forward = new HashMap<>();
+		private final Map<Id<Node>, Label> backward = new HashMap<>();
+		private final PriorityQueue<Label> forwardQueue = new PriorityQueue<>();
+		private final PriorityQueue<Label> backwardQueue = new PriorityQueue<>();
+
+		Search(Network network, int maxHops) {
+			this.maxHopsPerDirection = (maxHops + 1) / 2;
+			SimpleTravelDistanceDisutility travelDistance = new SimpleTravelDistanceDisutility();
+			this.dijkstra = new DijkstraFactory().createPathCalculator(network, travelDistance, travelDistance);
+		}
+
+		Path calcPath(Node from, Node to) {
+			Path path = calcBoundedPath(from, to);
+			if (path != null)
+				return path;
+
+			return dijkstra.calcLeastCostPath(from, to, 1.0, null, null);
+		}
+
+		private Path calcBoundedPath(Node from, Node to) {
+
+			forward.clear();
+			backward.clear();
+			forwardQueue.clear();
+			backwardQueue.clear();
+
+			Label start = new Label(from, 0, 0, null);
+			Label end = new Label(to, 0, 0, null);
+			forward.put(from.getId(), start);
+			backward.put(to.getId(), end);
+			forwardQueue.add(start);
+			backwardQueue.add(end);
+
+			double best = Double.POSITIVE_INFINITY;
+			Id<Node> meeting = null;
+
+			while (!forwardQueue.isEmpty() || !backwardQueue.isEmpty()) {
+
+				double minForward = forwardQueue.isEmpty() ? Double.POSITIVE_INFINITY : forwardQueue.peek().dist;
+				double minBackward = backwardQueue.isEmpty() ? Double.POSITIVE_INFINITY : backwardQueue.peek().dist;
+
+				// no path via unsettled nodes can be shorter
+				if (minForward + minBackward >= best)
+					break;
+
+				boolean isForward = minForward <= minBackward;
+				Label label = isForward ? forwardQueue.poll() : backwardQueue.poll();
+				Map<Id<Node>, Label> labels = isForward ? forward : backward;
+				Map<Id<Node>, Label> other = isForward ? backward : forward;
+
+				// outdated entry
+				if (labels.get(label.node.getId()) != label)
+					continue;
+
+				Label opposite = other.get(label.node.getId());
+				if (opposite != null && label.dist + opposite.dist < best) {
+					best = label.dist + opposite.dist;
+					meeting = label.node.getId();
+				}
+
+				if (label.hops >= maxHopsPerDirection)
+					continue;
+
+				Collection<? extends Link> links = isForward ? label.node.getOutLinks().values() : label.node.getInLinks().values();
+				for (Link link : links) {
+					Node next = isForward ? link.getToNode() : link.getFromNode();
+					double dist = label.dist + link.getLength();
+
+					Label existing = labels.get(next.getId());
+					if (existing == null || dist < existing.dist) {
+						Label l = new Label(next, dist, label.hops + 1, link);
+						labels.put(next.getId(), l);
+						(isForward ? forwardQueue : backwardQueue).add(l);
+
+						Label o = other.get(next.getId());
+						if (o != null && dist + o.dist < best) {
+							best = dist + o.dist;
+							meeting = next.getId();
+						}
+					}
+				}
+			}
+
+			if (meeting == null)
+				return null;
+
+			// collect links from the start to the meeting node, and from there to the end
+			LinkedList<Link> links = new LinkedList<>();
+			LinkedList<Node> nodes = new LinkedList<>();
+			Label l = forward.get(meeting);
+			nodes.add(l.node);
+			while (l.via != null) {
+				links.addFirst(l.via);
+				nodes.addFirst(l.via.getFromNode());
+				l = forward.get(l.via.getFromNode().getId());
+			}
+
+			l = backward.get(meeting);
+			while (l.via != null) {
+				links.addLast(l.via);
+				nodes.addLast(l.via.getToNode());
+				l = backward.get(l.via.getToNode().getId());
+			}
+
+			return new Path(new ArrayList<>(nodes), new ArrayList<>(links), best, best);
+		}
+	}
+
+	/**
+	 * Distance and number of links to a node, and the link the node has been reached by.
+	 */
+	private record Label(Node node, double dist, int hops, Link via) implements Comparable<Label> {
+		@Override
+		public int compareTo(Label o) {
+			return Double.compare(dist, o.dist);
+		}
+	}
+
 	private static final class SimpleTravelDistanceDisutility implements TravelTime, TravelDisutility {
 
 		/**
@@ -1,86 +1,108 @@
-
 package org.matsim.prepare.counts;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
+ * Mean hourly volumes of one counting station in both directions. Values are stored in primitive arrays indexed by hour,
+ * which covers hours 0 to 24. The variance of the volumes can be tracked optionally.
+ *
  * @author tschlenther
  */
 public class HourlyCountData {
 
+	static final int HOURS = 25;
+
 	private String id;
 	private Day representedDay;
 
-	private Map<Integer, Integer> R1Divisors;
-	private Map<Integer, Integer> R2Divisors;
-	private HashMap<Integer, Double> R1VolumesPerHour;
-	private HashMap<Integer, Double> R2VolumesPerHour;
+	private final Direction r1;
+	private final Direction r2;
 
 
 	HourlyCountData(String id, Day representedDay) {
+		this(id, representedDay, false);
+	}
+
+	/**
+	 * @param trackVariance whether the variance of the volumes is computed as well
+	 */
+	HourlyCountData(String id, Day representedDay, boolean trackVariance) {
 		this.id = id;
 		this.representedDay = representedDay;
-		this.R1VolumesPerHour = new HashMap<>();
-		this.R2VolumesPerHour = new HashMap<>();
-		this.R1Divisors = new HashMap<>();
-		this.R2Divisors = new HashMap<>();
+		this.r1 = new Direction(trackVariance);
+		this.r2 = new Direction(trackVariance);
+	}
+
+	public String getId() {
+		return this.id;
 	}
 
-	Map<Integer, Double> getR1Values() {
-		return this.R1VolumesPerHour;
+	public Day getRepresentedDay() {
+		return representedDay;
 	}
 
-	Map<Integer, Double> getR2Values() {
-		return this.R2VolumesPerHour;
+	/**
+	 * Whether at least one volume was set for the hour.
+	 */
+	boolean hasVolume(boolean direction1, int hour) {
+		return direction(direction1).counts[hour] > 0;
 	}
 
+	/**
+	 * Mean volume of the hour, or NaN if none was set.
+	 */
+	double getVolume(boolean direction1, int hour) {
+		Direction d = direction(direction1);
+		return d.counts[hour] > 0 ? d.means[hour] : Double.NaN;
+	}
 
-	public String getId() {
-		return this.id;
+	/**
+	 * Number of volumes the mean of the hour is computed from.
+	 */
+	int getNumberOfValues(boolean direction1, int hour) {
+		return direction(direction1).counts[hour];
 	}
 
-	public Day getRepresentedDay() {
-		return representedDay;
+	/**
+	 * Sample variance of the volumes of the hour, or NaN if it is not tracked or less than two volumes were set.
+	 */
+	double getVariance(boolean direction1, int hour) {
+		Direction d = direction(direction1);
+		if (d.m2 == null || d.counts[hour] < 2)
+			return Double.NaN;
+
+		return d.m2[hour] / (d.counts[hour] - 1);
 	}
 
 	void computeAndSetVolume(boolean direction1, int hour, double value) {
-		if (direction1) {
-			Integer divisor = this.R1Divisors.get(hour);
-			if (divisor != null) {
-				Double volume = this.R1VolumesPerHour.get(hour);
-				volume = (((volume * divisor) + value) / (divisor + 1));
-				divisor++;
-				this.R1Divisors.put(hour, divisor);
-				this.R1VolumesPerHour.put(hour, volume);
-			} else {
-				this.R1Divisors.put(hour, 1);
-				this.R1VolumesPerHour.put(hour, value);
-			}
-		} else {
-			Integer divisor = this.R2Divisors.get(hour);
-			if (divisor != null) {
-				Double volume = this.R2VolumesPerHour.get(hour);
-				volume = (((volume * divisor) + value) / (divisor + 1));
-				divisor++;
-				this.R2Divisors.put(hour, divisor);
-				this.R2VolumesPerHour.put(hour, volume);
-			} else {
-				this.R2Divisors.put(hour, 1);
-				this.R2VolumesPerHour.put(hour, value);
-			}
-		}
+		if (hour < 0 || hour >= HOURS)
+			throw new IllegalArgumentException("Hour " + hour + " is out of range for station " + id);
+
+		direction(direction1).add(hour, value);
+	}
+
+	/**
+	 * Merge the hourly means of another data set of the same station into this one, weighted by their number of values.
+	 * Variances are only merged if both data sets track them.
+	 */
+	void merge(HourlyCountData other) {
+		this.r1.merge(other.r1);
+		this.r2.merge(other.r2);
+	}
+
+	private Direction direction(boolean direction1) {
+		return direction1 ? r1 : r2;
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder str = new StringBuilder("Zählstelle:\t" + this.id + "\n - RICHTUNG 1 - : \n");
-		for (Integer hour : this.R1VolumesPerHour.keySet()) {
-			str.append("Std ").append(hour).append("\t").append(this.R1VolumesPerHour.get(hour)).append("\n");
+		for (int hour = 0; hour < HOURS; hour++) {
+			if (r1.counts[hour] > 0)
+				str.append("Std ").append(hour).append("\t").append(r1.means[hour]).append("\n");
 		}
 		str.append("\n -RICHTUNG 2 : \n");
-		for (Integer hour : this.R2VolumesPerHour.keySet()) {
-			str.append("Std ").append(hour).append("\t").append(this.R2VolumesPerHour.get(hour)).append("\n");
+		for (int hour = 0; hour < HOURS; hour++) {
+			if (r2.counts[hour] > 0)
+				str.append("Std ").append(hour).append("\t").append(r2.means[hour]).append("\n");
 		}
 		return str.toString();
 	}
@@ -89,5 +111,42 @@ public class HourlyCountData {
 		WEEKDAY, WEEKEND
 	}
 
+	/**
+	 * Running mean, and optionally the sum of squared deviations, per hour of one direction.
+	 */
+	private static final class Direction {
 
+		private final double[] means = new double[HOURS];
+		private final int[] counts = new int[HOURS];
+		private final double[] m2;
+
+		Direction(boolean trackVariance) {
+			this.m2 = trackVariance ? new double[HOURS] : null;
+		}
+
+		void add(int hour, double value) {
+			int n = ++counts[hour];
+			double delta = value - means[hour];
+			means[hour] += delta / n;
+			if (m2 != null)
+				m2[hour] += delta * (value - means[hour]);
+		}
+
+		void merge(Direction other) {
+			for (int hour = 0; hour < HOURS; hour++) {
+				int n2 = other.counts[hour];
+				if (n2 == 0)
+					continue;
+
+				int n1 = counts[hour];
+				int n = n1 + n2;
+				double delta = other.means[hour] - means[hour];
+				means[hour] += delta * n2 / n;
+				if (m2 != null && other.m2 != null)
+					m2[hour] += other.m2[hour] + delta * delta * ((double) n1 * n2 / n);
+
+				counts[hour] = n;
+			}
+		}
+	}
 }
@@ -40,6 +40,7 @@ import org.matsim.counts.Counts;
 import org.matsim.counts.Volume;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.util.*;
@@ -55,7 +56,6 @@ public class LongTermCountsCreator {
 
 	private static final Logger log = LogManager.getLogger(LongTermCountsCreator.class);
 
-	private static final boolean USE_DATA_WITH_LESS_THAN_9_VEHICLE_CLASSES = true;
 	final List<String> allNeededColumnHeaders = new ArrayList<>();
 	final Network network;
 	final List<Long> countingStationsToOmit = new ArrayList<Long>();
@@ -78,6 +78,7 @@ public class LongTermCountsCreator {
 	private Map<String, String> problemsPerCountingStation = new HashMap<String, String>();
 	private List<String> notLocatedCountingStations = new ArrayList<String>();
 	private Map<String, Id<Link>> linkIDsOfCountingStations = new HashMap<String, Id<Link>>();
+	private RawStationDataCache cache;
 
 	protected LongTermCountsCreator(Set<String> columnCombination, Network network, Geometry filter,
 									String countDataRootDirectory, String countsMapping,
@@ -139,6 +140,10 @@ public class LongTermCountsCreator {
 			log.warn("the given root directory of input count data could not be accessed... aborting");
 			throw new RuntimeException("Could not access root directory of count data");
 		}
+
+		if (cache != null) {
+			log.info("Read count data using cache with {} hits and {} misses", cache.getHits(), cache.getMisses());
+		}
 	}
 
 	//--------------------------------------------------------------------------------------------------------------------------------------
@@ -180,191 +185,143 @@ public class LongTermCountsCreator {
 		return countsPerColumnCombination;
 	}
 
+	/**
+	 * Parses the station files of all months of one year in parallel. Partial data of each file is merged afterward in
+	 * the order of the files.
+	 */
 	protected void analyzeYearDir(File rootDirOfYear, int currentYear) {
 		log.info("Start analysis of directory " + rootDirOfYear.getPath());
 
 		File[] filesInRoot = rootDirOfYear.listFiles();
-		if (filesInRoot != null) {
-			for (File fileInRootDir : filesInRoot) {
-				if (fileInRootDir.isDirectory() && checkIfMonthIsToBeAnalyzed(fileInRootDir.getName())) {
-					analyzeMonth(fileInRootDir, currentYear);
-				}
-			}
-		} else {
+		if (filesInRoot == null) {
 			log.warn("something is wrong with the input directory .... please look here: " + rootDirOfYear.getAbsolutePath());
 			throw new RuntimeException("Didn't find expected data in root directory of counts");
 		}
+
+		List<File> countFiles = new ArrayList<>();
+		for (File fileInRootDir : filesInRoot) {
+			if (fileInRootDir.isDirectory() && checkIfMonthIsToBeAnalyzed(fileInRootDir.getName())) {
+				File[] filesOfMonth = fileInRootDir.listFiles();
+				if (filesOfMonth == null) {
+					log.warn("the following directory is empty or cannot be accessed. Thus, it is skipped. Path = " + fileInRootDir.getAbsolutePath());
+					throw new RuntimeException("Could not access directory: " + fileInRootDir.getAbsolutePath());
+				}
+				countFiles.addAll(Arrays.asList(filesOfMonth));
+			}
+		}
+
+		log.info("Parsing {} count files of year {}", countFiles.size(), currentYear);
+
+		BastCountFileParser parser = new BastCountFileParser(this::fixEncoding);
+		Set<LocalDate> ignoredDates = new HashSet<>(this.datesToIgnore);
+
+		List<StationPartial> partials = countFiles.parallelStream()
+				.map(countFile -> {
+					List<RawStationData> stations;
+					try {
+						stations = readStationData(countFile, currentYear, () -> {
+							RawStationData parsed = parser.parse(countFile, currentYear);
+							return parsed == null ? List.of() : List.of(parsed);
+						});
+					} catch (IOException e) {
+						log.warn("could not access " + countFile.getAbsolutePath() + "\n the corresponding data is not taken into account", e);
+						return StationPartial.EMPTY;
+					}
+
+					if (stations.isEmpty())
+						return StationPartial.EMPTY;
+
+					RawStationData data = stations.get(0);
+
+					if (countingStationsToOmit.contains(Long.parseLong(data.getId()))) {
+						log.info("skipping station " + data.getId());
+						return StationPartial.EMPTY;
+					}
+
+					return new StationPartial(data.getId(), aggregate(data, ignoredDates));
+				})
+				.toList();
+
+		for (int i = 0; i < countFiles.size(); i++) {
+			String name = countFiles.get(i).getName();
+			this.countingStationNames.put(name.substring(0, name.lastIndexOf(".")), countFiles.get(i).getParentFile().getName());
+
+			StationPartial partial = partials.get(i);
+			for (Map.Entry<String, HourlyCountData> e : partial.data().entrySet()) {
+				HourlyCountData existing = this.countingStationsData.get(e.getKey()).putIfAbsent(partial.countID(), e.getValue());
+				if (existing != null) {
+					existing.merge(e.getValue());
+				}
+			}
+		}
 	}
 
 	/**
-	 * goes through the input data file that contains traffic data of one (long-period!) counting station for one month and aggregates the data in the previously defined way.
-	 * the first three rows of the input file define the layout of the file, for more information see the documentation file at
-	 * shared-svn\projects\nemo_mercator\40_Data\counts\LandesbetriebStrassenbauNRW_Verkehrszentrale\BASt-Bestandsbandformat_Version2004.pdf
-	 *
+	 * Reads the stations of one raw data file, from the cache if one is set.
 	 */
-	private void analyzeMonth(File monthDir, int currentYear) {
-		log.info("Start to analyze month " + monthDir.getName());
-
-		File[] countFiles = monthDir.listFiles();
-		if (countFiles != null) {
-			for (int ff = 0; ff < countFiles.length; ff++) {
-				File countFile = countFiles[ff];
-				String name = countFile.getName();
-				this.countingStationNames.put(name.substring(0, name.lastIndexOf(".")), monthDir.getName());
-				try {
-					//need this for proper encoding
-					BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(countFile), "windows-1256"));
-					String headerOne = reader.readLine();
-					String headerTwo = reader.readLine();
-					String headerThree = reader.readLine();
-
-					String countID = headerOne.substring(5, 9);
-
-					Long id = Long.parseLong(countID);
-					if (countingStationsToOmit.contains(id)) {
-						log.info("skipping station " + id);
-						continue;
-					}
+	protected List<RawStationData> readStationData(File source, int year, RawStationDataCache.Loader loader) throws IOException {
+		if (cache == null)
+			return loader.load();
 
-					String streetID = headerOne.substring(13, 20);
-					streetID = streetID.replaceAll("\\s", "");
-					String countName = headerOne.substring(21, 46);
+		return cache.get(source, year, loader);
+	}
 
-					countName = countName.replaceAll("\\s", "");
-					countName = fixEncoding(countID + "_" + countName + "_" + streetID);
+	/**
+	 * Whether data of the given date is to be included.
+	 */
+	protected boolean isDateToBeAnalyzed(LocalDate date, Set<LocalDate> ignoredDates) {
+		return !date.isAfter(lastDayOfAnalysis) && !date.isBefore(firstDayOfAnalysis)
+				&& date.getDayOfWeek().getValue() >= this.weekRange_min && date.getDayOfWeek().getValue() <= this.weekRange_max
+				&& !ignoredDates.contains(date);
+	}
 
-					int nrOfLanesDir1 = Integer.parseInt(headerTwo.substring(1, 3));
-					int nrOfLanesDir2 = Integer.parseInt(headerTwo.substring(4, 6));
+	/**
+	 * Aggregates the rows of one station that lie within the analyzed period, for each column combination contained in the data.
+	 */
+	protected Map<String, HourlyCountData> aggregate(RawStationData data, Set<LocalDate> ignoredDates) {
 
+		Map<String, HourlyCountData> result = new HashMap<>();
+		for (String combination : this.columnCombination) {
 
-					int nrOfVehicleTypes = Integer.parseInt(headerThree.substring(4, 6));
-					if (nrOfVehicleTypes < 9) {
-						log.warn("data of count " + countID + "" + countName + " is not differentiating Pkw from at least one other class");
-						if (!USE_DATA_WITH_LESS_THAN_9_VEHICLE_CLASSES) {
-							log.warn("skipping data set of station " + countID + " because accurancy is not high enough");
-						}
-					}
-					int nrOfVehicleGroups = Integer.parseInt(headerThree.substring(1, 3));    // either 1 => all vehicles in one class or 2 => distinction of heavy traffic
-					if (nrOfVehicleGroups == 1) {
-						log.info("skipping data set of station " + countID + "" + countName + " because it doesn't differentiate heavy vehicles from normal ones..");
-						continue;
-					}
+			//clarify which column combinations are contained in this file
+			int[] types = data.indicesOf(combination.split(";"));
+			if (types == null)
+				continue;
 
-					Map<String, Integer> baseColumnsOfVehicleTypes = new HashMap<String, Integer>();
-
-					//get column number for each header
-					String[] headerThreeArray = headerThree.split("\\s+");
-					for (int i = 2; i < headerThreeArray.length; i++) {
-						String vehicleType = headerThreeArray[i];
-						if (this.allNeededColumnHeaders.contains(vehicleType)) {
-							if (!vehicleType.equals(RawDataVehicleTypes.SV.toString())) {
-								baseColumnsOfVehicleTypes.put(vehicleType, nrOfVehicleGroups * (nrOfLanesDir1 + nrOfLanesDir2) + i - 2);
-							} else {
-								baseColumnsOfVehicleTypes.put(vehicleType, i);
-							}
-						}
-					}
+			HourlyCountData hourlyData = null;
+			for (int row = 0; row < data.size(); row++) {
 
-					//clarify which column combinations are contained in this file
-					List<String> containedCombinationsInThisFile = new ArrayList<String>();
-					for (String combination : this.columnCombination) {
-						boolean allHeadersInThisCountFile = true;
-						String[] headers = combination.split(";");
-						for (String header : headers) {
-							if (!baseColumnsOfVehicleTypes.containsKey(header)) {
-								allHeadersInThisCountFile = false;
-							}
-						}
-						if (allHeadersInThisCountFile) {
-							containedCombinationsInThisFile.add(combination);
-						}
-					}
+				// only hours that are converted to counts are stored
+				if (data.getHour(row) >= HourlyCountData.HOURS || !isDateToBeAnalyzed(data.getDate(row), ignoredDates)) {
+					continue;
+				}
 
-					String line;
-					String[] rowData;
-					while ((line = reader.readLine()) != null) {
-						if (line.charAt(6) != 'i') {                //letter i stands for data that was somehow edited after investigation. we'll skip the row
-							rowData = line.split("\\s+");
-
-							Integer currentMonth = Integer.parseInt(line.substring(2, 4));
-							Integer currentDay = Integer.parseInt(line.substring(4, 6));
-
-							LocalDate currentDate = LocalDate.of(currentYear, currentMonth, currentDay);
-							if (currentDate.isAfter(lastDayOfAnalysis)) {
-								break;
-							}
-							if (currentDate.isAfter(firstDayOfAnalysis.minusDays(1))
-									&& currentDate.getDayOfWeek().getValue() >= this.weekRange_min && currentDate.getDayOfWeek().getValue() <= this.weekRange_max
-									&& !this.datesToIgnore.contains(currentDate)) {
-
-								int hour = Integer.parseInt(rowData[1].substring(0, 2));
-
-								Map<String, Tuple<Double, Double>> trafficVolumesperVehicleType = new HashMap<String, Tuple<Double, Double>>();
-
-								//read traffic volumes for each needed vehicle type (summing up every lane per direction)
-								for (String header : baseColumnsOfVehicleTypes.keySet()) {
-									int jumpLength;
-									if (header.equals(header.equals(RawDataVehicleTypes.SV.toString()))) {
-										jumpLength = nrOfVehicleGroups;
-									} else {
-										jumpLength = nrOfVehicleTypes;
-									}
-									double vol1 = readTrafficVolume(rowData, baseColumnsOfVehicleTypes.get(header), nrOfLanesDir1, jumpLength);
-									double vol2 = readTrafficVolume(rowData, baseColumnsOfVehicleTypes.get(header) + nrOfLanesDir1 * jumpLength, nrOfLanesDir2, jumpLength);
-									trafficVolumesperVehicleType.put(header, new Tuple<Double, Double>(vol1, vol2));
-								}
-
-								//calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
-								for (String combination : containedCombinationsInThisFile) {
-									String[] headers = combination.split(";");
-									Double sumDir1 = 0.;
-									Double sumDir2 = 0.;
-									for (String header : headers) {
-										if (!trafficVolumesperVehicleType.get(header).getFirst().equals(Double.NaN) && !sumDir1.equals(Double.NaN)) {
-											sumDir1 += trafficVolumesperVehicleType.get(header).getFirst();
-										} else { // this means, exclude data which has low reliability (even for one of the mode in the combination)
-											sumDir1 = Double.NaN;
-										}
-										if (!trafficVolumesperVehicleType.get(header).getSecond().equals(Double.NaN) && !sumDir2.equals(Double.NaN)) {
-											sumDir2 += trafficVolumesperVehicleType.get(header).getSecond();
-										} else {
-											sumDir2 = Double.NaN;
-										}
-									}
-
-									//get the HourlyCountData object and set volumes
-									HourlyCountData data = this.countingStationsData.get(combination).get(countID);
-									if (data == null) {
-										data = new HourlyCountData(countName, null); //ID = countID_countName_streetID
-									}
-
-									if (!sumDir1.equals(Double.NaN)) {
-										data.computeAndSetVolume(true, hour, sumDir1);
-									}
-									if (!sumDir2.equals(Double.NaN)) {
-										data.computeAndSetVolume(false, hour, sumDir2);
-									}
-									this.countingStationsData.get(combination).put(countID, data);
-								}
-							}
-						}
-					}
+				//calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
+				// NaN means, exclude data which has low reliability (even for one of the mode in the combination)
+				double sumDir1 = 0.;
+				double sumDir2 = 0.;
+				for (int type : types) {
+					sumDir1 += data.getVolume(type, true, row);
+					sumDir2 += data.getVolume(type, false, row);
+				}
 
-					reader.close();
-				} catch (FileNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					log.warn("could not access " + countFile.getAbsolutePath() + "\n the corresponding data is not taken into account");
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+				if (hourlyData == null) {
+					hourlyData = new HourlyCountData(data.getName(), null); //ID = countID_countName_streetID
 				}
 
+				if (!Double.isNaN(sumDir1)) {
+					hourlyData.computeAndSetVolume(true, data.getHour(row), sumDir1);
+				}
+				if (!Double.isNaN(sumDir2)) {
+					hourlyData.computeAndSetVolume(false, data.getHour(row), sumDir2);
+				}
 			}
-		} else {
-			log.warn("the following directory is empty or cannot be accessed. Thus, it is skipped. Path = " + monthDir.getAbsolutePath());
-			throw new RuntimeException("Could not access directory: " + monthDir.getAbsolutePath());
+
+			if (hourlyData != null)
+				result.put(combination, hourlyData);
 		}
+
+		return result;
 	}
 
 	private void convertDataToMatSimCounts(Counts<Link> container, Map<String, HourlyCountData> dataMap) {
@@ -417,10 +374,10 @@ public class LongTermCountsCreator {
 				}
 
 				for (int i = 1; i < 25; i++) {
-					Double valueDirOne = data.getR1Values().get(i);
-					Double valueDirTwo = data.getR2Values().get(i);
+					double valueDirOne = data.getVolume(true, i);
+					double valueDirTwo = data.getVolume(false, i);
 
-					if (valueDirOne == null) {
+					if (Double.isNaN(valueDirOne)) {
 						String problem = "station " + stationID + " has a non-valid entry for hour " + i + " in direction one. Please check this. The value in the count file is set to -1.";
 						log.warn(problem + " Error occured at creation nr " + cnt);
 						if (this.problemsPerCountingStation.containsKey(stationID)) {
@@ -429,7 +386,7 @@ public class LongTermCountsCreator {
 						this.problemsPerCountingStation.put(stationID, problem);
 						valueDirOne = -1.;
 					}
-					if (valueDirTwo == null) {
+					if (Double.isNaN(valueDirTwo)) {
 						String problem = "station " + stationID + " has a non-valid entry for hour " + i + " in direction two. Please check this. The value in the count file is set to -1.";
 						log.warn(problem + " Error occured at creation nr " + cnt);
 						if (this.problemsPerCountingStation.containsKey(stationID)) {
@@ -462,70 +419,93 @@ public class LongTermCountsCreator {
 
 		CountLinkFinder linkFinder = new CountLinkFinder(network);
 
+		List<String[]> rows = new ArrayList<>();
 		new TabularFileParser().parse(config, new TabularFileHandler() {
 			private boolean header = true;
 
 			@Override
 			public void startRow(String[] row) {
 				if (!header) {
-					Id<Link> countLinkID = null;
-					if (row.length >= 5) {
-						log.warn("station " + row[0] + " is commented like this in the map matching csv file: " + row[4]);
-						log.warn("it is assumed not to be mapmatched properly and thus gets ignored while data conversion...");
-						notMapMatchedStations.add(row[0]);
-					} else {
-						boolean missingNodes = false;
-						Node fromNode = network.getNodes().get(Id.createNodeId(Long.parseLong(row[1])));
-						if (fromNode == null) {
-							String problem = "could not find fromNode " + row[1] + " of station " + row[0];
-							log.warn(problem);
-							log.warn("this means something went wrong in network creation");
-							problemsPerCountingStation.put(row[0], problem);
-							linkIDsOfCounts.put(row[0], Id.createLinkId("noFromNode_" + row[0]));
-							header = false;
-							notLocatedCountingStations.add(row[0]);
-							missingNodes = true;
-						}
-						Id<Node> toNodeID = Id.createNodeId(Long.parseLong(row[2]));
-						Node toNode = network.getNodes().get(toNodeID);
-						if (toNode == null) {
-							String problem = "could not find toNode " + row[2] + " of station " + row[0];
-							log.warn(problem);
-							log.warn("this means something went wrong in network creation");
-							problemsPerCountingStation.put(row[0], problem);
-							linkIDsOfCounts.put(row[0], Id.createLinkId("noToNode_" + row[0]));
-							header = false;
-							notLocatedCountingStations.add(row[0]);
-							missingNodes = true;
-						}
-
-						if (missingNodes) return;
-
-						for (Link outlink : fromNode.getOutLinks().values()) {
-							if (outlink.getToNode().getId().equals(toNodeID)) {
-								countLinkID = outlink.getId();
-							}
-						}
-						if (countLinkID == null) {
-							String problem;
-
-							countLinkID = linkFinder.getFirstLinkOnTheWayFromNodeToNode(fromNode, toNode);
-							if (countLinkID == null) {
-								problem = "COULD FIND NO PATH LEADING FROM NODE " + fromNode.getId() + " TO NODE " + toNodeID;
-								log.warn(problem);
-								countLinkID = Id.createLinkId("pathCouldNotBeCreated_" + row[0]);
-								problemsPerCountingStation.put(row[0], problem);
-								notLocatedCountingStations.add(row[0]);
-							}
-						}
-					}
-					if (countLinkID != null && isWithinFilter(network.getLinks().get(countLinkID)))
-						linkIDsOfCounts.put(row[0], countLinkID);
+					rows.add(row);
 				}
 				header = false;
 			}
 
 		});
+
+		// search paths of all stations whose nodes are not directly connected at once
+		List<Integer> rowsToSearch = new ArrayList<>();
+		List<Tuple<Node, Node>> nodesToSearch = new ArrayList<>();
+		for (int i = 0; i < rows.size(); i++) {
+			String[] row = rows.get(i);
+			if (row.length >= 5)
+				continue;
+
+			Node fromNode = network.getNodes().get(Id.createNodeId(Long.parseLong(row[1])));
+			Node toNode = network.getNodes().get(Id.createNodeId(Long.parseLong(row[2])));
+			if (fromNode != null && toNode != null && findDirectLink(fromNode, toNode.getId()) == null) {
+				rowsToSearch.add(i);
+				nodesToSearch.add(new Tuple<>(fromNode, toNode));
+			}
+		}
+
+		log.info("searching paths for " + nodesToSearch.size() + " stations whose nodes are not connected directly");
+		List<Id<Link>> foundLinks = linkFinder.getFirstLinksOnTheWayFromNodeToNode(nodesToSearch);
+		Map<Integer, Id<Link>> foundLinkPerRow = new HashMap<>();
+		for (int i = 0; i < rowsToSearch.size(); i++) {
+			foundLinkPerRow.put(rowsToSearch.get(i), foundLinks.get(i));
+		}
+
+		for (int i = 0; i < rows.size(); i++) {
+			String[] row = rows.get(i);
+			Id<Link> countLinkID = null;
+			if (row.length >= 5) {
+				log.warn("station " + row[0] + " is commented like this in the map matching csv file: " + row[4]);
+				log.warn("it is assumed not to be mapmatched properly and thus gets ignored while data conversion...");
+				notMapMatchedStations.add(row[0]);
+			} else {
+				boolean missingNodes = false;
+				Node fromNode = network.getNodes().get(Id.createNodeId(Long.parseLong(row[1])));
+				if (fromNode == null) {
+					String problem = "could not find fromNode " + row[1] + " of station " + row[0];
+					log.warn(problem);
+					log.warn("this means something went wrong in network creation");
+					problemsPerCountingStation.put(row[0], problem);
+					linkIDsOfCounts.put(row[0], Id.createLinkId("noFromNode_" + row[0]));
+					notLocatedCountingStations.add(row[0]);
+					missingNodes = true;
+				}
+				Id<Node> toNodeID = Id.createNodeId(Long.parseLong(row[2]));
+				Node toNode = network.getNodes().get(toNodeID);
+				if (toNode == null) {
+					String problem = "could not find toNode " + row[2] + " of station " + row[0];
+					log.warn(problem);
+					log.warn("this means something went wrong in network creation");
+					problemsPerCountingStation.put(row[0], problem);
+					linkIDsOfCounts.put(row[0], Id.createLinkId("noToNode_" + row[0]));
+					notLocatedCountingStations.add(row[0]);
+					missingNodes = true;
+				}
+
+				if (missingNodes) continue;
+
+				countLinkID = findDirectLink(fromNode, toNodeID);
+				if (countLinkID == null) {
+					String problem;
+
+					countLinkID = foundLinkPerRow.get(i);
+					if (countLinkID == null) {
+						problem = "COULD FIND NO PATH LEADING FROM NODE " + fromNode.getId() + " TO NODE " + toNodeID;
+						log.warn(problem);
+						countLinkID = Id.createLinkId("pathCouldNotBeCreated_" + row[0]);
+						problemsPerCountingStation.put(row[0], problem);
+						notLocatedCountingStations.add(row[0]);
+					}
+				}
+			}
+			if (countLinkID != null && isWithinFilter(network.getLinks().get(countLinkID)))
+				linkIDsOfCounts.put(row[0], countLinkID);
+		}
 		log.info("-----------------------------------------------------");
 		log.info("read in " + linkIDsOfCounts.size() + " link-id's");
 		this.linkIDsOfCountingStations = linkIDsOfCounts;
@@ -539,6 +519,19 @@ public class LongTermCountsCreator {
 		}
 	}
 
+	/**
+	 * Return the last out link of the from node that leads to the to node, or null if there is none.
+	 */
+	private static Id<Link> findDirectLink(Node fromNode, Id<Node> toNodeID) {
+		Id<Link> result = null;
+		for (Link outlink : fromNode.getOutLinks().values()) {
+			if (outlink.getToNode().getId().equals(toNodeID)) {
+				result = outlink.getId();
+			}
+		}
+		return result;
+	}
+
 	private boolean isWithinFilter(Link link) {
 		try {
 			return (filter == null || link == null || filter.contains(MGC.coord2Point(link.getCoord())));
@@ -624,26 +617,6 @@ public class LongTermCountsCreator {
 		return string;
 	}
 
-	private double readTrafficVolume(String[] rowData, int baseColumn, int nrOfLanes, int jumpLength) {
-		double trafficVolume = 0.;
-		for (int lane = 1; lane <= nrOfLanes; lane++) {
-			String valueOfLaneString = rowData[baseColumn + (lane - 1) * jumpLength];
-			double valueOfLane = 0;
-			try {
-				if (valueOfLaneString.endsWith("-")) {
-					valueOfLane = Double.parseDouble(valueOfLaneString.substring(0, valueOfLaneString.length() - 1));
-				} else {
-					return Double.NaN;            //once data set for one lane is invalid, it is invalid for the whole direction
-				}
-
-			} catch (NumberFormatException nfe) {
-				log.warn("could'nt read traffic volumes. error message: \n" + nfe.getMessage());
-			}
-			trafficVolume += valueOfLane;
-		}
-		return trafficVolume;
-	}
-
 	private boolean checkIfMonthIsToBeAnalyzed(String name) {
 		int month = Integer.parseInt(name.substring(name.length() - 2));
 		return (month >= this.monthRange_min && month <= monthRange_max && (month <= lastDayOfAnalysis.getMonthValue()));
@@ -689,6 +662,13 @@ public class LongTermCountsCreator {
 		this.datesToIgnore.addAll(datesToIgnore);
 	}
 
+	/**
+	 * Cache parsed raw data in the given directory. If null, raw data is always parsed.
+	 */
+	void setCacheDirectory(Path cacheDirectory) {
+		this.cache = cacheDirectory != null ? new RawStationDataCache(cacheDirectory) : null;
+	}
+
 	void addToStationsToOmit(Collection<Long> stationIds) {
 		this.countingStationsToOmit.addAll(stationIds);
 	}
@@ -709,6 +689,13 @@ public class LongTermCountsCreator {
 		this.weekRange_max = weekRange_max;
 	}
 
+	/**
+	 * Aggregated data of one station file per column combination.
+	 */
+	private record StationPartial(String countID, Map<String, HourlyCountData> data) {
+		static final StationPartial EMPTY = new StationPartial(null, Map.of());
+	}
+
 	public static abstract class AbstractBuilder<T> {
 		String loggingFolder = "./";
 		Long[] stationIdsToOmit = new Long[0];
@@ -723,6 +710,7 @@ public class LongTermCountsCreator {
 		Geometry filter;
 		String rootDir;
 		String idMapping;
+		Path cacheDirectory;
 
 		/**
 		 * Several logging files are written during run method of LongTermCountsCreator
@@ -820,6 +808,16 @@ public class LongTermCountsCreator {
 			return this;
 		}
 
+		/**
+		 * Parsed raw data is cached in this directory, so that it is only parsed once for every source file.
+		 * @param path directory of the cache. Default is none, i.e. raw data is always parsed
+		 * @return Current Builder instance
+		 */
+		public AbstractBuilder<T> withCacheDirectory(Path path) {
+			this.cacheDirectory = path;
+			return this;
+		}
+
 		/**
 		 * Create a new instance
 		 * @return new instance of counts creator
@@ -850,6 +848,7 @@ public class LongTermCountsCreator {
 			creator.setWeekRangeMax(weekRangeMax);
 			creator.setDatesToIgnore(datesToIgnore);
 			creator.addToStationsToOmit(Arrays.asList(stationIdsToOmit));
+			creator.setCacheDirectory(cacheDirectory);
 			return creator;
 		}
 	}
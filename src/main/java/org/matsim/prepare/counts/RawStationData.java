@@ -0,0 +1,152 @@
+package org.matsim.prepare.counts;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hourly observations of one counting station as read from one raw data file, before any filtering or aggregation.
+ * Volumes are stored per vehicle type and direction, summed over all lanes. Invalid volumes are {@link Double#NaN}.
+ */
+final class RawStationData {
+
+	private final String id;
+	private final String name;
+	private final List<String> types;
+	private final int[] days;
+	private final int[] hours;
+	private final double[][] dir1;
+	private final double[][] dir2;
+
+	/**
+	 * @param id    id of the station
+	 * @param name  name used for the created counts
+	 * @param types vehicle types contained in the data
+	 * @param days  date of each row as epoch day
+	 * @param hours hour of each row
+	 * @param dir1  volumes in direction one, indexed by type and row
+	 * @param dir2  volumes in direction two, indexed by type and row
+	 */
+	RawStationData(String id, String name, List<String> types, int[] days, int[] hours, double[][] dir1, double[][] dir2) {
+		this.id = id;
+		this.name = name;
+		this.types = List.copyOf(types);
+		this.days = days;
+		this.hours = hours;
+		this.dir1 = dir1;
+		this.dir2 = dir2;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	List<String> getTypes() {
+		return types;
+	}
+
+	int size() {
+		return days.length;
+	}
+
+	LocalDate getDate(int row) {
+		return LocalDate.ofEpochDay(days[row]);
+	}
+
+	int getEpochDay(int row) {
+		return days[row];
+	}
+
+	int getHour(int row) {
+		return hours[row];
+	}
+
+	double getVolume(int type, boolean direction1, int row) {
+		return direction1 ? dir1[type][row] : dir2[type][row];
+	}
+
+	/**
+	 * Resolve vehicle types to their index.
+	 *
+	 * @return indices of the types or null if at least one of them is not contained
+	 */
+	int[] indicesOf(String... types) {
+		int[] result = new int[types.length];
+		for (int i = 0; i < types.length; i++) {
+			result[i] = this.types.indexOf(types[i]);
+			if (result[i] < 0)
+				return null;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "RawStationData{id=" + id + ", name=" + name + ", types=" + types + ", rows=" + days.length + "}";
+	}
+
+	/**
+	 * Collects rows of a station.
+	 */
+	static final class Builder {
+
+		private final String id;
+		private final String name;
+		private final List<String> types;
+
+		private int size;
+		private int[] days = new int[744];
+		private int[] hours = new int[744];
+		private final double[][] dir1;
+		private final double[][] dir2;
+
+		Builder(String id, String name, List<String> types) {
+			this.id = id;
+			this.name = name;
+			this.types = types;
+			this.dir1 = new double[types.size()][days.length];
+			this.dir2 = new double[types.size()][days.length];
+		}
+
+		/**
+		 * Add a row. Volumes of all types need to be set afterward with {@link #setVolume(int, double, double)}.
+		 */
+		void addRow(LocalDate date, int hour) {
+			if (size == days.length) {
+				int capacity = size * 2;
+				days = Arrays.copyOf(days, capacity);
+				hours = Arrays.copyOf(hours, capacity);
+				for (int t = 0; t < dir1.length; t++) {
+					dir1[t] = Arrays.copyOf(dir1[t], capacity);
+					dir2[t] = Arrays.copyOf(dir2[t], capacity);
+				}
+			}
+
+			days[size] = (int) date.toEpochDay();
+			hours[size] = hour;
+			size++;
+		}
+
+		/**
+		 * Set volumes of the last added row.
+		 */
+		void setVolume(int type, double volumeDir1, double volumeDir2) {
+			dir1[type][size - 1] = volumeDir1;
+			dir2[type][size - 1] = volumeDir2;
+		}
+
+		RawStationData build() {
+			double[][] d1 = new double[dir1.length][];
+			double[][] d2 = new double[dir2.length][];
+			for (int t = 0; t < dir1.length; t++) {
+				d1[t] = Arrays.copyOf(dir1[t], size);
+				d2[t] = Arrays.copyOf(dir2[t], size);
+			}
+			return new RawStationData(id, name, types, Arrays.copyOf(days, size), Arrays.copyOf(hours, size), d1, d2);
+		}
+	}
+}
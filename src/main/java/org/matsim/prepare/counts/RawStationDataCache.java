@@ -0,0 +1,197 @@
+package org.matsim.prepare.counts;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of parsed raw count data on disk. Entries are keyed by the hash of the source file and the year of the data, so
+ * that changed files are parsed again. Because no filtering or aggregation is applied before caching, counts can be
+ * created with different date ranges or column combinations without parsing the raw data again.
+ * <p>
+ * Each entry stores all stations of one source file in columnar, compressed form.
+ */
+final class RawStationDataCache {
+
+	private static final Logger log = LogManager.getLogger(RawStationDataCache.class);
+
+	private static final int MAGIC = 0x52534443;
+
+	/**
+	 * Needs to be increased whenever the format or the parsing of raw files changes.
+	 */
+	private static final int VERSION = 1;
+
+	private final Path directory;
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	RawStationDataCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Return the cached data of a source file, or load and store it if absent. This method can be called by multiple threads.
+	 *
+	 * @param source file the data is read from
+	 * @param year   year of the data
+	 * @param loader parses the source file
+	 */
+	List<RawStationData> get(File source, int year, Loader loader) throws IOException {
+
+		Path entry = directory.resolve(key(source, year) + ".bin.gz");
+
+		if (Files.exists(entry)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(entry))))) {
+				List<RawStationData> result = read(in);
+				hits.incrementAndGet();
+				return result;
+			} catch (IOException e) {
+				log.warn("Could not read cache entry {} of {}, parsing it again", entry, source, e);
+			}
+		}
+
+		misses.incrementAndGet();
+		List<RawStationData> result = loader.load();
+
+		// write to a temporary file first, so that other processes never see incomplete entries
+		Files.createDirectories(directory);
+		Path tmp = Files.createTempFile(directory, "entry", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+				write(out, result);
+			}
+			Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		return result;
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "RawStationDataCache{directory=" + directory + ", hits=" + hits + ", misses=" + misses + "}";
+	}
+
+	static void write(DataOutput out, List<RawStationData> stations) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(stations.size());
+
+		for (RawStationData data : stations) {
+			out.writeUTF(data.getId());
+			out.writeUTF(data.getName());
+
+			out.writeInt(data.getTypes().size());
+			for (String type : data.getTypes()) {
+				out.writeUTF(type);
+			}
+
+			int size = data.size();
+			out.writeInt(size);
+			for (int row = 0; row < size; row++)
+				out.writeInt(data.getEpochDay(row));
+			for (int row = 0; row < size; row++)
+				out.writeByte(data.getHour(row));
+
+			for (int type = 0; type < data.getTypes().size(); type++) {
+				for (int row = 0; row < size; row++)
+					out.writeDouble(data.getVolume(type, true, row));
+				for (int row = 0; row < size; row++)
+					out.writeDouble(data.getVolume(type, false, row));
+			}
+		}
+	}
+
+	static List<RawStationData> read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a cache entry");
+
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported version " + version);
+
+		int n = in.readInt();
+		List<RawStationData> result = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			String id = in.readUTF();
+			String name = in.readUTF();
+
+			int nrOfTypes = in.readInt();
+			List<String> types = new ArrayList<>(nrOfTypes);
+			for (int t = 0; t < nrOfTypes; t++) {
+				types.add(in.readUTF());
+			}
+
+			int size = in.readInt();
+			int[] days = new int[size];
+			int[] hours = new int[size];
+			for (int row = 0; row < size; row++)
+				days[row] = in.readInt();
+			for (int row = 0; row < size; row++)
+				hours[row] = in.readByte();
+
+			double[][] dir1 = new double[nrOfTypes][size];
+			double[][] dir2 = new double[nrOfTypes][size];
+			for (int t = 0; t < nrOfTypes; t++) {
+				for (int row = 0; row < size; row++)
+					dir1[t][row] = in.readDouble();
+				for (int row = 0; row < size; row++)
+					dir2[t][row] = in.readDouble();
+			}
+
+			result.add(new RawStationData(id, name, types, days, hours, dir1, dir2));
+		}
+
+		return result;
+	}
+
+	private static String key(File source, int year) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try (InputStream in = new FileInputStream(source)) {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+
+		return HexFormat.of().formatHex(digest.digest()) + "-" + year;
+	}
+
+	/**
+	 * Parses the stations of a source file.
+	 */
+	@FunctionalInterface
+	interface Loader {
+		List<RawStationData> load() throws IOException;
+	}
+}
@@ -0,0 +1,403 @@
+package org.matsim.prepare.counts;
+
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Parser for the excel files of short-term counts, each containing the data of one station. Only the first sheet is
+ * read, using the event based API of POI for xls and a SAX parser for xlsx files, which both pass the raw cell values.
+ * Thus, no object model of the sheet is created and only cells of the needed columns are kept.
+ * <p>
+ * The layout of the sheet is fixed: The street id is in row 3, vehicle types are in the header in row 20 and the data
+ * starts in row 21. Volumes of direction two are 10 columns to the right of direction one.
+ */
+final class ShortTermCountFileParser {
+
+	private static final int STREET_ROW = 3;
+	private static final int HEADER_ROW = 20;
+	private static final int DATE_COLUMN = 0;
+	private static final int HOUR_COLUMN = 1;
+	private static final int STREET_COLUMN = 1;
+	private static final int VALIDITY_COLUMN = 4;
+	private static final int SV_COLUMN = 6;
+	private static final int DIRECTION_TWO_OFFSET = 10;
+
+	private final UnaryOperator<String> nameFormatter;
+
+	/**
+	 * @param nameFormatter applied to the station name, e.g. for fixing the encoding
+	 */
+	ShortTermCountFileParser(UnaryOperator<String> nameFormatter) {
+		this.nameFormatter = nameFormatter;
+	}
+
+	static boolean isCountFile(String name) {
+		return name.endsWith("xls") || name.endsWith("xlsx");
+	}
+
+	/**
+	 * Parse all count files of an archive, reading them directly from the archive.
+	 */
+	List<RawStationData> parseZip(File zip, int year) throws IOException {
+
+		List<RawStationData> result = new ArrayList<>();
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				// only files at the top level of the archive contain count data
+				if (entry.isDirectory() || entry.getName().contains("/") || !isCountFile(entry.getName()))
+					continue;
+
+				try (InputStream in = new BufferedInputStream(zipFile.getInputStream(entry))) {
+					result.add(parse(in, entry.getName(), year));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	RawStationData parse(File file, int year) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return parse(in, file.getName(), year);
+		}
+	}
+
+	/**
+	 * Parse one count file.
+	 *
+	 * @param fileName name of the file, which starts with the station id
+	 * @param year     year of the data, which is not contained in the rows
+	 */
+	RawStationData parse(InputStream in, String fileName, int year) throws IOException {
+
+		SheetCollector collector = new SheetCollector(fileName.substring(0, 8), year);
+		if (fileName.endsWith("xlsx")) {
+			readXlsx(in, collector);
+		} else {
+			readXls(in, collector);
+		}
+
+		collector.endSheet();
+		return collector.build(fileName);
+	}
+
+	private static void readXls(InputStream in, SheetCollector collector) throws IOException {
+
+		try (POIFSFileSystem fs = new POIFSFileSystem(in)) {
+			HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(new XlsListener(collector));
+			new HSSFEventFactory().processWorkbookEvents(request, fs);
+		}
+	}
+
+	private static void readXlsx(InputStream in, SheetCollector collector) throws IOException {
+
+		OPCPackage pkg;
+		try {
+			pkg = OPCPackage.open(in);
+		} catch (OpenXML4JException e) {
+			throw new IOException(e);
+		}
+
+		try {
+			XSSFReader reader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+
+			Iterator<InputStream> sheets = reader.getSheetsData();
+			if (!sheets.hasNext())
+				throw new IOException("Workbook does not contain a sheet");
+
+			try (InputStream sheet = sheets.next()) {
+				XMLReader parser = XMLHelper.newXMLReader();
+				parser.setContentHandler(new XlsxHandler(collector, strings));
+				parser.parse(new InputSource(sheet));
+			}
+		} catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+			throw new IOException(e);
+		} finally {
+			// the package is only read, it must not be saved on close
+			pkg.revert();
+		}
+	}
+
+	/**
+	 * Receives the cells of the first sheet in row order and collects the station data.
+	 */
+	private final class SheetCollector {
+
+		private final String countID;
+		private final int year;
+
+		private String streetID = "";
+		private final Map<String, Integer> baseColumnsOfVehicleTypes = new LinkedHashMap<>();
+		private List<String> types;
+		private boolean[] neededColumns;
+		private RawStationData.Builder builder;
+
+		private int currentRow = -1;
+		private Object[] cells = new Object[32];
+
+		SheetCollector(String countID, int year) {
+			this.countID = countID;
+			this.year = year;
+		}
+
+		/**
+		 * Receive a cell, either a {@link String} or a {@link Double} value.
+		 */
+		void cell(int row, int column, Object value) {
+			if (row != currentRow) {
+				endRow();
+				currentRow = row;
+			}
+
+			// in data rows, only the needed columns are kept
+			if (row > HEADER_ROW && (neededColumns == null || column >= neededColumns.length || !neededColumns[column]))
+				return;
+
+			if (column >= cells.length)
+				cells = Arrays.copyOf(cells, Math.max(column + 1, cells.length * 2));
+
+			cells[column] = value;
+		}
+
+		void endSheet() {
+			endRow();
+			currentRow = -1;
+		}
+
+		private void endRow() {
+			if (currentRow == STREET_ROW) {
+				if (cells[STREET_COLUMN] instanceof String s)
+					streetID = s;
+			} else if (currentRow == HEADER_ROW) {
+				readHeader();
+			} else if (currentRow > HEADER_ROW && builder != null) {
+				readData();
+			}
+
+			Arrays.fill(cells, null);
+		}
+
+		private void readHeader() {
+			for (int clm = 0; clm < cells.length; clm++) {
+				if (cells[clm] instanceof String header && !baseColumnsOfVehicleTypes.containsKey(header)) {
+					baseColumnsOfVehicleTypes.put(header, clm);
+				}
+			}
+			//need to do this manually for KFZ and SV, as they are written in small letters in the short term excel files
+			baseColumnsOfVehicleTypes.put(RawDataVehicleTypes.SV.toString(), SV_COLUMN);
+
+			int maxColumn = Math.max(VALIDITY_COLUMN, Collections.max(baseColumnsOfVehicleTypes.values()) + DIRECTION_TWO_OFFSET);
+			neededColumns = new boolean[maxColumn + 1];
+			neededColumns[DATE_COLUMN] = true;
+			neededColumns[HOUR_COLUMN] = true;
+			neededColumns[VALIDITY_COLUMN] = true;
+			for (int column : baseColumnsOfVehicleTypes.values()) {
+				neededColumns[column] = true;
+				neededColumns[column + DIRECTION_TWO_OFFSET] = true;
+			}
+
+			if (cells.length < neededColumns.length)
+				cells = new Object[neededColumns.length];
+
+			String name = streetID.isEmpty() ? countID : countID + "_" + streetID;
+			types = new ArrayList<>(baseColumnsOfVehicleTypes.keySet());
+			builder = new RawStationData.Builder(countID, nameFormatter.apply(name), types);
+		}
+
+		private void readData() {
+			if (!(cells[DATE_COLUMN] instanceof String date) || !(cells[HOUR_COLUMN] instanceof String time))
+				return;
+
+			int dayOfMonth = Integer.parseInt(date.substring(0, 2));
+			int month = Integer.parseInt(date.substring(3, 5));
+			int hour = Integer.parseInt(time.substring(0, 2));
+
+			// rows which are not marked with '-' are not valid
+			boolean isValidData = "-".equals(cells[VALIDITY_COLUMN]);
+
+			builder.addRow(LocalDate.of(year, month, dayOfMonth), hour);
+			for (int type = 0; type < types.size(); type++) {
+				if (isValidData) {
+					int column = baseColumnsOfVehicleTypes.get(types.get(type));
+					builder.setVolume(type, readVolume(cells[column]), readVolume(cells[column + DIRECTION_TWO_OFFSET]));
+				} else {
+					builder.setVolume(type, Double.NaN, Double.NaN);
+				}
+			}
+		}
+
+		RawStationData build(String fileName) throws IOException {
+			if (builder == null)
+				throw new IOException("No header row found in " + fileName);
+
+			return builder.build();
+		}
+	}
+
+	/**
+	 * Volume of a cell, or NaN if it does not contain a number.
+	 */
+	private static double readVolume(Object value) {
+		if (value instanceof Double d)
+			return (int) d.doubleValue();
+
+		if (value instanceof String s) {
+			try {
+				return Integer.parseInt(s.trim());
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+
+		return Double.NaN;
+	}
+
+	/**
+	 * Forwards the cell records of the first sheet of a xls workbook.
+	 */
+	private static final class XlsListener implements HSSFListener {
+
+		private final SheetCollector collector;
+		private SSTRecord sst;
+		private int sheet = -1;
+
+		XlsListener(SheetCollector collector) {
+			this.collector = collector;
+		}
+
+		@Override
+		public void processRecord(org.apache.poi.hssf.record.Record record) {
+
+			if (record instanceof BOFRecord bof) {
+				if (bof.getType() == BOFRecord.TYPE_WORKSHEET)
+					sheet++;
+				return;
+			}
+
+			if (record instanceof SSTRecord s) {
+				sst = s;
+				return;
+			}
+
+			if (sheet != 0)
+				return;
+
+			if (record instanceof LabelSSTRecord label) {
+				collector.cell(label.getRow(), label.getColumn(), sst.getString(label.getSSTIndex()).getString());
+			} else if (record instanceof LabelRecord label) {
+				collector.cell(label.getRow(), label.getColumn(), label.getValue());
+			} else if (record instanceof NumberRecord number) {
+				collector.cell(number.getRow(), number.getColumn(), number.getValue());
+			} else if (record instanceof FormulaRecord formula) {
+				collector.cell(formula.getRow(), formula.getColumn(), formula.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Forwards the cells of a xlsx sheet with their raw values, in the same way as {@link XlsListener}: Numbers are passed
+	 * as {@link Double}, text as {@link String}. Number formats of the cells, e.g. thousands separators or dates, are not
+	 * applied.
+	 */
+	private static final class XlsxHandler extends DefaultHandler {
+
+		private final SheetCollector collector;
+		private final ReadOnlySharedStringsTable strings;
+		private final StringBuilder text = new StringBuilder();
+
+		private CellReference ref;
+		private String type;
+		private boolean inValue;
+
+		XlsxHandler(SheetCollector collector, ReadOnlySharedStringsTable strings) {
+			this.collector = collector;
+			this.strings = strings;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			switch (localName) {
+				case "c" -> {
+					String r = attributes.getValue("r");
+					ref = r != null ? new CellReference(r) : null;
+					type = attributes.getValue("t");
+					text.setLength(0);
+				}
+				// value of the cell, or text of an inline string
+				case "v", "t" -> inValue = ref != null;
+				default -> {
+				}
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inValue)
+				text.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			switch (localName) {
+				case "v", "t" -> inValue = false;
+				case "c" -> {
+					if (ref != null && !text.isEmpty())
+						collector.cell(ref.getRow(), ref.getCol(), value());
+					ref = null;
+				}
+				default -> {
+				}
+			}
+		}
+
+		private Object value() {
+			String value = text.toString();
+			if (type == null || type.equals("n")) {
+				try {
+					return Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					return value;
+				}
+			}
+
+			// shared strings are referenced by their index
+			if (type.equals("s"))
+				return strings.getItemAt(Integer.parseInt(value)).getString();
+
+			// inline and formula strings, booleans and errors are passed as text
+			return value;
+		}
+	}
+}
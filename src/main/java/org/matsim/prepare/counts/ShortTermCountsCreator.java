@@ -24,21 +24,12 @@ package org.matsim.prepare.counts;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-import org.apache.poi.ss.usermodel.CellType;
 import org.locationtech.jts.geom.Geometry;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.core.utils.collections.Tuple;
 import org.matsim.counts.Counts;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -121,30 +112,22 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
 		return result;
 	}
 
+	/**
+	 * Reads the count directories and archives of one year in parallel. Stations are added afterward in the order of the files.
+	 */
 	@Override
 	protected void analyzeYearDir(File rootDirOfYear, int currentYear) {
 		log.info("Start analysis of directory " + rootDirOfYear.getPath());
-		List<String> alreadyHandledCounts = new ArrayList<String>();
-		UnZipFile unzipper = new UnZipFile();
 		File[] filesInRoot = rootDirOfYear.listFiles();
 		if (filesInRoot != null) {
-			for (File fileInRootDir : filesInRoot) {
-				if (fileInRootDir.isDirectory() && !alreadyHandledCounts.contains(fileInRootDir.getName())) {
-					analyzeCountDirectory(fileInRootDir, currentYear);
-				} else if (fileInRootDir.getName().endsWith("zip")) {
-					String countID = fileInRootDir.getName().substring(0, fileInRootDir.getName().lastIndexOf("."));
-					if (!alreadyHandledCounts.contains(countID)) {
-						try {
-							File unzippedFolder = unzipper.unZipFile(fileInRootDir);
-							analyzeCountDirectory(unzippedFolder, currentYear);
-
-							deleteFileOrFolder(unzippedFolder.toPath());
-						} catch (Exception e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-					}
-				}
+			ShortTermCountFileParser parser = new ShortTermCountFileParser(this::fixEncoding);
+			List<List<RawStationData>> stations = Arrays.stream(filesInRoot)
+					.parallel()
+					.map(fileInRootDir -> readCountFiles(fileInRootDir, currentYear, parser))
+					.toList();
+
+			for (List<RawStationData> stationsOfFile : stations) {
+				stationsOfFile.forEach(this::addStation);
 			}
 		} else {
 			log.warn("something is wrong with the year directory .... please look here: " + rootDirOfYear.getAbsolutePath());
@@ -153,138 +136,56 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
 
 	}
 
-	private void analyzeCountDirectory(File countDir, int currentYear) {
-		File[] countData = countDir.listFiles();
-		if (countData != null) {
-			try {
-				for (File data : countData) {
-					if (data.getName().endsWith("xls")) {
-						if (!this.countingStationsToOmit.contains(Long.parseLong(data.getName().substring(0, 8)))) {
-							readExcel(new FileInputStream(data), data.getName().substring(0, 8), currentYear);
-						}
-					}
-				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	private List<RawStationData> readCountFiles(File fileInRootDir, int currentYear, ShortTermCountFileParser parser) {
+		try {
+			if (fileInRootDir.isDirectory()) {
+				return analyzeCountDirectory(fileInRootDir, currentYear, parser);
+			} else if (fileInRootDir.getName().endsWith("zip")) {
+				return readStationData(fileInRootDir, currentYear, () -> parser.parseZip(fileInRootDir, currentYear));
 			}
-		} else {
-			log.warn("something is wrong with the count directory .... please look here: " + countDir.getAbsolutePath());
-			throw new RuntimeException("Error while searching in the count directory. Check out: " + countDir.getAbsolutePath());
+		} catch (IOException e) {
+			log.warn("could not read " + fileInRootDir.getAbsolutePath(), e);
 		}
 
+		return List.of();
 	}
 
-	private void readExcel(FileInputStream fileInputStream, String countID, int year) {
-		POIFSFileSystem fs;
-
-		try {
-			fs = new POIFSFileSystem(fileInputStream);
-			HSSFWorkbook wb = new HSSFWorkbook(fs);
-			HSSFSheet sheet = wb.getSheetAt(0);
-			HSSFRow row;
-			HSSFCell cell;
-
-			String streetID = sheet.getRow(3).getCell(1).getStringCellValue();
-			String name;
-			if (!streetID.equals("")) {
-				name = countID + "_" + streetID;
-			} else {
-				name = countID;
-			}
-			name = fixEncoding(name);
-
-			row = sheet.getRow(20);
-			Map<String, Integer> baseColumnsOfVehicleTypes = new HashMap<String, Integer>();
-			for (int clm = row.getFirstCellNum(); clm < row.getLastCellNum(); clm++) {
-				cell = row.getCell(clm);
-				if (this.allNeededColumnHeaders.contains(cell.getStringCellValue()) && !baseColumnsOfVehicleTypes.containsKey(cell.getStringCellValue())) {
-					baseColumnsOfVehicleTypes.put(cell.getStringCellValue(), clm);
-				}
-			}
-			//need to do this manually for KFZ and SV, as they are written in small letters in the short term excel files
-			if (allNeededColumnHeaders.contains(RawDataVehicleTypes.SV.toString())) {
-				baseColumnsOfVehicleTypes.put(RawDataVehicleTypes.SV.toString(), 6);
-			}
-
-			for (int currentRow = 21; currentRow <= sheet.getLastRowNum(); currentRow++) {
-				row = sheet.getRow(currentRow);
-
-				int dayOfMonth = Integer.parseInt(row.getCell(0).getStringCellValue().substring(0, 2));
-				int month = Integer.parseInt(row.getCell(0).getStringCellValue().substring(3, 5));
-
-				LocalDate currentDate = LocalDate.of(year, month, dayOfMonth);
-
-				cell = row.getCell(4);
-				boolean isValidData = false;
-				if (cell.getCellType() == CellType.NUMERIC) {
-//					System.out.println("cell type is numeric: value=" + cell.getNumericCellValue());
-
-				} else if (cell.getCellType() == CellType.STRING) {
-					if (cell.getStringCellValue().equals("-")) {
-						isValidData = true;
-					}
-				} else {
-					System.out.println("cell type = " + cell.getCellType());
-				}
+	/**
+	 * Short term counts are only filtered by day of the week.
+	 */
+	@Override
+	protected boolean isDateToBeAnalyzed(LocalDate date, Set<LocalDate> ignoredDates) {
+		return this.weekRange_min <= date.getDayOfWeek().getValue() && date.getDayOfWeek().getValue() <= this.weekRange_max;
+	}
 
-				if (this.weekRange_min <= currentDate.getDayOfWeek().getValue() && currentDate.getDayOfWeek().getValue() <= this.weekRange_max
-						&& isValidData) {
-
-					Map<String, Tuple<Integer, Integer>> trafficVolumesPerVehicleType = new HashMap<String, Tuple<Integer, Integer>>();
-					int hour = Integer.parseInt(row.getCell(1).getStringCellValue().substring(0, 2));
-
-					for (String header : baseColumnsOfVehicleTypes.keySet()) {
-						int vlmDir1 = getIntegerValue(row.getCell(baseColumnsOfVehicleTypes.get(header)));
-						int vlmDir2;
-						if (header.equals(header.equals(RawDataVehicleTypes.SV))) {
-							vlmDir2 = getIntegerValue(row.getCell(baseColumnsOfVehicleTypes.get(header) + 2));
-						} else {
-							vlmDir2 = getIntegerValue(row.getCell(baseColumnsOfVehicleTypes.get(header) + 10));
-						}
-						trafficVolumesPerVehicleType.put(header, new Tuple<Integer, Integer>(vlmDir1, vlmDir2));
-					}
-
-					//calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
-					for (String combination : this.countingStationsData.keySet()) {
-						String[] headers = combination.split(";");
-						Double sumDir1 = 0.;
-						Double sumDir2 = 0.;
-						for (String header : headers) {
-							sumDir1 += trafficVolumesPerVehicleType.get(header).getFirst();
-							sumDir2 += trafficVolumesPerVehicleType.get(header).getSecond();
-						}
-
-						//get the HourlyCountData object and set volumes
-						HourlyCountData data = this.countingStationsData.get(combination).get(countID);
-						if (data == null) {
-							data = new HourlyCountData(name, null); //ID = countID_countName_streetID
-						}
-
-						data.computeAndSetVolume(true, hour, sumDir1);
-						data.computeAndSetVolume(false, hour, sumDir2);
-						this.countingStationsData.get(combination).put(countID, data);
-					}
+	private void addStation(RawStationData data) {
+		if (this.countingStationsToOmit.contains(Long.parseLong(data.getId()))) {
+			return;
+		}
 
-				}
+		for (Map.Entry<String, HourlyCountData> e : aggregate(data, Set.of()).entrySet()) {
+			HourlyCountData existing = this.countingStationsData.get(e.getKey()).putIfAbsent(data.getId(), e.getValue());
+			if (existing != null) {
+				existing.merge(e.getValue());
 			}
-			wb.close();
-
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-
-
 	}
 
-	int getIntegerValue(HSSFCell cell) {
-		if (cell.getCellType() == CellType.NUMERIC) {
-			return (int) cell.getNumericCellValue();
+	private List<RawStationData> analyzeCountDirectory(File countDir, int currentYear, ShortTermCountFileParser parser) throws IOException {
+		File[] countData = countDir.listFiles();
+		List<RawStationData> result = new ArrayList<>();
+		if (countData != null) {
+			for (File data : countData) {
+				if (ShortTermCountFileParser.isCountFile(data.getName())) {
+					result.addAll(readStationData(data, currentYear, () -> List.of(parser.parse(data, currentYear))));
+				}
+			}
 		} else {
-			return Integer.parseInt(cell.getStringCellValue());
+			log.warn("something is wrong with the count directory .... please look here: " + countDir.getAbsolutePath());
+			throw new RuntimeException("Error while searching in the count directory. Check out: " + countDir.getAbsolutePath());
 		}
+
+		return result;
 	}
 
 	public static class Builder extends LongTermCountsCreator.AbstractBuilder<ShortTermCountsCreator> {
@@ -306,6 +207,7 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
 			creator.setWeekRangeMax(weekRangeMax);
 			creator.setDatesToIgnore(datesToIgnore);
 			creator.addToStationsToOmit(Arrays.asList(stationIdsToOmit));
+			creator.setCacheDirectory(cacheDirectory);
 			return creator;
 		}
 	}
@@ -0,0 +1,51 @@
+package org.matsim.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ODMatrixTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testMergeAndBinary() throws Exception {
+
+		List<String> zones = List.of("a", "b", ZoneLocator.OUTSIDE);
+
+		ODMatrix first = new ODMatrix(zones);
+		first.add(0, 1, "work", 1);
+		first.add(0, 1, "work", 2);
+		first.add(2, 0, "home", 1);
+
+		// different purpose order in the second matrix
+		ODMatrix second = new ODMatrix(zones);
+		second.add(2, 0, "leisure", 5);
+		second.add(2, 0, "home", 1);
+		second.add(0, 1, "work", 1);
+
+		first.merge(second);
+
+		assertEquals(4, first.get(0, 1, "work"));
+		assertEquals(2, first.get(2, 0, "home"));
+		assertEquals(5, first.get(2, 0, "leisure"));
+		assertEquals(0, first.get(1, 0, "work"));
+		assertEquals(0, first.get(0, 1, "unknown"));
+		assertEquals(3, first.size());
+
+		Path path = tempDir.resolve("matrix.bin");
+		first.writeBinary(path);
+
+		ODMatrix read = ODMatrix.readBinary(path);
+		assertEquals(zones, read.getZones());
+		assertEquals(first.getPurposes(), read.getPurposes());
+		assertEquals(4, read.get(0, 1, "work"));
+		assertEquals(5, read.get(2, 0, "leisure"));
+		assertEquals(3, read.size());
+	}
+}
@@ -0,0 +1,146 @@
+package org.matsim.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TripsReaderTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testRead() throws Exception {
+
+		Path file = tempDir.resolve("test.output_trips.csv.gz");
+		int n = 200_000;
+
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8))) {
+			writer.write("person;trip_id;start_x;start_y;end_activity_type;end_x;main_mode\n");
+			for (int i = 0; i < n; i++) {
+				writer.write("p" + i + ";\"p" + i + "_1\";" + (i + 0.25) + ";-" + (i + 1) + ";" + (i % 2 == 0 ? "home_3600" : "\"work;1\"") + ";;car\n");
+			}
+		}
+
+		List<long[]> states = new TripsReader(file)
+				.doubleColumns("start_x", "start_y", "end_x")
+				.stringColumns("end_activity_type")
+				.threads(4)
+				.read(() -> new long[2], (state, batch) -> {
+					for (int i = 0; i < batch.size(); i++) {
+						long idx = (long) batch.getDouble(0, i);
+						assertEquals(idx + 0.25, batch.getDouble(0, i));
+						assertEquals(-(idx + 1), batch.getDouble(1, i));
+						assertTrue(Double.isNaN(batch.getDouble(2, i)));
+						assertEquals(idx % 2 == 0 ? "home_3600" : "work;1", batch.getString(0, i));
+						state[0]++;
+						state[1] += idx;
+					}
+				});
+
+		assertEquals(4, states.size());
+
+		long rows = states.stream().mapToLong(s -> s[0]).sum();
+		long sum = states.stream().mapToLong(s -> s[1]).sum();
+
+		assertEquals(n, rows);
+		assertEquals((long) n * (n - 1) / 2, sum);
+	}
+
+	@Test
+	void testLongLines() throws Exception {
+
+		Path file = tempDir.resolve("long_trips.csv");
+
+		// the first line doubles the buffer twice, the rest after it is larger than a chunk
+		String first = "a".repeat(5 << 19);
+		String second = "b".repeat(4 << 19);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			writer.write("id|value|text\n");
+			writer.write("0|1.5|" + first + "\n");
+			writer.write("1|2.5|" + second + "\n");
+			writer.write("2|3.5|c\n");
+		}
+
+		List<double[]> states = new TripsReader(file)
+				.delimiter('|')
+				.doubleColumns("id", "value")
+				.stringColumns("text")
+				.threads(1)
+				.read(() -> new double[3], (state, batch) -> {
+					for (int i = 0; i < batch.size(); i++) {
+						int idx = (int) batch.getDouble(0, i);
+						assertEquals(idx + 1.5, batch.getDouble(1, i));
+						state[idx] = batch.getString(0, i).length();
+					}
+				});
+
+		assertArrayEquals(new double[]{first.length(), second.length(), 1}, states.getFirst());
+	}
+
+	@Test
+	void testEscapedQuotesAndMissingFields() throws Exception {
+
+		Path file = tempDir.resolve("quotes.csv");
+		Files.writeString(file, """
+				id;name;x;y
+				1;"say ""hi""";"1.5";2.5
+				2;"a;""b""";"-3"
+				3
+				4;plain;;4.5
+				""");
+
+		List<List<String>> states = new TripsReader(file)
+				.doubleColumns("id", "x", "y")
+				.stringColumns("name")
+				.threads(1)
+				.read(ArrayList::new, (state, batch) -> {
+					for (int i = 0; i < batch.size(); i++) {
+						state.add(batch.getDouble(0, i) + "|" + batch.getString(0, i) + "|" + batch.getDouble(1, i) + "|" + batch.getDouble(2, i));
+					}
+				});
+
+		assertEquals(List.of(
+				"1.0|say \"hi\"|1.5|2.5",
+				"2.0|a;\"b\"|-3.0|NaN",
+				"3.0|null|NaN|NaN",
+				"4.0|plain|NaN|4.5"
+		), states.getFirst());
+	}
+
+	@Test
+	void testInvalidThreads() {
+		assertThrows(IllegalArgumentException.class, () -> new TripsReader(tempDir.resolve("trips.csv")).threads(0));
+	}
+
+	@Test
+	void testParseDouble() {
+
+		List<String> values = List.of("0", "-0.5", "+12.75", "368456.123", "5.7E3", "1234567890.123456789", "0.000001");
+		for (String v : values) {
+			byte[] bytes = (";" + v + ";").getBytes(StandardCharsets.US_ASCII);
+			assertEquals(Double.parseDouble(v), TripsReader.parseDouble(bytes, 1, bytes.length - 1), v);
+		}
+	}
+
+	@Test
+	void testMissingColumn() throws Exception {
+
+		Path file = tempDir.resolve("trips.csv");
+		Files.writeString(file, "a;b\n1;2\n");
+
+		assertThrows(IllegalArgumentException.class, () -> new TripsReader(file).doubleColumns("c").read(() -> null, (s, b) -> {
+		}));
+	}
+}
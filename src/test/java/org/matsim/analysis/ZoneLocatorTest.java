@@ -0,0 +1,59 @@
+package org.matsim.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZoneLocatorTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	void testLocate() {
+
+		// two zones touching at x = 1000, the second one not aligned with the grid
+		Map<String, Geometry> zones = Map.of(
+				"a", box(0, 0, 1000, 1000),
+				"b", box(1000, 0, 1950, 1000)
+		);
+
+		ZoneLocator locator = new ZoneLocator(zones, 300);
+
+		assertEquals("a", locator.locate(150, 150));
+		assertEquals("a", locator.locate(999, 500));
+		assertEquals("b", locator.locate(1001, 500));
+		assertEquals("b", locator.locate(1940, 500));
+		assertEquals(ZoneLocator.OUTSIDE, locator.locate(1960, 500));
+		assertEquals(ZoneLocator.OUTSIDE, locator.locate(-5000, -5000));
+	}
+
+	@Test
+	void testCacheIsConsistent() {
+
+		Map<String, Geometry> zones = Map.of(
+				"a", box(0, 0, 1234, 777),
+				"b", box(1234, 0, 2500, 777)
+		);
+
+		ZoneLocator cached = new ZoneLocator(zones, 100);
+		ZoneLocator uncached = new ZoneLocator(zones, 0);
+
+		for (double x = -150; x < 2700; x += 37) {
+			for (double y = -150; y < 900; y += 41) {
+				assertEquals(uncached.locate(x, y), cached.locate(x, y), "Mismatch at " + x + "," + y);
+			}
+		}
+	}
+
+	private Geometry box(double minX, double minY, double maxX, double maxY) {
+		return factory.createPolygon(new Coordinate[]{
+				new Coordinate(minX, minY), new Coordinate(maxX, minY), new Coordinate(maxX, maxY),
+				new Coordinate(minX, maxY), new Coordinate(minX, minY)
+		});
+	}
+}
@@ -26,6 +26,7 @@ import org.matsim.testcases.MatsimTestUtils;
 import org.geotools.api.feature.simple.SimpleFeatureType;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class AdjustDemandTest {
@@ -71,6 +72,107 @@ public class AdjustDemandTest {
         }
     }
 
+    @Test
+    public void testReproducible() throws Exception {
+
+        var cells = createCells();
+        var population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        for (var cell : cells.entrySet()) {
+            addPersonsForCell(population, cell.getValue().getGeometry(), cells.get("1").getGeometry(), cell.getKey(), 200);
+        }
+        var index = AdjustDemand.createSpatialIndex(population);
+        Map<String, AdjustDemand.Adjustments> adjustments = Map.of(
+                "1", new AdjustDemand.Adjustments(List.of(), List.of(new AdjustDemand.Adjustment(List.of(), 1.5))),
+                "2", new AdjustDemand.Adjustments(List.of(), List.of(new AdjustDemand.Adjustment(List.of(), 0.5))),
+                "3", new AdjustDemand.Adjustments(List.of(), List.of(new AdjustDemand.Adjustment(List.of(), 1.3))),
+                "4", new AdjustDemand.Adjustments(List.of(), List.of(new AdjustDemand.Adjustment(List.of(), 0.8)))
+        );
+
+        var first = adjustCopy(population, cells, index, adjustments, 1);
+        var second = adjustCopy(population, cells, index, adjustments, 1);
+        Assertions.assertEquals(first, second);
+
+        // the result does not depend on the number of threads
+        var pool = new ForkJoinPool(1);
+        try {
+            var sequential = pool.submit(() -> adjustCopy(population, cells, index, adjustments, 1)).get();
+            Assertions.assertEquals(first, sequential);
+        } finally {
+            pool.shutdown();
+        }
+
+        Assertions.assertNotEquals(first, adjustCopy(population, cells, index, adjustments, 2));
+    }
+
+    /**
+     * Adjust a copy of the population and return the activity coordinates of all persons in the result.
+     */
+    private static Map<Id<Person>, List<Coord>> adjustCopy(Population population, Map<String, PreparedGeometry> cells, AdjustDemand.QuadTree<Id<Person>> index,
+                                                           Map<String, AdjustDemand.Adjustments> adjustments, long seed) {
+        var copy = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        population.getPersons().values().forEach(copy::addPerson);
+
+        AdjustDemand.adjust(copy, cells, index, adjustments, seed);
+
+        Map<Id<Person>, List<Coord>> result = new TreeMap<>();
+        for (var person : copy.getPersons().values()) {
+            result.put(person.getId(), TripStructureUtils.getActivities(person.getSelectedPlan(), TripStructureUtils.StageActivityHandling.ExcludeStageActivities)
+                    .stream().map(Activity::getCoord).toList());
+        }
+        return result;
+    }
+
+    @Test
+    public void testCompiledFilters() {
+
+        var factory = PopulationUtils.getFactory();
+        List<Object> values = Arrays.asList("a", "b", "5", 5, 3.5, 10L, Double.NaN, null, "");
+        List<Person> persons = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            var person = factory.createPerson(Id.createPersonId(i));
+            if (values.get(i) != null)
+                person.getAttributes().putAttribute("attr", values.get(i));
+            // second column with the values in reverse order
+            var other = values.get(values.size() - 1 - i);
+            if (other != null)
+                person.getAttributes().putAttribute("other", other);
+            persons.add(person);
+        }
+
+        List<AdjustDemand.Filter> filters = List.of(
+                new AdjustDemand.YesFilter(),
+                new AdjustDemand.Exact("a"),
+                new AdjustDemand.Exact("5"),
+                new AdjustDemand.Exact(""),
+                // not contained in the data at all
+                new AdjustDemand.Exact("missing"),
+                new AdjustDemand.Range(0, 10),
+                new AdjustDemand.Range(3.5, 4),
+                new AdjustDemand.Range(5, 11),
+                new AdjustDemand.Range(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY),
+                // other filter types are evaluated on the attribute itself
+                value -> value == null,
+                value -> value instanceof Integer
+        );
+
+        var columns = List.of("attr", "other");
+        var table = new AdjustDemand.AttributeTable(columns, persons);
+
+        for (var first : filters) {
+            for (var second : filters) {
+                var adjustments = new AdjustDemand.Adjustments(columns, List.of());
+                var adjustment = new AdjustDemand.Adjustment(List.of(first, second), 1.0);
+                var compiled = table.compile(adjustments, adjustment);
+
+                for (int i = 0; i < persons.size(); i++) {
+                    var attributes = persons.get(i).getAttributes();
+                    boolean expected = first.test(attributes.getAttribute("attr")) && second.test(attributes.getAttribute("other"));
+                    Assertions.assertEquals(expected, compiled.test(i), "Filters " + first + ", " + second + " on person " + i);
+                }
+            }
+        }
+    }
+
     @Test
     public void testClonedActivities() {
 
@@ -0,0 +1,57 @@
+package org.matsim.prepare;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AreaClassifierTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	void testSameAsGeometry() {
+
+		Geometry area = factory.createPoint(new Coordinate(5000, 5000)).buffer(3000);
+		AreaClassifier classifier = new AreaClassifier(area, 250);
+
+		Random rnd = new Random(0);
+		for (int i = 0; i < 10_000; i++) {
+			Coord from = new Coord(rnd.nextDouble() * 12000 - 1000, rnd.nextDouble() * 12000 - 1000);
+			Coord to = new Coord(rnd.nextDouble() * 12000 - 1000, rnd.nextDouble() * 12000 - 1000);
+
+			assertEquals(area.contains(point(from)), classifier.contains(from), "contains " + from);
+			assertEquals(area.intersects(factory.createLineString(new Coordinate[]{coordinate(from), coordinate(to)})),
+					classifier.intersects(from, to), "intersects " + from + " " + to);
+		}
+	}
+
+	@Test
+	void testBoundary() {
+
+		Geometry area = factory.toGeometry(new Envelope(0, 1000, 0, 1000));
+		AreaClassifier classifier = new AreaClassifier(area, 100);
+
+		// points on the boundary are not contained
+		assertFalse(classifier.contains(0, 500));
+		assertFalse(classifier.contains(1000, 1000));
+		assertFalse(classifier.contains(1000.1, 500));
+		assertTrue(classifier.contains(500, 500));
+	}
+
+	private Geometry point(Coord coord) {
+		return factory.createPoint(coordinate(coord));
+	}
+
+	private static Coordinate coordinate(Coord coord) {
+		return new Coordinate(coord.getX(), coord.getY());
+	}
+}
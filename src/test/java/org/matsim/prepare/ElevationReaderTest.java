@@ -0,0 +1,182 @@
+package org.matsim.prepare;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.geometry.transformations.IdentityTransformation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElevationReaderTest {
+
+    private static final double MIN_X = 1000;
+    private static final double MIN_Y = 2000;
+    private static final double PIXEL = 10;
+
+    /**
+     * Larger than one tile in both directions, the last tile row and column are only partially filled.
+     */
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 270;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testTiledMatchesRaster() throws Exception {
+
+        Path tiff = writeTiff("dem.tif", WIDTH, HEIGHT, (col, row) -> col * 3 + row * 7 + (col * row) % 11);
+
+        ElevationReader raster = new ElevationReader(List.of(tiff.toString()), new IdentityTransformation(), null);
+        ElevationReader tiled = new ElevationReader(List.of(tiff.toString()), new IdentityTransformation(), tempDir.resolve("cache"));
+
+        // first, last and the rows and columns on both sides of the tile border
+        int[] cols = {0, 1, 254, 255, 256, 257, WIDTH - 2, WIDTH - 1};
+        int[] rows = {0, 1, 254, 255, 256, 257, HEIGHT - 2, HEIGHT - 1};
+
+        for (int col : cols) {
+            for (int row : rows) {
+                // pixel center, and positions between the pixel centers
+                for (double offset : new double[]{0.5, 0.05, 0.95}) {
+                    Coord coord = new Coord(MIN_X + (col + offset) * PIXEL, MIN_Y + (HEIGHT - row - offset) * PIXEL);
+                    for (ElevationReader.Sampling sampling : ElevationReader.Sampling.values()) {
+                        assertEquals(raster.getElevationAt(coord, sampling), tiled.getElevationAt(coord, sampling), 1e-9,
+                                sampling + " at col " + col + ", row " + row + ", offset " + offset);
+                    }
+                }
+            }
+        }
+
+        // the value of the last pixel is actually stored, and not the padding of the partial tile
+        Coord last = new Coord(MIN_X + (WIDTH - 0.5) * PIXEL, MIN_Y + 0.5 * PIXEL);
+        double expected = (WIDTH - 1) * 3 + (HEIGHT - 1) * 7 + ((WIDTH - 1) * (HEIGHT - 1)) % 11;
+        assertEquals(expected, tiled.getElevationAt(last));
+
+        // outside of the map
+        assertEquals(0, tiled.getElevationAt(new Coord(MIN_X - 1, MIN_Y - 1)));
+    }
+
+    @Test
+    void testTileFileInvalidation() throws Exception {
+
+        Path cache = tempDir.resolve("cache");
+        Path tiff = writeTiff("dem.tif", WIDTH, HEIGHT, (col, row) -> col);
+        Coord coord = new Coord(MIN_X + 5.5 * PIXEL, MIN_Y + 5.5 * PIXEL);
+
+        assertEquals(5, new ElevationReader(List.of(tiff.toString()), new IdentityTransformation(), cache).getElevationAt(coord));
+
+        // same size, but different content and an older modification time than the tile file
+        FileTime modified = Files.getLastModifiedTime(tiff);
+        writeTiff("dem.tif", WIDTH, HEIGHT, (col, row) -> col + 1);
+        Files.setLastModifiedTime(tiff, modified);
+
+        assertEquals(6, new ElevationReader(List.of(tiff.toString()), new IdentityTransformation(), cache).getElevationAt(coord));
+    }
+
+    @Test
+    void testBilinear() throws Exception {
+
+        // 3 x 2 pixels of 10m, the pixel centers lie at x = 5, 15, 25 and y = 15, 5
+        Path tiff = writeTiff("small.tif", 3, 2, (col, row) -> col * 10 + row * 40, 0, 0);
+
+        for (Path cache : new Path[]{null, tempDir.resolve("cache")}) {
+            ElevationReader reader = new ElevationReader(List.of(tiff.toString()), new IdentityTransformation(), cache);
+
+            // center between the four upper left pixels: (0 + 10 + 40 + 50) / 4
+            assertEquals(25, bilinear(reader, 10, 10), 1e-9);
+
+            // 0.25 between column 1 and 2, 0.25 between row 0 and 1: 12.5 * 0.75 + 52.5 * 0.25
+            assertEquals(22.5, bilinear(reader, 17.5, 12.5), 1e-9);
+
+            // on a pixel center the value of the pixel is returned
+            assertEquals(50, bilinear(reader, 15, 5), 1e-9);
+            assertEquals(20, bilinear(reader, 25, 15), 1e-9);
+
+            // the outer half pixels are clamped to the border
+            assertEquals(0, bilinear(reader, 2, 18), 1e-9);
+            assertEquals(60, bilinear(reader, 29, 1), 1e-9);
+            assertEquals(20, bilinear(reader, 1, 10), 1e-9);
+        }
+    }
+
+    @Test
+    void testAssignElevations() throws Exception {
+
+        Path tiff = writeTiff("dem.tif", WIDTH, HEIGHT, (col, row) -> col * 3 + row * 7 + (col * row) % 11);
+        ElevationReader reader = new ElevationReader(List.of(tiff.toString()), new IdentityTransformation(), tempDir.resolve("cache"));
+
+        for (ElevationReader.Sampling sampling : ElevationReader.Sampling.values()) {
+
+            // more nodes than one chunk, some of them outside of the map
+            Network network = NetworkUtils.createNetwork();
+            Random rnd = new Random(0);
+            for (int i = 0; i < 10_000; i++) {
+                double x = MIN_X - 100 + rnd.nextDouble() * (WIDTH * PIXEL + 200);
+                double y = MIN_Y - 100 + rnd.nextDouble() * (HEIGHT * PIXEL + 200);
+                NetworkUtils.createAndAddNode(network, Id.createNodeId(i), new Coord(x, y));
+            }
+
+            Map<Id<Node>, Double> expected = new HashMap<>();
+            for (Node node : network.getNodes().values()) {
+                expected.put(node.getId(), reader.getElevationAt(node.getCoord(), sampling));
+            }
+
+            reader.assignElevations(network, sampling);
+
+            for (Node node : network.getNodes().values()) {
+                assertEquals(expected.get(node.getId()), node.getCoord().getZ(), sampling + " at " + node.getId());
+            }
+        }
+    }
+
+    private static double bilinear(ElevationReader reader, double x, double y) {
+        return reader.getElevationAt(new Coord(x, y), ElevationReader.Sampling.BILINEAR);
+    }
+
+    /**
+     * Write a geo tiff with the given values, where row 0 is the northern border of the map.
+     */
+    private Path writeTiff(String name, int width, int height, IntBinaryOperator values) throws Exception {
+        return writeTiff(name, width, height, values, MIN_X, MIN_Y);
+    }
+
+    private Path writeTiff(String name, int width, int height, IntBinaryOperator values, double minX, double minY) throws Exception {
+
+        float[][] matrix = new float[height][width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                matrix[row][col] = values.applyAsInt(col, row);
+            }
+        }
+
+        var envelope = new ReferencedEnvelope(minX, minX + width * PIXEL, minY, minY + height * PIXEL, CRS.decode("EPSG:25832"));
+        GridCoverage2D coverage = new GridCoverageFactory().create(name, matrix, envelope);
+
+        Path file = tempDir.resolve(name);
+        GeoTiffWriter writer = new GeoTiffWriter(file.toFile());
+        try {
+            writer.write(coverage, null);
+        } finally {
+            writer.dispose();
+        }
+        return file;
+    }
+}
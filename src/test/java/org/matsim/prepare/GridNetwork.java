@@ -0,0 +1,64 @@
+package org.matsim.prepare;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.Set;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Square grid networks shared by the tests. Nodes are named {@code x_y}, neighbouring nodes are connected by a link in
+ * each direction, named {@code from-to}. All links have a capacity of 1000 and one lane.
+ */
+public final class GridNetwork {
+
+	private GridNetwork() {
+	}
+
+	/**
+	 * Create a grid with the same free speed on all links.
+	 *
+	 * @param size    number of nodes in each direction
+	 * @param spacing distance between neighbouring nodes, which is also the length of the links
+	 */
+	public static Network create(int size, double spacing, double freespeed, Set<String> modes) {
+		return create(size, spacing, () -> freespeed, modes);
+	}
+
+	/**
+	 * Create a grid with individual free speeds, which are requested in the order the links are created.
+	 */
+	public static Network create(int size, double spacing, DoubleSupplier freespeed, Set<String> modes) {
+		Network network = NetworkUtils.createNetwork();
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y), new Coord(x * spacing, y * spacing));
+			}
+		}
+
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (x + 1 < size)
+					connect(network, node(network, x, y), node(network, x + 1, y), spacing, freespeed, modes);
+				if (y + 1 < size)
+					connect(network, node(network, x, y), node(network, x, y + 1), spacing, freespeed, modes);
+			}
+		}
+		return network;
+	}
+
+	public static Node node(Network network, int x, int y) {
+		return network.getNodes().get(Id.createNodeId(x + "_" + y));
+	}
+
+	private static void connect(Network network, Node a, Node b, double length, DoubleSupplier freespeed, Set<String> modes) {
+		Link ab = NetworkUtils.createAndAddLink(network, Id.createLinkId(a.getId() + "-" + b.getId()), a, b, length, freespeed.getAsDouble(), 1000, 1);
+		Link ba = NetworkUtils.createAndAddLink(network, Id.createLinkId(b.getId() + "-" + a.getId()), b, a, length, freespeed.getAsDouble(), 1000, 1);
+		ab.setAllowedModes(modes);
+		ba.setAllowedModes(modes);
+	}
+}
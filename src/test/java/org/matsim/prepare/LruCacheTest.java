@@ -0,0 +1,77 @@
+package org.matsim.prepare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LruCacheTest {
+
+	@Test
+	void testEvictionOrder() {
+
+		// small caches consist of a single segment
+		LruCache<String, String> cache = new LruCache<>(3);
+		List<String> loaded = new ArrayList<>();
+		Function<String, String> loader = k -> {
+			loaded.add(k);
+			return k.toUpperCase();
+		};
+
+		cache.get("a", loader);
+		cache.get("b", loader);
+		cache.get("c", loader);
+
+		// access makes "a" the most recently used entry, so that "b" is evicted first
+		assertEquals("A", cache.get("a", loader));
+		cache.get("d", loader);
+		assertEquals(3, cache.size());
+
+		cache.get("a", loader);
+		cache.get("c", loader);
+		cache.get("d", loader);
+		assertEquals(List.of("a", "b", "c", "d"), loaded);
+
+		assertEquals("B", cache.get("b", loader));
+		assertEquals(List.of("a", "b", "c", "d", "b"), loaded);
+
+		assertEquals(4, cache.getHits());
+		assertEquals(5, cache.getMisses());
+		assertEquals(4. / 9, cache.getHitRate(), 1e-9);
+	}
+
+	@Test
+	void testCapacity() {
+
+		// large enough for multiple segments
+		int capacity = 1000;
+		LruCache<Integer, Integer> cache = new LruCache<>(capacity);
+		for (int i = 0; i < 10 * capacity; i++) {
+			cache.get(i, Function.identity());
+		}
+
+		assertEquals(capacity, cache.size());
+		assertEquals(10 * capacity, cache.getMisses());
+
+		// the most recent entries are still present
+		cache.get(10 * capacity - 1, k -> fail("Should be cached"));
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	void testDisabled() {
+
+		LruCache<Integer, Integer> cache = new LruCache<>(0);
+		cache.get(1, Function.identity());
+		cache.get(1, Function.identity());
+
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		assertThrows(IllegalArgumentException.class, () -> new LruCache<>(-1));
+	}
+}
@@ -0,0 +1,55 @@
+package org.matsim.prepare;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearestNodeIndexTest {
+
+	@Test
+	void testNearest() {
+
+		Node a = node("a", 0, 0);
+		Node b = node("b", 3, 0);
+		Node c = node("c", 5, 5);
+		Node pt = node("pt_1", 1, 0);
+
+		NearestNodeIndex index = new NearestNodeIndex(List.of(a, b, c, pt), 10, "pt");
+		assertTrue(index.add(a));
+		assertTrue(index.add(b));
+		assertTrue(index.add(c));
+		assertFalse(index.add(pt));
+		assertEquals(3, index.size());
+
+		Coord coord = new Coord(1, 0);
+		assertEquals(a, index.nearest(coord, 10, n -> true));
+		assertEquals(b, index.nearest(coord, 10, n -> n != a));
+		assertNull(index.nearest(coord, 1.5, n -> n != a));
+		assertEquals(a, index.nearest(coord));
+	}
+
+	@Test
+	void testIncremental() {
+
+		Node a = node("a", 0, 0);
+		Node b = node("b", 100, 100);
+
+		NearestNodeIndex index = new NearestNodeIndex(List.of(a, b), 10);
+		index.add(a);
+
+		assertNull(index.nearest(new Coord(99, 99), 10, n -> true));
+
+		index.add(b);
+		assertEquals(b, index.nearest(new Coord(99, 99), 10, n -> true));
+	}
+
+	private static Node node(String id, double x, double y) {
+		return NetworkUtils.createNode(Id.createNodeId(id), new Coord(x, y));
+	}
+}
@@ -0,0 +1,98 @@
+package org.matsim.prepare;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolygonAttributeJoinerTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	void testFind() {
+
+		// "inner" lies within "first", but comes later and never wins
+		PolygonAttributeJoiner<String> joiner = new PolygonAttributeJoiner<>(List.of(
+				feature("first", 0, 0, 1000, 1000),
+				feature("second", 500, 0, 1500, 1000),
+				feature("inner", 200, 200, 400, 400)
+		), f -> (String) f.getAttribute("name"));
+
+		assertEquals("first", joiner.find(100, 100));
+		assertEquals("first", joiner.find(300, 300));
+		assertEquals("first", joiner.find(750, 500));
+		assertEquals("second", joiner.find(1250, 500));
+		assertNull(joiner.find(1250, 1200));
+		assertNull(joiner.find(-5000, -5000));
+	}
+
+	@Test
+	void testJoin() {
+
+		// features in reverse order, now the later polygon wins on the overlap
+		PolygonAttributeJoiner<String> joiner = new PolygonAttributeJoiner<>(List.of(
+				feature("second", 500, 0, 1500, 1000),
+				feature("first", 0, 0, 1000, 1000)
+		), f -> (String) f.getAttribute("name"));
+
+		Network network = NetworkUtils.createNetwork();
+		link(network, "inFirst", 100, 500);
+		link(network, "overlap", 750, 500);
+		link(network, "inSecond", 1250, 500);
+		link(network, "outside", 3000, 500);
+		link(network, "pt", 100, 500).setAllowedModes(Set.of("pt"));
+
+		Map<String, String> result = new ConcurrentHashMap<>();
+		joiner.join(network.getLinks().values(), l -> !l.getAllowedModes().contains("pt"),
+				(link, value) -> result.put(link.getId().toString(), value == null ? "none" : value));
+
+		assertEquals(Map.of(
+				"inFirst", "first",
+				"overlap", "second",
+				"inSecond", "second",
+				"outside", "none"
+		), result);
+	}
+
+	/**
+	 * Create a short link, whose coordinate lies at the given position.
+	 */
+	private static Link link(Network network, String id, double x, double y) {
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_from"), new Coord(x - 10, y));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_to"), new Coord(x + 10, y));
+		return NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, 20, 10, 1000, 1);
+	}
+
+	private SimpleFeature feature(String name, double minX, double minY, double maxX, double maxY) {
+		var builder = new SimpleFeatureBuilder(createType());
+		builder.add(factory.toGeometry(new Envelope(minX, maxX, minY, maxY)));
+		builder.set("name", name);
+		return builder.buildFeature(null);
+	}
+
+	private static SimpleFeatureType createType() {
+		var builder = new SimpleFeatureTypeBuilder();
+		builder.setName("zone");
+		builder.add("the_geom", Polygon.class);
+		builder.add("name", String.class);
+		return builder.buildFeatureType();
+	}
+}
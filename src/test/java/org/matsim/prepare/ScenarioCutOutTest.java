@@ -0,0 +1,153 @@
+package org.matsim.prepare;
+
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.ProjectionUtils;
+import org.matsim.core.utils.gis.ShapeFileWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScenarioCutOutTest {
+
+	private static final String CRS_NAME = "EPSG:25832";
+	private static final int SIZE = 5;
+	private static final int PERSONS = 50;
+
+	@TempDir
+	Path dir;
+
+	@BeforeEach
+	void setUp() throws Exception {
+
+		Network network = createGrid();
+		NetworkUtils.writeNetwork(network, dir.resolve("network.xml.gz").toString());
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		ProjectionUtils.putCRS(population, CRS_NAME);
+		population.getAttributes().putAttribute("description", "cut out test");
+
+		PopulationFactory f = population.getFactory();
+		Random rnd = new Random(0);
+		for (int i = 0; i < PERSONS; i++) {
+			Coord home = new Coord(rnd.nextDouble() * 2000, rnd.nextDouble() * 2000);
+			Coord work = new Coord(rnd.nextDouble() * 2000, rnd.nextDouble() * 2000);
+
+			Plan plan = f.createPlan();
+			plan.addActivity(activity(f, network, "home", home, 8 * 3600));
+			plan.addLeg(f.createLeg(TransportMode.car));
+			plan.addActivity(activity(f, network, "work", work, 17 * 3600));
+			plan.addLeg(f.createLeg(TransportMode.car));
+			plan.addActivity(f.createActivityFromCoord("home", home));
+
+			Person person = f.createPerson(Id.createPersonId(i));
+			person.addPlan(plan);
+			population.addPerson(person);
+		}
+
+		PopulationUtils.writePopulation(population, dir.resolve("plans.xml.gz").toString());
+
+		// the area covers the lower left part of the grid
+		var builder = new SimpleFeatureTypeBuilder();
+		builder.setName("area");
+		builder.setCRS(CRS.decode(CRS_NAME));
+		builder.add("the_geom", Polygon.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+
+		var feature = new SimpleFeatureBuilder(type);
+		feature.add(new GeometryFactory().toGeometry(new Envelope(0, 900, 0, 900)));
+		ShapeFileWriter.writeGeometries(List.of(feature.buildFeature(null)), dir.resolve("area.shp").toString());
+	}
+
+	@Test
+	void testStreamingMatchesInMemory() throws IOException {
+
+		Path memory = cutOut("memory", "--use-router");
+		Path streaming = cutOut("streaming", "--use-router", "--streaming");
+
+		Population expected = PopulationUtils.readPopulation(memory.resolve("plans.xml.gz").toString());
+		Population actual = PopulationUtils.readPopulation(streaming.resolve("plans.xml.gz").toString());
+
+		assertTrue(expected.getPersons().size() > 0 && expected.getPersons().size() < PERSONS, "Only part of the persons should be kept");
+
+		assertEquals(CRS_NAME, ProjectionUtils.getCRS(actual));
+		assertEquals(expected.getAttributes().getAsMap(), actual.getAttributes().getAsMap());
+		assertEquals(expected.getPersons().keySet(), actual.getPersons().keySet());
+		assertTrue(PopulationUtils.equalPopulation(expected, actual));
+
+		assertEquals(readLinks(memory), readLinks(streaming));
+	}
+
+	@Test
+	void testWithoutCache() throws IOException {
+
+		Path cached = cutOut("cached", "--use-router");
+		Path uncached = cutOut("uncached", "--use-router", "--cache-size", "0");
+
+		Population expected = PopulationUtils.readPopulation(cached.resolve("plans.xml.gz").toString());
+		Population actual = PopulationUtils.readPopulation(uncached.resolve("plans.xml.gz").toString());
+
+		assertTrue(PopulationUtils.equalPopulation(expected, actual));
+		assertEquals(readLinks(cached), readLinks(uncached));
+	}
+
+	/**
+	 * Run the cut-out into a new directory with the given additional arguments.
+	 */
+	private Path cutOut(String name, String... args) throws IOException {
+
+		Path output = dir.resolve(name);
+		List<String> all = new ArrayList<>(List.of(
+				"--input", dir.resolve("plans.xml.gz").toString(),
+				"--network", dir.resolve("network.xml.gz").toString(),
+				"--output-network", output.resolve("network.xml.gz").toString(),
+				"--output-population", output.resolve("plans.xml.gz").toString(),
+				"--input-crs", CRS_NAME,
+				"--shp", dir.resolve("area.shp").toString()
+		));
+		all.addAll(List.of(args));
+
+		Files.createDirectories(output);
+		new ScenarioCutOut().execute(all.toArray(String[]::new));
+		return output;
+	}
+
+	private static Set<Id<Link>> readLinks(Path output) {
+		return NetworkUtils.readNetwork(output.resolve("network.xml.gz").toString()).getLinks().keySet();
+	}
+
+	private static Activity activity(PopulationFactory f, Network network, String type, Coord coord, double endTime) {
+		Activity act = f.createActivityFromCoord(type, coord);
+		act.setLinkId(NetworkUtils.getNearestLink(network, coord).getId());
+		act.setEndTime(endTime);
+		return act;
+	}
+
+	private static Network createGrid() {
+		return GridNetwork.create(SIZE, 500, 15, Set.of(TransportMode.car, TransportMode.bike, TransportMode.ride));
+	}
+}
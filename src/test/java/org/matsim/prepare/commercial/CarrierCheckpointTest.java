@@ -0,0 +1,133 @@
+package org.matsim.prepare.commercial;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.freight.carriers.*;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CarrierCheckpointTest {
+
+	private static final Id<Link> DEPOT = Id.createLinkId("depot");
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void testRecordAndRestore() throws IOException {
+
+		VehicleType type = createType(100);
+		new CarrierCheckpoint(dir).record(createSolved("a", type, 10));
+
+		Carriers carriers = new Carriers();
+		carriers.addCarrier(createCarrier("a", type, 10));
+		carriers.addCarrier(createCarrier("b", type, 10));
+
+		List<Carrier> unsolved = new CarrierCheckpoint(dir).restore(carriers, createTypes(type));
+
+		assertEquals(List.of(Id.create("b", Carrier.class)), unsolved.stream().map(Carrier::getId).toList());
+
+		Carrier restored = carriers.getCarriers().get(Id.create("a", Carrier.class));
+		assertNotNull(restored.getSelectedPlan());
+		assertEquals(-42., restored.getSelectedPlan().getScore());
+		assertEquals(1, restored.getSelectedPlan().getScheduledTours().size());
+	}
+
+	@Test
+	void testChangedInput() throws IOException {
+
+		VehicleType type = createType(100);
+		new CarrierCheckpoint(dir).record(createSolved("a", type, 10));
+
+		// different size of the shipment
+		Carriers carriers = new Carriers();
+		carriers.addCarrier(createCarrier("a", type, 20));
+		assertEquals(1, new CarrierCheckpoint(dir).restore(carriers, createTypes(type)).size());
+
+		// vehicle type with same id, but different costs
+		VehicleType changed = createType(200);
+		carriers = new Carriers();
+		carriers.addCarrier(createCarrier("a", changed, 10));
+		assertEquals(1, new CarrierCheckpoint(dir).restore(carriers, createTypes(changed)).size());
+	}
+
+	@Test
+	void testTruncatedManifest() throws IOException {
+
+		VehicleType type = createType(100);
+		new CarrierCheckpoint(dir).record(createSolved("a", type, 10));
+
+		// the process was killed while writing a later entry of the same carrier
+		Files.writeString(dir.resolve("manifest.tsv"), "a\t" + CarrierCheckpoint.hash(createCarrier("a", type, 10)) + "\tmiss",
+			StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		Carriers carriers = new Carriers();
+		carriers.addCarrier(createCarrier("a", type, 10));
+
+		assertTrue(new CarrierCheckpoint(dir).restore(carriers, createTypes(type)).isEmpty());
+		assertNotNull(carriers.getCarriers().get(Id.create("a", Carrier.class)).getSelectedPlan());
+	}
+
+	private static Carrier createSolved(String id, VehicleType type, int size) {
+
+		Carrier carrier = createCarrier(id, type, size);
+		CarrierShipment shipment = carrier.getShipments().values().iterator().next();
+		CarrierVehicle vehicle = carrier.getCarrierCapabilities().getCarrierVehicles().values().iterator().next();
+
+		Tour.Builder builder = Tour.Builder.newInstance(Id.create("1", Tour.class));
+		builder.scheduleStart(DEPOT);
+		builder.addLeg(builder.createLeg(null, 0, 0));
+		builder.schedulePickup(shipment);
+		builder.addLeg(builder.createLeg(null, 0, 0));
+		builder.scheduleDelivery(shipment);
+		builder.addLeg(builder.createLeg(null, 0, 0));
+		builder.scheduleEnd(DEPOT);
+
+		CarrierPlan plan = new CarrierPlan(List.of(ScheduledTour.newInstance(builder.build(), vehicle, 0)));
+		plan.setScore(-42.);
+		carrier.addPlan(plan);
+		carrier.setSelectedPlan(plan);
+		return carrier;
+	}
+
+	private static Carrier createCarrier(String id, VehicleType type, int size) {
+
+		Carrier carrier = CarriersUtils.createCarrier(Id.create(id, Carrier.class));
+		CarriersUtils.setJspritIterations(carrier, 10);
+
+		CarrierCapabilities capabilities = CarrierCapabilities.Builder.newInstance().setFleetSize(CarrierCapabilities.FleetSize.INFINITE).build();
+		CarrierVehicle vehicle = CarrierVehicle.Builder.newInstance(Id.create(id + "_v", Vehicle.class), DEPOT, type).build();
+		capabilities.getCarrierVehicles().put(vehicle.getId(), vehicle);
+		capabilities.getVehicleTypes().add(type);
+		carrier.setCarrierCapabilities(capabilities);
+
+		CarrierShipment shipment = CarrierShipment.Builder.newInstance(Id.create(id + "_1", CarrierShipment.class), DEPOT, Id.createLinkId("customer"), size).build();
+		carrier.getShipments().put(shipment.getId(), shipment);
+		return carrier;
+	}
+
+	private static VehicleType createType(double fixedCosts) {
+		VehicleType type = VehicleUtils.createVehicleType(Id.create("truck", VehicleType.class));
+		type.getCapacity().setOther(100);
+		type.getCostInformation().setFixedCost(fixedCosts).setCostsPerMeter(0.001).setCostsPerSecond(0.01);
+		return type;
+	}
+
+	private static CarrierVehicleTypes createTypes(VehicleType type) {
+		CarrierVehicleTypes types = new CarrierVehicleTypes();
+		types.getVehicleTypes().put(type.getId(), type);
+		return types;
+	}
+}
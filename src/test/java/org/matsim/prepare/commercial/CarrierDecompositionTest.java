@@ -0,0 +1,197 @@
+package org.matsim.prepare.commercial;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.freight.carriers.*;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CarrierDecompositionTest {
+
+	private static final int CAPACITY = 100;
+
+	@Test
+	void testDecompose() {
+
+		Network network = NetworkUtils.createNetwork();
+		Node center = NetworkUtils.createAndAddNode(network, Id.createNodeId("center"), new Coord(0, 0));
+		Node hub = NetworkUtils.createAndAddNode(network, Id.createNodeId("hub"), new Coord(10, 0));
+		Link depot = NetworkUtils.createAndAddLink(network, Id.createLinkId("depot"), center, hub, 10, 10, 1000, 1);
+
+		Carrier carrier = createCarrier(depot.getId());
+
+		// locations on a circle around the depot, with two shipments each
+		Random rnd = new Random(0);
+		for (int i = 0; i < 150; i++) {
+			double angle = rnd.nextDouble() * 2 * Math.PI;
+			Node node = NetworkUtils.createAndAddNode(network, Id.createNodeId("n" + i), new Coord(1000 * Math.cos(angle), 1000 * Math.sin(angle)));
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("l" + i), center, node, 1000, 10, 1000, 1);
+
+			for (int j = 0; j < 2; j++) {
+				CarrierShipment shipment = CarrierShipment.Builder.newInstance(Id.create(i + "_" + j, CarrierShipment.class), depot.getId(), link.getId(), 10).build();
+				carrier.getShipments().put(shipment.getId(), shipment);
+			}
+		}
+
+		CarrierDecomposition decomposition = new CarrierDecomposition(network, 50);
+		List<Carrier> parts = decomposition.decompose(carrier);
+
+		assertTrue(parts.size() >= 6, "Expected at least 6 parts, got " + parts.size());
+
+		Set<Id<CarrierShipment>> covered = new HashSet<>();
+		for (Carrier part : parts) {
+			assertTrue(part.getShipments().size() <= 50);
+			assertEquals(CarriersUtils.getJspritIterations(carrier), CarriersUtils.getJspritIterations(part));
+			assertEquals(carrier.getCarrierCapabilities().getCarrierVehicles().keySet(), part.getCarrierCapabilities().getCarrierVehicles().keySet());
+
+			for (CarrierShipment shipment : part.getShipments().values()) {
+				assertTrue(covered.add(shipment.getId()), "Shipment in multiple parts " + shipment.getId());
+			}
+
+			// shipments to the same link are in the same part
+			for (CarrierShipment shipment : part.getShipments().values()) {
+				String location = shipment.getTo().toString();
+				String other = shipment.getId().toString().endsWith("_0") ? shipment.getId().toString().replace("_0", "_1") : shipment.getId().toString().replace("_1", "_0");
+				assertTrue(part.getShipments().containsKey(Id.create(other, CarrierShipment.class)), "Location split " + location);
+			}
+		}
+
+		assertEquals(carrier.getShipments().keySet(), covered);
+
+		// the target demand of the 6 parts is rounded up to full vehicles
+		for (Carrier part : parts) {
+			int demand = part.getShipments().values().stream().mapToInt(CarrierShipment::getSize).sum();
+			assertTrue(demand <= 5 * CAPACITY);
+		}
+
+		// every part is solved with one tour, which has the same id in all parts
+		double score = 0;
+		for (Carrier part : parts) {
+			CarrierPlan plan = createPlan(part, depot.getId(), -10. * part.getShipments().size());
+			score += plan.getScore();
+			part.addPlan(plan);
+			part.setSelectedPlan(plan);
+		}
+
+		// only the last solved part completes the original carrier
+		for (int i = 0; i < parts.size() - 1; i++) {
+			assertNull(decomposition.solved(parts.get(i)));
+			assertNull(carrier.getSelectedPlan());
+		}
+
+		assertSame(carrier, decomposition.solved(parts.getLast()));
+
+		CarrierPlan merged = carrier.getSelectedPlan();
+		assertNotNull(merged);
+		assertEquals(parts.size(), merged.getScheduledTours().size());
+		assertEquals(score, merged.getScore());
+
+		Set<Id<Tour>> tourIds = new HashSet<>();
+		List<Id<CarrierShipment>> delivered = new ArrayList<>();
+		for (ScheduledTour tour : merged.getScheduledTours()) {
+			assertTrue(tourIds.add(tour.getTour().getId()), "Duplicate tour id " + tour.getTour().getId());
+			assertEquals(depot.getId(), tour.getTour().getStartLinkId());
+			for (Tour.TourElement element : tour.getTour().getTourElements()) {
+				if (element instanceof Tour.Delivery delivery)
+					delivered.add(delivery.getShipment().getId());
+			}
+		}
+
+		assertEquals(carrier.getShipments().size(), delivered.size());
+		assertEquals(carrier.getShipments().keySet(), new HashSet<>(delivered));
+	}
+
+	@Test
+	void testSmallCarrierUnchanged() {
+
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(10, 0));
+		Link depot = NetworkUtils.createAndAddLink(network, Id.createLinkId("depot"), a, b, 10, 10, 1000, 1);
+
+		Carrier carrier = createCarrier(depot.getId());
+		CarrierShipment shipment = CarrierShipment.Builder.newInstance(Id.create("1", CarrierShipment.class), depot.getId(), depot.getId(), 10).build();
+		carrier.getShipments().put(shipment.getId(), shipment);
+
+		CarrierDecomposition decomposition = new CarrierDecomposition(network, 50);
+		assertSame(carrier, decomposition.decompose(carrier).getFirst());
+		assertSame(carrier, decomposition.solved(carrier));
+	}
+
+	@Test
+	void testFiniteFleetUnchanged() {
+
+		Network network = NetworkUtils.createNetwork();
+		Node center = NetworkUtils.createAndAddNode(network, Id.createNodeId("center"), new Coord(0, 0));
+		Node hub = NetworkUtils.createAndAddNode(network, Id.createNodeId("hub"), new Coord(10, 0));
+		Link depot = NetworkUtils.createAndAddLink(network, Id.createLinkId("depot"), center, hub, 10, 10, 1000, 1);
+
+		// each vehicle of a finite fleet can only be used once, so the parts can not share them
+		Carrier carrier = createCarrier(depot.getId(), CarrierCapabilities.FleetSize.FINITE);
+		for (int i = 0; i < 100; i++) {
+			double angle = i * 2 * Math.PI / 100;
+			Node node = NetworkUtils.createAndAddNode(network, Id.createNodeId("n" + i), new Coord(1000 * Math.cos(angle), 1000 * Math.sin(angle)));
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("l" + i), center, node, 1000, 10, 1000, 1);
+
+			CarrierShipment shipment = CarrierShipment.Builder.newInstance(Id.create(i, CarrierShipment.class), depot.getId(), link.getId(), 10).build();
+			carrier.getShipments().put(shipment.getId(), shipment);
+		}
+
+		CarrierDecomposition decomposition = new CarrierDecomposition(network, 50);
+		assertEquals(List.of(carrier), decomposition.decompose(carrier));
+		assertSame(carrier, decomposition.solved(carrier));
+	}
+
+	/**
+	 * Plan with a single tour, which picks up all shipments at the depot and delivers them afterward.
+	 */
+	private static CarrierPlan createPlan(Carrier part, Id<Link> depot, double score) {
+
+		Tour.Builder builder = Tour.Builder.newInstance(Id.create("1", Tour.class));
+		builder.scheduleStart(depot);
+		for (CarrierShipment shipment : part.getShipments().values()) {
+			builder.addLeg(builder.createLeg(null, 0, 0));
+			builder.schedulePickup(shipment);
+		}
+		for (CarrierShipment shipment : part.getShipments().values()) {
+			builder.addLeg(builder.createLeg(null, 0, 0));
+			builder.scheduleDelivery(shipment);
+		}
+		builder.addLeg(builder.createLeg(null, 0, 0));
+		builder.scheduleEnd(depot);
+
+		CarrierVehicle vehicle = part.getCarrierCapabilities().getCarrierVehicles().values().iterator().next();
+		CarrierPlan plan = new CarrierPlan(List.of(ScheduledTour.newInstance(builder.build(), vehicle, 0)));
+		plan.setScore(score);
+		return plan;
+	}
+
+	private static Carrier createCarrier(Id<Link> depot) {
+		return createCarrier(depot, CarrierCapabilities.FleetSize.INFINITE);
+	}
+
+	private static Carrier createCarrier(Id<Link> depot, CarrierCapabilities.FleetSize fleetSize) {
+		VehicleType type = VehicleUtils.createVehicleType(Id.create("truck", VehicleType.class));
+		type.getCapacity().setOther(CAPACITY);
+
+		Carrier carrier = CarriersUtils.createCarrier(Id.create("ParcelDelivery_test_Hub_1", Carrier.class));
+		CarriersUtils.setJspritIterations(carrier, 10);
+
+		CarrierCapabilities capabilities = CarrierCapabilities.Builder.newInstance().setFleetSize(fleetSize).build();
+		CarrierVehicle vehicle = CarrierVehicle.Builder.newInstance(Id.create("v1", Vehicle.class), depot, type).build();
+		capabilities.getCarrierVehicles().put(vehicle.getId(), vehicle);
+		capabilities.getVehicleTypes().add(type);
+		carrier.setCarrierCapabilities(capabilities);
+		return carrier;
+	}
+}
@@ -0,0 +1,130 @@
+package org.matsim.prepare.commercial;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.freight.carriers.*;
+import org.matsim.prepare.GridNetwork;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CarrierSchedulerTest {
+
+	private static final int SIZE = 5;
+
+	@Test
+	void testSolveScenarios() throws Exception {
+		solveScenarios(null);
+	}
+
+	@Test
+	void testSolveScenariosWithMatrix() throws Exception {
+		solveScenarios(createGrid());
+	}
+
+	@Test
+	void testInvalidIterations() {
+
+		Scenario scenario = createScenario(createGrid(), "invalid", 1, new Random(0));
+		Carrier carrier = CarriersUtils.getCarriers(scenario).getCarriers().values().iterator().next();
+		CarriersUtils.setJspritIterations(carrier, 0);
+
+		CarrierScheduler scheduler = new CarrierScheduler(2);
+		assertThrows(IllegalArgumentException.class, () -> scheduler.addCarriers(scenario));
+	}
+
+	/**
+	 * Solve the carriers of two scenarios in one scheduler.
+	 *
+	 * @param shared network of both scenarios, for which a shared cost matrix is used, or null to use separate networks without matrix
+	 */
+	private static void solveScenarios(Network shared) throws Exception {
+
+		Random rnd = new Random(0);
+		List<Scenario> scenarios = List.of(
+			createScenario(shared != null ? shared : createGrid(), "a", 3, rnd),
+			createScenario(shared != null ? shared : createGrid(), "b", 2, rnd)
+		);
+
+		CarrierScheduler scheduler = shared != null ? new CarrierScheduler(2, new LinkCostMatrix(shared)) : new CarrierScheduler(2);
+		scenarios.forEach(scheduler::addCarriers);
+
+		Map<Id<Carrier>, Integer> solved = new ConcurrentHashMap<>();
+		scheduler.run(carrier -> solved.merge(carrier.getId(), 1, Integer::sum));
+
+		assertEquals(5, solved.size());
+		assertTrue(solved.values().stream().allMatch(n -> n == 1), "Carriers solved more than once " + solved);
+
+		for (Scenario scenario : scenarios) {
+			for (Carrier carrier : CarriersUtils.getCarriers(scenario).getCarriers().values()) {
+				CarrierPlan plan = carrier.getSelectedPlan();
+				assertNotNull(plan, "No plan for " + carrier.getId());
+
+				Set<Id<CarrierShipment>> delivered = new HashSet<>();
+				for (ScheduledTour tour : plan.getScheduledTours()) {
+					for (Tour.TourElement element : tour.getTour().getTourElements()) {
+						if (element instanceof Tour.Delivery delivery)
+							assertTrue(delivered.add(delivery.getShipment().getId()));
+					}
+				}
+				assertEquals(carrier.getShipments().keySet(), delivered);
+			}
+		}
+	}
+
+	private static Scenario createScenario(Network network, String name, int carriers, Random rnd) {
+
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, FreightCarriersConfigGroup.class);
+
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		scenario.setNetwork(network);
+
+		VehicleType type = VehicleUtils.createVehicleType(Id.create("truck_" + name, VehicleType.class));
+		type.getCapacity().setOther(10);
+		type.getCostInformation().setFixedCost(100.).setCostsPerMeter(0.001).setCostsPerSecond(0.01);
+		type.setMaximumVelocity(20);
+		type.setNetworkMode(TransportMode.car);
+		CarriersUtils.getCarrierVehicleTypes(scenario).getVehicleTypes().put(type.getId(), type);
+
+		List<Id<Link>> links = new ArrayList<>(network.getLinks().keySet());
+		Carriers result = CarriersUtils.addOrGetCarriers(scenario);
+		for (int i = 0; i < carriers; i++) {
+			Carrier carrier = CarriersUtils.createCarrier(Id.create(name + "_" + i, Carrier.class));
+			CarriersUtils.setJspritIterations(carrier, 5);
+
+			Id<Link> depot = links.get(rnd.nextInt(links.size()));
+			CarrierCapabilities capabilities = CarrierCapabilities.Builder.newInstance().setFleetSize(CarrierCapabilities.FleetSize.INFINITE).build();
+			CarrierVehicle vehicle = CarrierVehicle.Builder.newInstance(Id.create(carrier.getId() + "_v", Vehicle.class), depot, type).build();
+			capabilities.getCarrierVehicles().put(vehicle.getId(), vehicle);
+			capabilities.getVehicleTypes().add(type);
+			carrier.setCarrierCapabilities(capabilities);
+
+			for (int j = 0; j < 5 + i; j++) {
+				Id<Link> to = links.get(rnd.nextInt(links.size()));
+				CarrierShipment shipment = CarrierShipment.Builder.newInstance(Id.create(carrier.getId() + "_" + j, CarrierShipment.class), depot, to, 3).build();
+				carrier.getShipments().put(shipment.getId(), shipment);
+			}
+
+			result.addCarrier(carrier);
+		}
+
+		return scenario;
+	}
+
+	private static Network createGrid() {
+		return GridNetwork.create(SIZE, 500, 15, Set.of(TransportMode.car));
+	}
+}
@@ -0,0 +1,95 @@
+package org.matsim.prepare.commercial;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.population.PopulationUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FreightRelationStoreTest {
+
+	@Test
+	void testWriteAndRead(@TempDir Path dir) throws IOException {
+
+		FreightRelationStore store = FreightRelationStore.of(List.of(createRelation("1"), createParcelRelation(), createRelation("2")));
+		Path file = dir.resolve("relations" + FreightRelationStore.FILE_ENDING);
+		store.write(file);
+
+		assertTrue(FreightRelationStore.isStoreFile(file.toString()));
+		FreightRelationStore read = FreightRelationStore.read(file);
+
+		assertEquals(3, read.size());
+		for (int i = 0; i < read.size(); i++) {
+			assertEquals(store.getOriginCell(i), read.getOriginCell(i));
+			assertEquals(store.getDestinationLocationId(i), read.getDestinationLocationId(i));
+			assertEquals(store.getTransportType(i), read.getTransportType(i));
+			assertEquals(store.getGoodsType(i), read.getGoodsType(i));
+			assertEquals(store.getParcelHubId(i), read.getParcelHubId(i));
+			assertEquals(store.getOriginX(i), read.getOriginX(i));
+			assertEquals(store.getTonsPerYear(i), read.getTonsPerYear(i));
+			assertEquals(store.getParcelsPerYear(i), read.getParcelsPerYear(i));
+		}
+
+		assertEquals(100, read.getGoodsType(0));
+		assertEquals(150, read.getGoodsType(1));
+		assertNull(read.getOriginCell(1));
+		assertEquals("hub", read.getParcelHubId(1));
+	}
+
+	@Test
+	void testSamePersonAsPopulation() {
+
+		List<RvrTripRelation> relations = List.of(createRelation("1"), createParcelRelation());
+		FreightRelationStore store = FreightRelationStore.of(relations);
+
+		for (int i = 0; i < relations.size(); i++) {
+			Person expected = PopulationUtils.getFactory().createPerson(Id.createPersonId("freightData_" + i));
+			CommercialTrafficUtils.writeCommonAttributes(expected, relations.get(i), Integer.toString(i));
+
+			Person actual = store.createPerson(i, PopulationUtils.getFactory());
+
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getAttributes().getAsMap(), actual.getAttributes().getAsMap());
+			assertEquals(CommercialTrafficUtils.getOriginX(expected), CommercialTrafficUtils.getOriginX(actual));
+			assertEquals(store.getGoodsType(i), CommercialTrafficUtils.getGoodsType(actual));
+		}
+	}
+
+	private static RvrTripRelation createRelation(String cell) {
+		return new RvrTripRelation.Builder()
+			.originCell(cell)
+			.originLocationId("originLocation")
+			.destinationCell("destinationCell")
+			.destinationLocationId("destinationLocation")
+			.transportType(CommercialTrafficUtils.TransportType.FTL.toString())
+			.goodsType("100")
+			.tonsPerYear(500)
+			.originX(1.0)
+			.originY(2.0)
+			.destinationX(3.0)
+			.destinationY(4.0)
+			.build();
+	}
+
+	private static RvrTripRelation createParcelRelation() {
+		return new RvrTripRelation.Builder()
+			.originLocationId("hub")
+			.destinationCell("destinationCell")
+			.transportType(CommercialTrafficUtils.TransportType.LTL.toString())
+			.goodsType("150")
+			.originX(5.0)
+			.originY(6.0)
+			.destinationX(7.0)
+			.destinationY(8.0)
+			.parcelHubId("hub")
+			.parcelOperator("operator")
+			.parcelsPerYear(1000)
+			.build();
+	}
+}
@@ -0,0 +1,158 @@
+package org.matsim.prepare.commercial;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.matsim.prepare.GridNetwork;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkCostMatrixTest {
+
+	private static final int SIZE = 15;
+
+	private static final LinkCostMatrix.Profile PROFILE = new LinkCostMatrix.Profile(TransportMode.car, 1, 0, 1000);
+
+	@Test
+	void testSameAsDijkstra() {
+
+		Network network = createGrid();
+		List<Id<Link>> locations = randomLinks(network, 30);
+
+		LinkCostMatrix matrix = new LinkCostMatrix(network);
+		matrix.compute(PROFILE, locations);
+
+		FreeSpeedTravelTime tt = new FreeSpeedTravelTime();
+		LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(network, new OnlyTimeDependentTravelDisutility(tt), tt);
+
+		for (Id<Link> fromId : locations) {
+			for (Id<Link> toId : locations) {
+				long value = matrix.get(PROFILE, fromId, toId);
+				if (fromId.equals(toId)) {
+					assertEquals(0, LinkCostMatrix.travelTime(value));
+					continue;
+				}
+
+				Link from = network.getLinks().get(fromId);
+				Link to = network.getLinks().get(toId);
+				LeastCostPathCalculator.Path path = dijkstra.calcLeastCostPath(from.getToNode(), to.getFromNode(), 0, null, null);
+
+				double expectedTime = path.travelTime + to.getLength() / to.getFreespeed();
+				double expectedDist = path.links.stream().mapToDouble(Link::getLength).sum() + to.getLength();
+
+				assertEquals(expectedTime, LinkCostMatrix.travelTime(value), 1e-2);
+				assertEquals(expectedDist, LinkCostMatrix.distance(value), 1e-1);
+			}
+		}
+	}
+
+	@Test
+	void testUnreachable() {
+
+		Network network = createGrid();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(-100, -100));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(-200, -100));
+		Link isolated = NetworkUtils.createAndAddLink(network, Id.createLinkId("isolated"), a, b, 100, 10, 1000, 1);
+		isolated.setAllowedModes(Set.of(TransportMode.car));
+
+		Id<Link> other = network.getLinks().keySet().iterator().next();
+
+		LinkCostMatrix matrix = new LinkCostMatrix(network);
+		matrix.compute(PROFILE, List.of(other, isolated.getId()));
+
+		assertEquals(LinkCostMatrix.UNREACHABLE, matrix.get(PROFILE, other, isolated.getId()));
+		assertEquals(LinkCostMatrix.UNREACHABLE, matrix.get(PROFILE, isolated.getId(), other));
+	}
+
+	@Test
+	void testWriteAndRead(@TempDir Path dir) throws IOException {
+
+		Network network = createGrid();
+		List<Id<Link>> locations = randomLinks(network, 10);
+
+		LinkCostMatrix matrix = new LinkCostMatrix(network);
+		matrix.compute(PROFILE, locations);
+		matrix.write(dir);
+
+		LinkCostMatrix read = new LinkCostMatrix(network);
+		read.read(dir);
+
+		for (Id<Link> from : locations) {
+			for (Id<Link> to : locations) {
+				assertEquals(matrix.get(PROFILE, from, to), read.get(PROFILE, from, to));
+			}
+		}
+
+		// a changed network invalidates the stored pairs
+		network.getLinks().get(locations.getFirst()).setFreespeed(1);
+		LinkCostMatrix changed = new LinkCostMatrix(network);
+		changed.read(dir);
+
+		assertThrows(IllegalStateException.class, () -> changed.get(PROFILE, locations.get(0), locations.get(1)));
+	}
+
+	@Test
+	void testBudget(@TempDir Path dir) throws IOException {
+
+		Network network = createGrid();
+		List<Id<Link>> locations = randomLinks(network, 20);
+		List<Id<Link>> first = locations.subList(0, 10);
+		List<Id<Link>> second = locations.subList(10, 20);
+
+		LinkCostMatrix matrix = new LinkCostMatrix(network, 150);
+		assertTrue(matrix.compute(PROFILE, first));
+		assertEquals(100, matrix.size());
+
+		// the pairs of the second locations do not fit, none of them is added
+		assertFalse(matrix.compute(PROFILE, second));
+		assertEquals(100, matrix.size());
+		assertThrows(IllegalStateException.class, () -> matrix.get(PROFILE, second.get(0), second.get(1)));
+
+		// pairs which are already available do not count again
+		assertTrue(matrix.compute(PROFILE, first.subList(0, 5)));
+		assertEquals(100, matrix.size());
+
+		// reading stops at the budget
+		matrix.write(dir);
+		LinkCostMatrix read = new LinkCostMatrix(network, 50);
+		read.read(dir);
+		assertEquals(50, read.size());
+	}
+
+	private static List<Id<Link>> randomLinks(Network network, int n) {
+		List<Id<Link>> all = new ArrayList<>(network.getLinks().keySet());
+		Random rnd = new Random(0);
+		List<Id<Link>> result = new ArrayList<>();
+		while (result.size() < n) {
+			Id<Link> link = all.get(rnd.nextInt(all.size()));
+			if (!result.contains(link))
+				result.add(link);
+		}
+		return result;
+	}
+
+	/**
+	 * Grid with links in both directions and random speeds.
+	 */
+	private static Network createGrid() {
+		Random rnd = new Random(1);
+		return GridNetwork.create(SIZE, 100, () -> 5 + rnd.nextInt(20), Set.of(TransportMode.car));
+	}
+}
@@ -1,6 +1,26 @@
 package org.matsim.prepare.commercial;
 
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.application.options.ShpOptions;
+import org.matsim.core.utils.geometry.transformations.IdentityTransformation;
+import org.matsim.core.utils.gis.ShapeFileWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -55,4 +75,104 @@ class RvrTripRelationTest {
 		assertEquals("hubId", rvrTripRelation.getParcelHubId());
 		assertEquals(1000.0, rvrTripRelation.getParcelsPerYear());
 	}
+
+	@Test
+	void testReadInOrder(@TempDir Path dir) throws IOException {
+		Path matrix = dir.resolve("matrix.csv");
+		Path kep = dir.resolve("kep.csv");
+
+		// enough rows to be split into multiple chunks
+		int rows = 120_001;
+		try (BufferedWriter writer = Files.newBufferedWriter(matrix, StandardCharsets.ISO_8859_1)) {
+			writer.write(String.join("\t", RvrTripRelation.column_originCellId, RvrTripRelation.column_originLocationId,
+				RvrTripRelation.column_destinationCellId, RvrTripRelation.column_destinationLocationId, RvrTripRelation.column_origin_X,
+				RvrTripRelation.column_origin_Y, RvrTripRelation.column_destination_X, RvrTripRelation.column_destination_Y,
+				RvrTripRelation.column_transportType, RvrTripRelation.column_goodsType, RvrTripRelation.column_tonesPerYear));
+			writer.newLine();
+			for (int i = 0; i < rows; i++) {
+				writer.write(String.join("\t", "o" + i, "ol" + i, "d" + i, "dl" + i, String.valueOf(i), "2.5", "3", "4", "FTL", "100", "0.5"));
+				writer.newLine();
+			}
+		}
+		Files.writeString(kep, String.join("\t", RvrTripRelation.column_parcelHubId, RvrTripRelation.column_origin_X,
+			RvrTripRelation.column_origin_Y, RvrTripRelation.column_destination_X, RvrTripRelation.column_destination_Y,
+			RvrTripRelation.column_parcelsPerYear, RvrTripRelation.column_parcelOperator) + "\n", StandardCharsets.ISO_8859_1);
+
+		List<RvrTripRelation> relations = RvrTripRelation.readTripRelations(matrix, kep, new IdentityTransformation(), null);
+
+		assertEquals(rows, relations.size());
+		for (int i = 0; i < rows; i++) {
+			RvrTripRelation relation = relations.get(i);
+			assertEquals("o" + i, relation.getOriginCell());
+			assertEquals("dl" + i, relation.getDestinationLocationId());
+			assertEquals(i, relation.getOriginX());
+		}
+		assertEquals("d7", relations.get(7).getDestinationCell());
+		assertEquals(2.5, relations.get(7).getOriginY());
+		assertEquals("100", relations.get(7).getGoodsType());
+		assertEquals(0.5, relations.get(7).getTonsPerYear());
+	}
+
+	@Test
+	void testReadKEPInOrder(@TempDir Path dir) throws Exception {
+		Path matrix = dir.resolve("matrix.csv");
+		Path kep = dir.resolve("kep.csv");
+		Path zones = dir.resolve("zones.shp");
+
+		// four zones of 1000 x 1000 m
+		var type = new SimpleFeatureTypeBuilder();
+		type.setName("zones");
+		type.setCRS(CRS.decode("EPSG:25832"));
+		type.add("the_geom", Polygon.class);
+		type.add("nr", String.class);
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type.buildFeatureType());
+
+		List<SimpleFeature> features = new ArrayList<>();
+		for (int x = 0; x < 2; x++) {
+			for (int y = 0; y < 2; y++) {
+				builder.add(new GeometryFactory().toGeometry(new Envelope(x * 1000, x * 1000 + 1000, y * 1000, y * 1000 + 1000)));
+				builder.add("z" + x + y);
+				features.add(builder.buildFeature(null));
+			}
+		}
+		ShapeFileWriter.writeGeometries(features, zones.toString());
+		ShpOptions.Index index = new ShpOptions(zones, null, null).createIndex("nr");
+
+		Files.writeString(matrix, String.join("\t", RvrTripRelation.column_originCellId, RvrTripRelation.column_originLocationId,
+			RvrTripRelation.column_destinationCellId, RvrTripRelation.column_destinationLocationId, RvrTripRelation.column_origin_X,
+			RvrTripRelation.column_origin_Y, RvrTripRelation.column_destination_X, RvrTripRelation.column_destination_Y,
+			RvrTripRelation.column_transportType, RvrTripRelation.column_goodsType, RvrTripRelation.column_tonesPerYear) + "\n", StandardCharsets.ISO_8859_1);
+
+		// more rows than one chunk, the destinations are the centers of 400 cells of 100 x 100 m, which are shared by many rows
+		int rows = 60_001;
+		List<Coord> destinations = new ArrayList<>();
+		try (BufferedWriter writer = Files.newBufferedWriter(kep, StandardCharsets.ISO_8859_1)) {
+			writer.write(String.join("\t", RvrTripRelation.column_parcelHubId, RvrTripRelation.column_origin_X,
+				RvrTripRelation.column_origin_Y, RvrTripRelation.column_destination_X, RvrTripRelation.column_destination_Y,
+				RvrTripRelation.column_parcelsPerYear, RvrTripRelation.column_parcelOperator));
+			writer.newLine();
+			for (int i = 0; i < rows; i++) {
+				Coord destination = new Coord(50 + 100 * (i % 20), 50 + 100 * ((i / 20) % 20));
+				destinations.add(destination);
+				writer.write(String.join("\t", "hub" + i, "500", "500", String.valueOf(destination.getX()), String.valueOf(destination.getY()),
+					String.valueOf(i), "operator"));
+				writer.newLine();
+			}
+		}
+
+		List<RvrTripRelation> relations = RvrTripRelation.readTripRelations(matrix, kep, new IdentityTransformation(), index);
+
+		// same zones and order as querying the index row by row
+		assertEquals(rows, relations.size());
+		for (int i = 0; i < rows; i++) {
+			RvrTripRelation relation = relations.get(i);
+			assertEquals("hub" + i, relation.getParcelHubId());
+			assertEquals(i, relation.getParcelsPerYear());
+			assertEquals(index.query(destinations.get(i)).toString(), relation.getDestinationCell());
+			assertEquals(destinations.get(i).getX(), relation.getDestinationX());
+			assertEquals(destinations.get(i).getY(), relation.getDestinationY());
+		}
+		assertEquals("z00", relations.get(0).getDestinationCell());
+		assertEquals("z11", relations.get(399).getDestinationCell());
+	}
 }
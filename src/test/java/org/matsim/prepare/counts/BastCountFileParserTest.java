@@ -0,0 +1,83 @@
+package org.matsim.prepare.counts;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BastCountFileParserTest {
+
+	/**
+	 * Station 5001 on the A40 with one lane per direction and two vehicle groups. The columns after date and hour are:
+	 * unused, SV and Pkw of the first direction, SV and Pkw of the second direction.
+	 */
+	private static final String HEADER = "BASt 5001    A 40    " + String.format("%-25s", "Mülheim Nord") + "\n" +
+			" 01 01\n" +
+			"V02 02 Pkw SV\n";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testParse() throws IOException {
+
+		Path file = tempDir.resolve("bast.txt");
+		String content = HEADER +
+				"160301 01 99- 5- 100- 6- 120-\n" +
+				// values without the trailing '-' are invalid for the whole direction
+				"160301 02 99- 7- 110- 8x 130-\n" +
+				// edited rows and rows with invalid dates are skipped
+				"160301i03 99- 1- 1- 1- 1-\n" +
+				"161301 04 99- 1- 1- 1- 1-\n" +
+				// missing columns are invalid as well
+				"160302 05 99- 1- 10-\n";
+
+		// the files are encoded in windows-1256, the name formatter receives the decoded umlaut
+		Files.write(file, content.getBytes(Charset.forName("windows-1256")));
+
+		RawStationData data = new BastCountFileParser(s -> s.replace("ü", "ue")).parse(file.toFile(), 2016);
+
+		assertEquals("5001", data.getId());
+		assertEquals("5001_MuelheimNord_A40", data.getName());
+		assertEquals(List.of("Pkw", "SV"), data.getTypes());
+		assertEquals(3, data.size());
+
+		assertEquals(LocalDate.of(2016, 3, 1), data.getDate(0));
+		assertEquals(1, data.getHour(0));
+		assertEquals(100, data.getVolume(0, true, 0));
+		assertEquals(120, data.getVolume(0, false, 0));
+		assertEquals(5, data.getVolume(1, true, 0));
+		assertEquals(6, data.getVolume(1, false, 0));
+
+		assertEquals(2, data.getHour(1));
+		assertEquals(110, data.getVolume(0, true, 1));
+		assertEquals(130, data.getVolume(0, false, 1));
+		assertEquals(7, data.getVolume(1, true, 1));
+		assertTrue(Double.isNaN(data.getVolume(1, false, 1)));
+
+		assertEquals(LocalDate.of(2016, 3, 2), data.getDate(2));
+		assertEquals(5, data.getHour(2));
+		assertEquals(10, data.getVolume(0, true, 2));
+		assertEquals(1, data.getVolume(1, true, 2));
+		assertTrue(Double.isNaN(data.getVolume(0, false, 2)));
+		assertTrue(Double.isNaN(data.getVolume(1, false, 2)));
+	}
+
+	@Test
+	void testSingleVehicleGroup() throws IOException {
+
+		String content = HEADER.replace("V02", "V01") + "160301 01 99- 5- 100- 6- 120-\n";
+
+		BastCountFileParser parser = new BastCountFileParser(s -> s);
+		assertNull(parser.parse(new BufferedReader(new StringReader(content)), 2016));
+	}
+}
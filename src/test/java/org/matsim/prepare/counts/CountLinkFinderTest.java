@@ -0,0 +1,103 @@
+package org.matsim.prepare.counts;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.collections.Tuple;
+import org.matsim.prepare.GridNetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CountLinkFinderTest {
+
+	private static final int SIZE = 20;
+
+	@Test
+	void testSameAsDijkstra() {
+
+		Network network = createGrid();
+
+		// a hop limit of 0 always falls back to a full Dijkstra
+		CountLinkFinder bounded = new CountLinkFinder(network, 4);
+		CountLinkFinder dijkstra = new CountLinkFinder(network, 0);
+
+		Random rnd = new Random(0);
+		List<Tuple<Node, Node>> pairs = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			int x = rnd.nextInt(SIZE - 3);
+			int y = rnd.nextInt(SIZE - 3);
+			pairs.add(new Tuple<>(GridNetwork.node(network, x, y), GridNetwork.node(network, x + rnd.nextInt(3), y + rnd.nextInt(3) + 1)));
+		}
+
+		// far away nodes use the fallback
+		pairs.add(new Tuple<>(GridNetwork.node(network, 0, 0), GridNetwork.node(network, SIZE - 1, SIZE - 1)));
+
+		List<Id<Link>> expected = dijkstra.getFirstLinksOnTheWayFromNodeToNode(pairs);
+		List<Id<Link>> actual = bounded.getFirstLinksOnTheWayFromNodeToNode(pairs);
+
+		for (int i = 0; i < pairs.size(); i++) {
+			Link e = network.getLinks().get(expected.get(i));
+			Link a = network.getLinks().get(actual.get(i));
+			// paths of equal length might start with different links, the first link must still be on a shortest path
+			assertEquals(e.getFromNode(), a.getFromNode());
+			assertEquals(distance(e.getToNode(), pairs.get(i).getSecond()), distance(a.getToNode(), pairs.get(i).getSecond()), 1e-6);
+		}
+
+		assertEquals(pairs.size(), bounded.getNrOfFoundPaths());
+	}
+
+	@Test
+	void testNoPath() {
+
+		Network network = createGrid();
+		Node isolated = NetworkUtils.createAndAddNode(network, Id.createNodeId("isolated"), new Coord(-100, -100));
+
+		CountLinkFinder finder = new CountLinkFinder(network);
+		assertNull(finder.getFirstLinkOnTheWayFromNodeToNode(GridNetwork.node(network, 0, 0), isolated));
+		assertEquals(0, finder.getNrOfFoundPaths());
+	}
+
+	@Test
+	void testHopLimit() {
+
+		// one long direct link, and a shorter detour via 12 short links
+		Network network = NetworkUtils.createNetwork();
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId("from"), new Coord(0, 0));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId("to"), new Coord(1000, 0));
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("direct"), from, to, 2000, 10, 1000, 1);
+
+		Node prev = from;
+		for (int i = 0; i < 12; i++) {
+			Node next = i == 11 ? to : NetworkUtils.createAndAddNode(network, Id.createNodeId("detour_" + i), new Coord(i * 80, 10));
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("detour_" + i), prev, next, 100, 10, 1000, 1);
+			prev = next;
+		}
+
+		// the detour has more links than the limit, so the bounded search returns the longer direct link
+		assertEquals(Id.createLinkId("direct"), new CountLinkFinder(network).getFirstLinkOnTheWayFromNodeToNode(from, to));
+		assertEquals(Id.createLinkId("detour_0"), new CountLinkFinder(network, 12).getFirstLinkOnTheWayFromNodeToNode(from, to));
+		assertEquals(Id.createLinkId("detour_0"), new CountLinkFinder(network, 0).getFirstLinkOnTheWayFromNodeToNode(from, to));
+	}
+
+	/**
+	 * Grid with links in both directions, all links have the same length.
+	 */
+	private static Network createGrid() {
+		return GridNetwork.create(SIZE, 100, 10, Set.of(TransportMode.car));
+	}
+
+	private static double distance(Node a, Node b) {
+		return Math.abs(a.getCoord().getX() - b.getCoord().getX()) + Math.abs(a.getCoord().getY() - b.getCoord().getY());
+	}
+}
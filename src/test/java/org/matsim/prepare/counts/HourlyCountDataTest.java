@@ -0,0 +1,55 @@
+package org.matsim.prepare.counts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HourlyCountDataTest {
+
+	@Test
+	void testMeanAndVariance() {
+
+		HourlyCountData data = new HourlyCountData("1", null, true);
+		data.computeAndSetVolume(true, 8, 100);
+		data.computeAndSetVolume(true, 8, 200);
+		data.computeAndSetVolume(true, 8, 300);
+
+		assertEquals(200, data.getVolume(true, 8), 1e-9);
+		assertEquals(10000, data.getVariance(true, 8), 1e-9);
+		assertEquals(3, data.getNumberOfValues(true, 8));
+
+		assertFalse(data.hasVolume(false, 8));
+		assertTrue(Double.isNaN(data.getVolume(false, 8)));
+		assertTrue(Double.isNaN(new HourlyCountData("2", null).getVariance(true, 8)));
+	}
+
+	@Test
+	void testMergeSameAsSequential() {
+
+		HourlyCountData all = new HourlyCountData("1", null, true);
+		HourlyCountData first = new HourlyCountData("1", null, true);
+		HourlyCountData second = new HourlyCountData("1", null, true);
+
+		Random rnd = new Random(0);
+		for (int i = 0; i < 1000; i++) {
+			int hour = rnd.nextInt(HourlyCountData.HOURS);
+			boolean dir1 = rnd.nextBoolean();
+			double value = rnd.nextInt(2000);
+
+			all.computeAndSetVolume(dir1, hour, value);
+			(i % 3 == 0 ? first : second).computeAndSetVolume(dir1, hour, value);
+		}
+
+		first.merge(second);
+
+		for (int hour = 0; hour < HourlyCountData.HOURS; hour++) {
+			for (boolean dir1 : new boolean[]{true, false}) {
+				assertEquals(all.getNumberOfValues(dir1, hour), first.getNumberOfValues(dir1, hour));
+				assertEquals(all.getVolume(dir1, hour), first.getVolume(dir1, hour), 1e-6);
+				assertEquals(all.getVariance(dir1, hour), first.getVariance(dir1, hour), 1e-3);
+			}
+		}
+	}
+}
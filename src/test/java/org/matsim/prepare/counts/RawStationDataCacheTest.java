@@ -0,0 +1,74 @@
+package org.matsim.prepare.counts;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RawStationDataCacheTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testCachedEntry() throws IOException {
+
+		File source = tempDir.resolve("source.txt").toFile();
+		Files.writeString(source.toPath(), "raw data");
+
+		RawStationDataCache cache = new RawStationDataCache(tempDir.resolve("cache"));
+		AtomicInteger loads = new AtomicInteger();
+		RawStationDataCache.Loader loader = () -> {
+			loads.incrementAndGet();
+			return List.of(createData());
+		};
+
+		List<RawStationData> first = cache.get(source, 2016, loader);
+		List<RawStationData> second = cache.get(source, 2016, loader);
+
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHits());
+		assertSameData(first.get(0), second.get(0));
+
+		// other year or changed content are separate entries
+		cache.get(source, 2017, loader);
+		Files.writeString(source.toPath(), "changed raw data");
+		cache.get(source, 2016, loader);
+
+		assertEquals(3, loads.get());
+	}
+
+	private static RawStationData createData() {
+		RawStationData.Builder builder = new RawStationData.Builder("5001", "5001_Name_A40", List.of("Pkw", "Lkw"));
+		for (int hour = 1; hour <= 24; hour++) {
+			builder.addRow(LocalDate.of(2016, 3, 1), hour);
+			builder.setVolume(0, hour * 10, hour == 5 ? Double.NaN : hour * 11);
+			builder.setVolume(1, hour, hour + 1);
+		}
+		return builder.build();
+	}
+
+	private static void assertSameData(RawStationData expected, RawStationData actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getTypes(), actual.getTypes());
+		assertEquals(expected.size(), actual.size());
+
+		for (int row = 0; row < expected.size(); row++) {
+			assertEquals(expected.getDate(row), actual.getDate(row));
+			assertEquals(expected.getHour(row), actual.getHour(row));
+			for (int type = 0; type < expected.getTypes().size(); type++) {
+				assertEquals(expected.getVolume(type, true, row), actual.getVolume(type, true, row));
+				assertEquals(expected.getVolume(type, false, row), actual.getVolume(type, false, row));
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package org.matsim.prepare.counts;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShortTermCountFileParserTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testXls() throws IOException {
+		Path file = tempDir.resolve("12345678_station.xls");
+		write(new HSSFWorkbook(), file);
+		assertData(new ShortTermCountFileParser(s -> s).parse(file.toFile(), 2016));
+	}
+
+	@Test
+	void testXlsx() throws IOException {
+		Path file = tempDir.resolve("12345678_station.xlsx");
+		write(new XSSFWorkbook(), file);
+		assertData(new ShortTermCountFileParser(s -> s).parse(file.toFile(), 2016));
+	}
+
+	@Test
+	void testParseZip() throws IOException {
+
+		Path xls = tempDir.resolve("xls");
+		Path xlsx = tempDir.resolve("xlsx");
+		write(new HSSFWorkbook(), xls);
+		write(new XSSFWorkbook(), xlsx);
+
+		Path zip = tempDir.resolve("counts.zip");
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+			addEntry(out, "12345678_a.xls", xls);
+			addEntry(out, "87654321_b.xlsx", xlsx);
+			// only count files at the top level are read
+			addEntry(out, "sub/11111111_c.xls", xls);
+			addEntry(out, "readme.txt", xls);
+		}
+
+		List<RawStationData> result = new ShortTermCountFileParser(s -> s).parseZip(zip.toFile(), 2016);
+
+		assertEquals(List.of("12345678", "87654321"), result.stream().map(RawStationData::getId).toList());
+		result.forEach(ShortTermCountFileParserTest::assertValues);
+	}
+
+	private static void assertData(RawStationData data) {
+		assertEquals("12345678", data.getId());
+		assertEquals("12345678_A40", data.getName());
+		assertValues(data);
+	}
+
+	/**
+	 * Check the rows written by {@link #write(Workbook, Path)}.
+	 */
+	private static void assertValues(RawStationData data) {
+
+		assertEquals(List.of("Pkw", "Lkw", "SV"), data.getTypes());
+		assertEquals(3, data.size());
+
+		assertEquals(LocalDate.of(2016, 3, 1), data.getDate(0));
+		assertEquals(0, data.getHour(0));
+		assertEquals(100, data.getVolume(0, true, 0));
+		assertEquals(1234, data.getVolume(0, false, 0));
+		assertEquals(5, data.getVolume(1, true, 0));
+		assertEquals(6, data.getVolume(1, false, 0));
+		assertEquals(7, data.getVolume(2, true, 0));
+		assertEquals(8, data.getVolume(2, false, 0));
+
+		// not marked as valid
+		assertEquals(1, data.getHour(1));
+		for (int type = 0; type < 3; type++) {
+			assertTrue(Double.isNaN(data.getVolume(type, true, 1)));
+			assertTrue(Double.isNaN(data.getVolume(type, false, 1)));
+		}
+
+		// the row with a date cell is skipped, volumes given as text are parsed if possible
+		assertEquals(LocalDate.of(2016, 3, 2), data.getDate(2));
+		assertEquals(2, data.getHour(2));
+		assertEquals(12, data.getVolume(0, true, 2));
+		assertTrue(Double.isNaN(data.getVolume(0, false, 2)));
+		assertEquals(3, data.getVolume(2, true, 2));
+		assertEquals(4, data.getVolume(2, false, 2));
+	}
+
+	/**
+	 * Write a sheet with the fixed layout of the short-term count files. Pkw are in column 5, Lkw in column 7 and SV in
+	 * column 6, direction two is 10 columns to the right.
+	 */
+	private static void write(Workbook workbook, Path file) throws IOException {
+
+		try (workbook) {
+			Sheet sheet = workbook.createSheet("Daten");
+
+			CellStyle thousands = workbook.createCellStyle();
+			thousands.setDataFormat(workbook.createDataFormat().getFormat("#,##0"));
+			CellStyle date = workbook.createCellStyle();
+			date.setDataFormat(workbook.createDataFormat().getFormat("dd.mm.yyyy"));
+
+			sheet.createRow(0).createCell(0).setCellValue("Kurzzeitzaehlung");
+			sheet.createRow(3).createCell(1).setCellValue("A40");
+
+			Row header = sheet.createRow(20);
+			header.createCell(5).setCellValue("Pkw");
+			header.createCell(7).setCellValue("Lkw");
+
+			Row valid = dataRow(sheet, 21, "01.03.2016", "00:00", "-");
+			valid.createCell(5).setCellValue(100);
+			valid.createCell(15).setCellValue(1234);
+			valid.getCell(15).setCellStyle(thousands);
+			valid.createCell(7).setCellValue(5);
+			valid.createCell(17).setCellValue(6);
+			valid.createCell(6).setCellValue(7);
+			valid.createCell(16).setCellValue(8);
+
+			Row invalid = dataRow(sheet, 22, "01.03.2016", "01:00", "x");
+			invalid.createCell(5).setCellValue(100);
+
+			Row dateCell = sheet.createRow(23);
+			dateCell.createCell(0).setCellValue(LocalDate.of(2016, 3, 1));
+			dateCell.getCell(0).setCellStyle(date);
+			dateCell.createCell(1).setCellValue("03:00");
+			dateCell.createCell(4).setCellValue("-");
+
+			Row text = dataRow(sheet, 24, "02.03.2016", "02:00", "-");
+			text.createCell(5).setCellValue("12");
+			text.createCell(15).setCellValue("k.A.");
+			text.createCell(6).setCellValue(3);
+			text.createCell(16).setCellValue(4);
+
+			try (OutputStream out = Files.newOutputStream(file)) {
+				workbook.write(out);
+			}
+		}
+	}
+
+	private static Row dataRow(Sheet sheet, int index, String date, String time, String validity) {
+		Row row = sheet.createRow(index);
+		row.createCell(0).setCellValue(date);
+		row.createCell(1).setCellValue(time);
+		row.createCell(4).setCellValue(validity);
+		return row;
+	}
+
+	private static void addEntry(ZipOutputStream out, String name, Path file) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		Files.copy(file, out);
+		out.closeEntry();
+	}
+}